@@ -3,6 +3,7 @@ plugins {
     id("org.jetbrains.kotlin.jvm") version "2.3.10"
     id("org.jetbrains.intellij.platform") version "2.11.0"
     id("org.jetbrains.kotlinx.kover") version "0.9.1"
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 group = "ch.riesennet.reforge"
@@ -29,6 +30,23 @@ dependencies {
 
 kotlin {
     jvmToolchain(21)
+
+    // Lets benchmarks reach internal declarations of the main code
+    target.compilations.named("jmh") {
+        associateWith(target.compilations.getByName("main"))
+    }
+}
+
+// Benchmarks run outside the IDE but need the platform classes main code links against
+sourceSets.named("jmh") {
+    compileClasspath += sourceSets.main.get().compileClasspath
+    runtimeClasspath += sourceSets.main.get().compileClasspath
+}
+
+jmh {
+    jmhVersion.set("1.37")
+    resultFormat.set("JSON")
+    resultsFile.set(layout.buildDirectory.file("reports/jmh/results.json"))
 }
 
 tasks {
@@ -48,4 +66,11 @@ tasks {
     runIde {
         jvmArgs = listOf("-Xmx2g", "-Djava.awt.headless=true")
     }
+
+    register<JavaExec>("generateSyntheticProject") {
+        group = "benchmark"
+        description = "Generates a synthetic project for scale benchmarks; pass options with --args"
+        classpath = sourceSets["jmh"].runtimeClasspath
+        mainClass.set("ch.riesennet.reforge.benchmarks.SyntheticProjectGeneratorKt")
+    }
 }
@@ -0,0 +1,123 @@
+#!/usr/bin/env bash
+#
+# diff-fidelity — Compares the `--diff` preview of a config with a real run.
+#
+# Copies the project twice. The first copy gets a `--diff` dry run whose diff is
+# then applied to it; the second copy gets a real run. Files that end up
+# different show where the preview deviates, e.g. the approximate move edits or
+# operations skipped as depending on an earlier batch.
+#
+# Usage:
+#   diff-fidelity.sh [project-path] [config.yaml]
+#     (default: src/test/resources/test-project and its refactor.yaml)
+#
+# Environment variables:
+#   FIDELITY_WORK_DIR  — Where copies and logs go (default: build/diff-fidelity)
+#   IDEA_HOME          — Passed through to reforge.sh
+#
+# Exits with 1 if the preview and the real run differ.
+#
+
+set -euo pipefail
+
+die() { echo "diff-fidelity: error: $*" >&2; exit 2; }
+
+SCRIPT_DIR="$(cd "$(dirname "${BASH_SOURCE[0]}")" && pwd)"
+REPO_DIR="$(dirname "$SCRIPT_DIR")"
+WORK_DIR="${FIDELITY_WORK_DIR:-$REPO_DIR/build/diff-fidelity}"
+SOURCE="${1:-$REPO_DIR/src/test/resources/test-project}"
+CONFIG="${2:-refactor.yaml}"
+
+command -v python3 >/dev/null 2>&1 || die "python3 is required to apply the preview"
+[[ -d "$SOURCE" ]] || die "project not found: $SOURCE"
+# The config is resolved inside each copy when it belongs to the project
+if [[ "$CONFIG" = /* && "$CONFIG" != "$SOURCE"/* ]]; then
+  config_of() { echo "$CONFIG"; }
+else
+  relative="${CONFIG#"$SOURCE"/}"
+  config_of() { echo "$1/$relative"; }
+fi
+
+rm -rf "$WORK_DIR"
+mkdir -p "$WORK_DIR"
+preview="$WORK_DIR/preview"
+real="$WORK_DIR/real"
+cp -r "$SOURCE" "$preview"
+cp -r "$SOURCE" "$real"
+
+echo "── preview ──" >&2
+REFORGE_NO_DAEMON=1 "$SCRIPT_DIR/reforge.sh" "$preview" "$(config_of "$preview")" \
+  --diff "$WORK_DIR/preview.diff" 2> "$WORK_DIR/preview.log" \
+  || die "preview run failed, see $WORK_DIR/preview.log"
+
+echo "── real run ──" >&2
+REFORGE_NO_DAEMON=1 "$SCRIPT_DIR/reforge.sh" "$real" "$(config_of "$real")" \
+  2> "$WORK_DIR/real.log" \
+  || echo "  real run exited with an error, see $WORK_DIR/real.log" >&2
+
+# Applies the unified diff to the preview copy: edits, creations and moves, then
+# removes the directories the moves left empty, as the real run does.
+python3 - "$preview" "$WORK_DIR/preview.diff" <<'PY'
+import os, re, sys
+
+root, diff = sys.argv[1], sys.argv[2]
+with open(diff) as f:
+    lines = f.read().split("\n")
+
+def path(header):
+    name = header[4:].split("\t")[0]
+    return None if name == "/dev/null" else os.path.join(root, name[2:])
+
+def read(name):
+    with open(name) as f:
+        text = f.read()
+    return text[:-1].split("\n") if text.endswith("\n") else text.split("\n") if text else []
+
+left = set()
+i = 0
+while i < len(lines):
+    if not lines[i].startswith("--- "):
+        i += 1
+        continue
+    old, new = path(lines[i]), path(lines[i + 1])
+    i += 2
+    text = read(old) if old else []
+    out, position = [], 0
+    while i < len(lines) and lines[i].startswith("@@"):
+        start, count, added = re.match(r"@@ -(\d+)(?:,(\d+))? \+\d+(?:,(\d+))? @@", lines[i]).groups()
+        start, count, added = int(start), int(count or 1), int(added or 1)
+        begin = start if count == 0 else start - 1
+        out.extend(text[position:begin])
+        position = begin + count
+        i += 1
+        # Hunks are read by their line counts; a removed line may look like a header
+        while count > 0 or added > 0:
+            tag, line = lines[i][:1], lines[i][1:]
+            if tag in (" ", "-"):
+                count -= 1
+            if tag in (" ", "+"):
+                added -= 1
+                out.append(line)
+            i += 1
+    out.extend(text[position:])
+    if old and old != new:
+        os.remove(old)
+        left.add(os.path.dirname(old))
+    os.makedirs(os.path.dirname(new), exist_ok=True)
+    with open(new, "w") as f:
+        f.write("".join(line + "\n" for line in out))
+
+for directory in sorted(left, key=len, reverse=True):
+    while directory != root and os.path.isdir(directory) and not os.listdir(directory):
+        os.rmdir(directory)
+        directory = os.path.dirname(directory)
+PY
+
+echo "── differences ──" >&2
+if diff -ru --exclude=.idea --exclude='*.iml' --exclude=target --exclude=build --exclude=out \
+    "$preview" "$real" > "$WORK_DIR/fidelity.diff"; then
+  echo "Preview matches the real run" >&2
+else
+  echo "Preview differs from the real run in $(grep -c '^diff -ru\|^Only in' "$WORK_DIR/fidelity.diff") place(s), see $WORK_DIR/fidelity.diff" >&2
+  exit 1
+fi
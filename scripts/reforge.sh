@@ -9,12 +9,36 @@
 # Supports macOS and Linux.
 #
 # Usage:
-#   reforge <project-path> <config.yaml> [--dry-run]
+#   reforge <project-path> <config.yaml> [--dry-run] [--fresh-index]
+#   reforge plan <project-path> <config.yaml> <plan-file> [--fresh-index]
+#   reforge apply <project-path> <plan-file> [--dry-run] [--fresh-index]
+#   reforge serve <project-path> [--fresh-index]
+#
+# IntelliJ's system directory (stub/word indexes, VFS cache) is kept in a
+# persistent cache keyed by project path and IDE build, so repeat runs only
+# catch up on changed files instead of reindexing the project and JDK. Each
+# cache entry is locked while in use; a second concurrent run against the same
+# project falls back to a throwaway directory. `--fresh-index` discards the
+# project's cached index before launching. Least recently used entries are
+# evicted once the cache exceeds its size limit, by the sizes runs record when
+# they release their entry.
+#
+# `serve` keeps the project open and indexed in a long-running IntelliJ. While
+# a daemon is running for a project, regular invocations for that project are
+# forwarded to it over a Unix socket (requires `nc` with -U support) instead of
+# booting a fresh IDE, together with their options. Result lines are printed to
+# stdout, progress to stderr. Plans, `--fresh-index` and a second `serve` would
+# start another IDE on the project and are refused while its daemon runs.
 #
 # Environment variables:
-#   IDEA_HOME  — Override IntelliJ installation path
-#                macOS: the .app bundle, e.g. "/Applications/IntelliJ IDEA.app"
-#                Linux: the installation dir, e.g. "/opt/idea-IU"
+#   IDEA_HOME          — Override IntelliJ installation path
+#                        macOS: the .app bundle, e.g. "/Applications/IntelliJ IDEA.app"
+#                        Linux: the installation dir, e.g. "/opt/idea-IU"
+#   REFORGE_NO_DAEMON  — Set to 1 to never forward to a running daemon; runs
+#                        then fail while one serves the project
+#   REFORGE_CACHE_DIR  — Index cache location
+#                        (default: ~/Library/Caches/reforge or $XDG_CACHE_HOME/reforge)
+#   REFORGE_CACHE_MAX_MB — Cache size limit in MB before eviction (default: 10240)
 #
 
 set -euo pipefail
@@ -25,6 +49,191 @@ OS="$(uname -s)"
 
 die() { echo "reforge: error: $*" >&2; exit 1; }
 
+usage() {
+  echo "Usage: reforge <project-path> <config.yaml> [--dry-run] [--fresh-index]" >&2
+  echo "       reforge plan <project-path> <config.yaml> <plan-file> [--fresh-index]" >&2
+  echo "       reforge apply <project-path> <plan-file> [--dry-run] [--fresh-index]" >&2
+  echo "       reforge serve <project-path> [--fresh-index]" >&2
+  exit 1
+}
+
+sha256_short() {
+  if command -v sha256sum >/dev/null 2>&1; then
+    printf '%s' "$1" | sha256sum | cut -c1-12
+  else
+    printf '%s' "$1" | shasum -a 256 | cut -c1-12
+  fi
+}
+
+# ── Daemon forwarding ───────────────────────────────────────────────────────
+
+# Socket of the daemon serving a project; must match what `serve` is given.
+daemon_socket() {
+  echo "/tmp/reforge-$(sha256_short "$1").sock"
+}
+
+daemon_alive() {
+  local socket="$1"
+  [[ -S "$socket" ]] || return 1
+  command -v nc >/dev/null 2>&1 || return 1
+  [[ "$(printf 'ping\n' | nc -U "$socket" 2>/dev/null)" == "pong" ]]
+}
+
+absolute_path() {
+  if [[ "$1" = /* ]]; then echo "$1"; else echo "$PWD/$1"; fi
+}
+
+# Sends a run request with the given run options and relays the response;
+# returns the daemon's exit code. Fields are tab-separated, and file options
+# are made absolute since the daemon runs in another directory.
+forward_to_daemon() {
+  local socket="$1" config="$2"
+  shift 2
+  local request="run"$'\t'"$config" previous="" arg
+  for arg in "$@"; do
+    case "$previous" in
+      --trace|--journal|--diff) arg="$(absolute_path "$arg")" ;;
+      --output) [[ "$arg" == ndjson=* ]] && arg="ndjson=$(absolute_path "${arg#ndjson=}")" ;;
+    esac
+    request="$request"$'\t'"$arg"
+    previous="$arg"
+  done
+
+  local exit_code=1 line
+  while IFS= read -r line; do
+    case "$line" in
+      "exit "*) exit_code="${line#exit }" ;;
+      result$'\t'*) echo "$line" ;;
+      ndjson$'\t'*) echo "${line#ndjson$'\t'}" ;;
+      *) echo "$line" >&2 ;;
+    esac
+  done < <(printf '%s\n' "$request" | nc -U "$socket")
+  return "$exit_code"
+}
+
+# ── Index cache ─────────────────────────────────────────────────────────────
+
+default_cache_root() {
+  if [[ "$OS" == "Darwin" ]]; then
+    echo "$HOME/Library/Caches/reforge"
+  else
+    echo "${XDG_CACHE_HOME:-$HOME/.cache}/reforge"
+  fi
+}
+
+ide_build() {
+  local home="$1" build_file
+  for build_file in "$home/Contents/Resources/build.txt" "$home/build.txt"; do
+    if [[ -f "$build_file" ]]; then
+      tr -d '[:space:]' < "$build_file"
+      return
+    fi
+  done
+  echo "unknown"
+}
+
+# Takes the lock of a cache entry. The lock directory is built with its pid
+# file inside and renamed into place, so it is never seen without a holder.
+# Fails if a live process holds it or its holder is unknown. A lock left behind
+# by a dead process is replaced under a short-lived takeover directory, so of
+# several runs finding it stale only one takes it over.
+lock_cache_entry() {
+  local entry="$1" holder fresh="$1/lock.$$" takeover=""
+  mkdir -p "$entry"
+  rm -rf "$fresh"
+  { mkdir "$fresh" && echo $$ > "$fresh/pid"; } || return 1
+
+  if [[ -e "$entry/lock" ]]; then
+    holder="$(cat "$entry/lock/pid" 2>/dev/null || true)"
+    # A takeover takes milliseconds; one older than a minute was interrupted
+    find "$entry" -maxdepth 1 -name takeover -mmin +1 -exec rmdir {} + 2>/dev/null || true
+    if [[ -z "$holder" ]] || kill -0 "$holder" 2>/dev/null || ! mkdir "$entry/takeover" 2>/dev/null; then
+      rm -rf "$fresh"
+      return 1
+    fi
+    takeover="$entry/takeover"
+    # Unless another run took it over since it was read
+    if [[ "$(cat "$entry/lock/pid" 2>/dev/null || true)" == "$holder" ]]; then
+      rm -rf "$entry/lock"
+    fi
+  fi
+
+  local locked=0
+  if mv "$fresh" "$entry/lock" 2>/dev/null; then
+    # A lock that appeared meanwhile makes mv move ours into it instead
+    if [[ -d "$entry/lock/lock.$$" ]]; then
+      rm -rf "$entry/lock/lock.$$"
+    else
+      locked=1
+    fi
+  fi
+  rm -rf "$fresh"
+  [[ -n "$takeover" ]] && rmdir "$takeover"
+  [[ "$locked" == 1 ]]
+}
+
+# Releases the lock of the current cache entry, recording the entry's size for
+# the eviction of later runs so they need not measure every entry.
+release_cache_entry() {
+  local entry="$1" size_kb
+  size_kb="$(du -sk "$entry" 2>/dev/null | cut -f1)"
+  [[ -n "$size_kb" ]] && echo "$size_kb" > "$entry/size-kb"
+  rm -rf "$entry/lock"
+}
+
+# Size of a cache entry in KB, as recorded when its last run released it.
+# Entries without a record, e.g. of an interrupted run, are measured once.
+entry_size_kb() {
+  local entry="$1" size_kb
+  size_kb="$(cat "$entry/size-kb" 2>/dev/null || true)"
+  if [[ ! "$size_kb" =~ ^[0-9]+$ ]]; then
+    size_kb="$(du -sk "$entry" 2>/dev/null | cut -f1)"
+    size_kb="${size_kb:-0}"
+    echo "$size_kb" > "$entry/size-kb" 2>/dev/null || true
+  fi
+  echo "$size_kb"
+}
+
+# Deletes least recently used entries (other than the current one and those
+# in use) until the cache fits within max_mb. An entry is locked before it is
+# deleted, so no run can start using it meanwhile, and renamed away first, so
+# a run that locks the same project afterwards starts from a new entry.
+evict_cache() {
+  local root="$1" current="$2" max_mb="$3"
+  local total_kb=0 size_kb entry trash
+
+  # Left by evictions that were interrupted
+  for trash in "$root"/.evicting.*; do
+    [[ -d "$trash" ]] || continue
+    kill -0 "${trash##*.}" 2>/dev/null || rm -rf "$trash"
+  done
+
+  for entry in "$root"/*/; do
+    [[ -d "$entry" ]] || continue
+    size_kb="$(entry_size_kb "${entry%/}")"
+    total_kb=$((total_kb + size_kb))
+  done
+
+  # Oldest first, by the stamp touched on every use
+  while IFS= read -r entry; do
+    (( total_kb > max_mb * 1024 )) || break
+    entry="${entry%/last-used}"
+    [[ "$entry" == "$current" ]] && continue
+    lock_cache_entry "$entry" || continue
+    size_kb="$(entry_size_kb "$entry")"
+    echo "reforge: evicting cached index of $(cat "$entry/project" 2>/dev/null || echo "$entry")" >&2
+    trash="$root/.evicting.$$"
+    if mv "$entry" "$trash" 2>/dev/null; then
+      # The lock goes with the entry
+      rm -rf "$trash"
+    else
+      rm -rf "$entry/lock"
+      continue
+    fi
+    total_kb=$((total_kb - size_kb))
+  done < <(ls -1tr "$root"/*/last-used 2>/dev/null || true)
+}
+
 # ── Find IntelliJ ───────────────────────────────────────────────────────────
 
 find_idea_home() {
@@ -177,9 +386,47 @@ find_plugins_dir() {
 # ── Main ────────────────────────────────────────────────────────────────────
 
 # Validate args
-if [[ $# -lt 2 ]]; then
-  echo "Usage: reforge <project-path> <config.yaml> [--dry-run]" >&2
-  exit 1
+MODE="run"
+if [[ "${1:-}" == "serve" ]]; then
+  MODE="serve"
+  shift
+  [[ $# -ge 1 ]] || usage
+elif [[ "${1:-}" == "plan" || "${1:-}" == "apply" ]]; then
+  # Plans are made and applied by a fresh IDE, never forwarded to a daemon
+  MODE="$1"
+  shift
+  [[ $# -ge 2 ]] || usage
+else
+  [[ $# -ge 2 ]] || usage
+fi
+
+# --fresh-index is handled here and never passed on to IntelliJ
+FRESH_INDEX="false"
+ARGS=()
+for arg in "$@"; do
+  if [[ "$arg" == "--fresh-index" ]]; then
+    FRESH_INDEX="true"
+  else
+    ARGS+=("$arg")
+  fi
+done
+set -- "${ARGS[@]}"
+
+[[ -d "$1" ]] || die "Project path does not exist: $1"
+PROJECT_PATH="$(cd "$1" && pwd -P)"
+SOCKET="$(daemon_socket "$PROJECT_PATH")"
+
+# Runs are forwarded to a daemon serving the project, with all their options.
+# Anything else would start a second IDE on a project the daemon holds open.
+if daemon_alive "$SOCKET"; then
+  if [[ "$MODE" != "run" || "$FRESH_INDEX" == "true" || "${REFORGE_NO_DAEMON:-0}" == "1" ]]; then
+    die "a daemon is serving $PROJECT_PATH; stop it first: printf 'shutdown\\n' | nc -U $SOCKET"
+  fi
+  [[ -f "$2" ]] || die "Config file does not exist: $2"
+  CONFIG_PATH="$(cd "$(dirname "$2")" && pwd -P)/$(basename "$2")"
+  echo "reforge: forwarding to daemon at $SOCKET" >&2
+  forward_to_daemon "$SOCKET" "$CONFIG_PATH" "${@:3}"
+  exit $?
 fi
 
 # Locate IntelliJ
@@ -195,26 +442,45 @@ PLUGINS_DIR="$(find_plugins_dir)" || die "Cannot find reforge plugin. Install it
 echo "reforge: IntelliJ = $IDEA_HOME" >&2
 echo "reforge: plugins  = $PLUGINS_DIR" >&2
 
-# ── Create isolated temp directories ────────────────────────────────────────
+# ── Select isolated IDE directories ─────────────────────────────────────────
+
+IDE_BUILD="$(ide_build "$IDEA_HOME")"
+CACHE_ROOT="${REFORGE_CACHE_DIR:-$(default_cache_root)}"
+CACHE_ENTRY="$CACHE_ROOT/$(sha256_short "$PROJECT_PATH|$IDE_BUILD")"
+
+if lock_cache_entry "$CACHE_ENTRY"; then
+  IDE_DIRS="$CACHE_ENTRY"
+  trap 'release_cache_entry "$CACHE_ENTRY"' EXIT
 
-TMPDIR_ROOT="$(mktemp -d /tmp/reforge-XXXXXX)"
-trap 'rm -rf "$TMPDIR_ROOT"' EXIT
+  echo "$PROJECT_PATH ($IDE_BUILD)" > "$CACHE_ENTRY/project"
+  touch "$CACHE_ENTRY/last-used"
+  if [[ "$FRESH_INDEX" == "true" ]]; then
+    echo "reforge: discarding cached index" >&2
+    rm -rf "$CACHE_ENTRY/system"
+  fi
+  evict_cache "$CACHE_ROOT" "$CACHE_ENTRY" "${REFORGE_CACHE_MAX_MB:-10240}"
+  echo "reforge: index    = $CACHE_ENTRY/system" >&2
+else
+  IDE_DIRS="$(mktemp -d /tmp/reforge-XXXXXX)"
+  trap 'rm -rf "$IDE_DIRS"' EXIT
+  echo "reforge: cached index is in use by another run, indexing into $IDE_DIRS" >&2
+fi
 
-mkdir -p "$TMPDIR_ROOT/config" "$TMPDIR_ROOT/system" "$TMPDIR_ROOT/log"
+mkdir -p "$IDE_DIRS/config" "$IDE_DIRS/system" "$IDE_DIRS/log"
 
-# ── Write temp idea.properties ──────────────────────────────────────────────
+# ── Write idea.properties ───────────────────────────────────────────────────
 
-IDEA_PROPERTIES_FILE="$TMPDIR_ROOT/idea.properties"
+IDEA_PROPERTIES_FILE="$IDE_DIRS/idea.properties"
 cat > "$IDEA_PROPERTIES_FILE" <<EOF
-idea.config.path=$TMPDIR_ROOT/config
-idea.system.path=$TMPDIR_ROOT/system
-idea.log.path=$TMPDIR_ROOT/log
+idea.config.path=$IDE_DIRS/config
+idea.system.path=$IDE_DIRS/system
+idea.log.path=$IDE_DIRS/log
 idea.plugins.path=$PLUGINS_DIR
 EOF
 
-# ── Write temp idea.vmoptions ───────────────────────────────────────────────
+# ── Write idea.vmoptions ────────────────────────────────────────────────────
 
-IDEA_VMOPTIONS_FILE="$TMPDIR_ROOT/idea.vmoptions"
+IDEA_VMOPTIONS_FILE="$IDE_DIRS/idea.vmoptions"
 cp "$IDEA_VMOPTIONS_BASE" "$IDEA_VMOPTIONS_FILE"
 {
   echo "-Djava.awt.headless=true"
@@ -226,6 +492,16 @@ cp "$IDEA_VMOPTIONS_BASE" "$IDEA_VMOPTIONS_FILE"
 export IDEA_PROPERTIES="$IDEA_PROPERTIES_FILE"
 export IDEA_VM_OPTIONS="$IDEA_VMOPTIONS_FILE"
 
-echo "reforge: launching headless IntelliJ..." >&2
-
-exec "$IDEA_BIN" reforge "$@"
+# Not exec'd: the EXIT trap must release the cache lock once IntelliJ exits
+STATUS=0
+if [[ "$MODE" == "serve" ]]; then
+  echo "reforge: starting daemon for $PROJECT_PATH on $SOCKET..." >&2
+  "$IDEA_BIN" reforge serve "$PROJECT_PATH" --socket "$SOCKET" || STATUS=$?
+elif [[ "$MODE" == "plan" || "$MODE" == "apply" ]]; then
+  echo "reforge: launching headless IntelliJ ($MODE)..." >&2
+  "$IDEA_BIN" reforge "$MODE" "$@" || STATUS=$?
+else
+  echo "reforge: launching headless IntelliJ..." >&2
+  "$IDEA_BIN" reforge "$@" || STATUS=$?
+fi
+exit "$STATUS"
@@ -0,0 +1,99 @@
+#!/usr/bin/env bash
+#
+# scale-benchmark — End-to-end Reforge run against generated projects of
+# increasing size.
+#
+# For each size, generates a synthetic project (see SyntheticProjectGenerator),
+# runs its refactor.yaml through scripts/reforge.sh with a fresh index, and
+# records wall time, per-phase totals from the trace and peak heap.
+#
+# Usage:
+#   scale-benchmark.sh [size...]          (default: 10000 50000 100000)
+#
+# Environment variables:
+#   SCALE_WORK_DIR     — Where projects and results go (default: build/scale-benchmark)
+#   SCALE_LAYOUT       — maven or gradle (default: maven)
+#   SCALE_SEED         — Generator seed (default: 42)
+#   IDEA_HOME          — Passed through to reforge.sh
+#
+
+set -euo pipefail
+
+die() { echo "scale-benchmark: error: $*" >&2; exit 1; }
+
+SCRIPT_DIR="$(cd "$(dirname "${BASH_SOURCE[0]}")" && pwd)"
+REPO_DIR="$(dirname "$SCRIPT_DIR")"
+WORK_DIR="${SCALE_WORK_DIR:-$REPO_DIR/build/scale-benchmark}"
+LAYOUT="${SCALE_LAYOUT:-maven}"
+SEED="${SCALE_SEED:-42}"
+
+command -v python3 >/dev/null 2>&1 || die "python3 is required to summarize traces"
+
+SIZES=("$@")
+[[ ${#SIZES[@]} -eq 0 ]] && SIZES=(10000 50000 100000)
+
+mkdir -p "$WORK_DIR"
+SUMMARY="$WORK_DIR/summary.tsv"
+printf 'classes\twall_ms\tpeak_heap_mb\tsucceeded\tfailed\tphases\n' > "$SUMMARY"
+
+# Prints "peakHeapMb<TAB>phase=ms,phase=ms,..." for a trace file.
+summarize_trace() {
+  python3 - "$1" <<'PY'
+import json, sys
+from collections import defaultdict
+
+with open(sys.argv[1]) as f:
+    trace = json.load(f)
+totals = defaultdict(float)
+for event in trace["traceEvents"]:
+    if event.get("ph") == "X":
+        totals[event["name"]] += event["dur"] / 1000.0
+phases = ",".join(f"{name}={ms:.0f}" for name, ms in sorted(totals.items(), key=lambda kv: -kv[1]))
+print(f'{trace.get("otherData", {}).get("peakHeapMb", "")}\t{phases}')
+PY
+}
+
+# Prints "succeeded<TAB>failed" from the summary record of an NDJSON result file.
+summarize_results() {
+  python3 - "$1" <<'PY'
+import json, sys
+
+summary = {}
+with open(sys.argv[1]) as f:
+    for line in f:
+        record = json.loads(line)
+        if record.get("type") == "summary":
+            summary = record
+print(f'{summary.get("succeeded", "")}\t{summary.get("failed", "")}')
+PY
+}
+
+for size in "${SIZES[@]}"; do
+  project="$WORK_DIR/project-$size"
+  echo "── $size classes ──" >&2
+
+  rm -rf "$project"
+  (cd "$REPO_DIR" && ./gradlew -q generateSyntheticProject \
+    --args="--output $project --classes $size --layout $LAYOUT --seed $SEED")
+
+  trace="$WORK_DIR/trace-$size.json"
+  results="$WORK_DIR/results-$size.ndjson"
+  started=$(python3 -c 'import time; print(int(time.time() * 1000))')
+  set +e
+  REFORGE_NO_DAEMON=1 "$SCRIPT_DIR/reforge.sh" "$project" "$project/refactor.yaml" \
+    --fresh-index --trace "$trace" --output "ndjson=$results" \
+    2> "$WORK_DIR/reforge-$size.log"
+  exit_code=$?
+  set -e
+  finished=$(python3 -c 'import time; print(int(time.time() * 1000))')
+  [[ $exit_code -eq 0 ]] || echo "  reforge exited with $exit_code, see $WORK_DIR/reforge-$size.log" >&2
+  [[ -f "$trace" ]] || die "no trace written for $size classes"
+
+  IFS=$'\t' read -r peak_heap phases < <(summarize_trace "$trace")
+  IFS=$'\t' read -r succeeded failed < <(summarize_results "$results")
+  printf '%s\t%s\t%s\t%s\t%s\t%s\n' "$size" "$((finished - started))" "$peak_heap" \
+    "$succeeded" "$failed" "$phases" >> "$SUMMARY"
+done
+
+echo "Summary → $SUMMARY" >&2
+column -t -s $'\t' "$SUMMARY" 2>/dev/null || cat "$SUMMARY"
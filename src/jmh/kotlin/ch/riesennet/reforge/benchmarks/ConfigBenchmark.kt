@@ -0,0 +1,67 @@
+package ch.riesennet.reforge.benchmarks
+
+import ch.riesennet.reforge.RawOperation
+import ch.riesennet.reforge.ReforgeConfig
+import ch.riesennet.reforge.operation.Batch
+import ch.riesennet.reforge.operation.OperationPlanner
+import ch.riesennet.reforge.operation.OperationRegistry
+import ch.riesennet.reforge.operation.PlannedOperation
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import org.openjdk.jmh.annotations.Warmup
+import java.io.File
+import java.util.concurrent.TimeUnit
+
+/**
+ * Config parsing and batch planning at the sizes the orchestrator generates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+open class ConfigBenchmark {
+
+    @Param("500", "5000")
+    @JvmField
+    var operationCount = 0
+
+    private lateinit var configFile: File
+    private lateinit var planned: List<PlannedOperation>
+
+    @Setup
+    fun setup() {
+        configFile = File.createTempFile("reforge-bench", ".yaml")
+        configFile.writeText(SyntheticData.configYaml(operationCount))
+        planned = ReforgeConfig.parse(configFile).mapIndexed { index, raw ->
+            val operation = OperationRegistry.get(raw.type)
+            val spec = operation.parseSpec(raw.fields)
+            PlannedOperation(index, raw.type, spec, operation.footprint(spec))
+        }
+    }
+
+    @TearDown
+    fun tearDown() {
+        configFile.delete()
+    }
+
+    @Benchmark
+    fun parseConfig(): List<RawOperation> {
+        return ReforgeConfig.parse(configFile)
+    }
+
+    @Benchmark
+    fun planBatches(): List<Batch> {
+        return OperationPlanner.plan(planned)
+    }
+}
@@ -0,0 +1,64 @@
+package ch.riesennet.reforge.benchmarks
+
+import ch.riesennet.reforge.ClassResolver
+import ch.riesennet.reforge.PatternSet
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Warmup
+import org.openjdk.jmh.infra.Blackhole
+import java.util.concurrent.TimeUnit
+
+/**
+ * Matching a set of patterns against millions of qualified names: one pattern at a
+ * time (the per-pattern sweep) versus all at once through [PatternSet].
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+open class MatchingBenchmark {
+
+    @Param("1000000")
+    @JvmField
+    var classCount = 0
+
+    @Param("10", "100")
+    @JvmField
+    var patternCount = 0
+
+    private lateinit var names: Array<String>
+    private lateinit var patterns: List<String>
+
+    @Setup
+    fun setup() {
+        names = SyntheticData.classNames(classCount)
+        patterns = SyntheticData.patterns(patternCount).filter { it.contains('*') }
+    }
+
+    @Benchmark
+    fun perPattern(blackhole: Blackhole) {
+        for (pattern in patterns) {
+            for (name in names) {
+                blackhole.consume(ClassResolver.matches(pattern, name))
+            }
+        }
+    }
+
+    @Benchmark
+    fun patternSet(blackhole: Blackhole) {
+        val set = PatternSet(patterns)
+        for (name in names) {
+            blackhole.consume(set.matchingGlobs(name))
+        }
+    }
+}
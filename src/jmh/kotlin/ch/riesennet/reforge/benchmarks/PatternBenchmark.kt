@@ -0,0 +1,62 @@
+package ch.riesennet.reforge.benchmarks
+
+import ch.riesennet.reforge.ClassResolver
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Warmup
+import org.openjdk.jmh.infra.Blackhole
+import java.util.concurrent.TimeUnit
+
+/**
+ * Cost of a single pattern check: compiling the glob on every call versus the
+ * compiled-pattern cache behind [ClassResolver.matches].
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+open class PatternBenchmark {
+
+    private lateinit var patterns: List<String>
+    private lateinit var names: Array<String>
+    private var index = 0
+
+    @Setup
+    fun setup() {
+        patterns = SyntheticData.patterns(100)
+        names = SyntheticData.classNames(1_000)
+    }
+
+    @Benchmark
+    fun compilePattern(): Regex {
+        return ClassResolver.patternToRegex(nextPattern())
+    }
+
+    @Benchmark
+    fun compiledPatternCached(): Regex {
+        return ClassResolver.compiledPattern(nextPattern())
+    }
+
+    @Benchmark
+    fun matchRecompiling(blackhole: Blackhole) {
+        val i = index++
+        blackhole.consume(ClassResolver.patternToRegex(patterns[i % patterns.size]).matches(names[i % names.size]))
+    }
+
+    @Benchmark
+    fun matchCached(blackhole: Blackhole) {
+        val i = index++
+        blackhole.consume(ClassResolver.matches(patterns[i % patterns.size], names[i % names.size]))
+    }
+
+    private fun nextPattern(): String = patterns[index++ % patterns.size]
+}
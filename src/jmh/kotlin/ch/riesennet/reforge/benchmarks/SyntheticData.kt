@@ -0,0 +1,74 @@
+package ch.riesennet.reforge.benchmarks
+
+import kotlin.random.Random
+
+/**
+ * Deterministic inputs shaped like the packages and configs of large projects.
+ */
+object SyntheticData {
+
+    private val layers = listOf("model", "service", "repository", "controller", "port", "adapter")
+    private val suffixes = listOf("", "Service", "Repository", "Entity", "Controller", "Dto", "Mapper")
+
+    /**
+     * Qualified class names spread over `com.example.module<N>.<layer>[.sub<N>]` packages.
+     */
+    fun classNames(count: Int, seed: Int = 42): Array<String> {
+        val random = Random(seed)
+        return Array(count) { i ->
+            val module = random.nextInt(200)
+            val layer = layers[random.nextInt(layers.size)]
+            val sub = if (random.nextBoolean()) ".sub${random.nextInt(10)}" else ""
+            val suffix = suffixes[random.nextInt(suffixes.size)]
+            "com.example.module$module.$layer$sub.Type$i$suffix"
+        }
+    }
+
+    /**
+     * A mix of exact names, package-prefixed globs and name-driven globs.
+     */
+    fun patterns(count: Int, seed: Int = 7): List<String> {
+        val random = Random(seed)
+        return List(count) { i ->
+            val module = random.nextInt(200)
+            val layer = layers[random.nextInt(layers.size)]
+            when (i % 4) {
+                0 -> "com.example.module$module.$layer.Type$i"
+                1 -> "com.example.module$module.$layer.Type*"
+                2 -> "com.example.module$module.**.*${suffixes[1 + random.nextInt(suffixes.size - 1)]}"
+                else -> "**.$layer.*${suffixes[1 + random.nextInt(suffixes.size - 1)]}"
+            }
+        }
+    }
+
+    /**
+     * A config of [operations] entries, in runs of move, extract-interface and
+     * replace-dependency operations like the orchestrator generates.
+     */
+    fun configYaml(operations: Int): String = buildString {
+        appendLine("operations:")
+        for (i in 0 until operations) {
+            when ((i / 50) % 3) {
+                0 -> {
+                    appendLine("  - type: move")
+                    appendLine("    target: com.example.target$i")
+                    appendLine("    sources:")
+                    appendLine("      - com.example.module$i.model.*")
+                    appendLine("      - com.example.module$i.**.*Entity")
+                }
+                1 -> {
+                    appendLine("  - type: extract-interface")
+                    appendLine("    class: com.example.module$i.service.Type${i}Service")
+                    appendLine("    interface: com.example.module$i.port.Type${i}Port")
+                    appendLine("    methods: [findAll, findById, save]")
+                }
+                else -> {
+                    appendLine("  - type: replace-dependency")
+                    appendLine("    in: com.example.module$i.service.Type${i}Service")
+                    appendLine("    replace: com.example.module$i.repository.Type${i}Repository")
+                    appendLine("    with: com.example.module$i.port.Type${i}Port")
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package ch.riesennet.reforge.benchmarks
+
+import java.io.File
+import kotlin.random.Random
+
+/**
+ * Generates Java projects of arbitrary size for scale benchmarks, modeled on the
+ * taskmanager fixture: every domain has model, dto, repository, service, controller
+ * and exception packages whose classes reference each other, plus a `refactor.yaml`
+ * that reorganizes the project by feature.
+ *
+ * The generated code is plain Java without framework dependencies so the project
+ * indexes without a Maven/Gradle download.
+ */
+class SyntheticProjectGenerator(private val options: Options) {
+
+    data class Options(
+        val output: File,
+        val classes: Int = 10_000,
+        val packageDepth: Int = 2,
+        val classesPerPackage: Int = 10,
+        val fanIn: Int = 3,
+        val testRatio: Double = 0.2,
+        val layout: String = "maven",
+        val configDomains: Int? = null,
+        val seed: Int = 42
+    )
+
+    private data class JavaClass(val domain: Int, val layer: Int, val index: Int, val packageName: String) {
+        val simpleName: String get() = "D$domain${LAYERS[layer].suffix}$index"
+        val qualifiedName: String get() = "$packageName.$simpleName"
+    }
+
+    private data class Layer(val packageName: String, val suffix: String)
+
+    private val random = Random(options.seed)
+
+    val domainCount: Int = maxOf(1, ceilDiv(options.classes, options.classesPerPackage * LAYERS.size))
+
+    val classCount: Int get() = domainCount * LAYERS.size * options.classesPerPackage
+
+    fun generate() {
+        require(options.layout == "maven" || options.layout == "gradle") { "layout must be maven or gradle" }
+        options.output.mkdirs()
+
+        val classes = (0 until domainCount).flatMap { domain ->
+            LAYERS.indices.flatMap { layer ->
+                (0 until options.classesPerPackage).map { index ->
+                    JavaClass(domain, layer, index, "${domainPackage(domain)}.${LAYERS[layer].packageName}")
+                }
+            }
+        }
+
+        for (javaClass in classes) {
+            writeSource("src/main/java", javaClass.packageName, javaClass.simpleName, classSource(javaClass, classes))
+            if (random.nextDouble() < options.testRatio) {
+                writeSource("src/test/java", javaClass.packageName, "${javaClass.simpleName}Test", testSource(javaClass))
+            }
+        }
+
+        writeBuildFile()
+        File(options.output, "refactor.yaml").writeText(configYaml())
+    }
+
+    private fun domainPackage(domain: Int): String {
+        val groups = (0 until options.packageDepth).map { level ->
+            var divisor = 1
+            repeat(options.packageDepth - 1 - level) { divisor *= GROUP_BRANCHING }
+            "g${(domain / divisor) % GROUP_BRANCHING}"
+        }
+        return (listOf(BASE_PACKAGE) + groups + "d$domain").joinToString(".")
+    }
+
+    /**
+     * Picks [Options.fanIn] referenced classes from lower layers (or earlier classes of
+     * the same layer), mostly within the domain, so references form a DAG.
+     */
+    private fun references(javaClass: JavaClass, classes: List<JavaClass>): List<JavaClass> {
+        val perDomain = LAYERS.size * options.classesPerPackage
+        val ownPosition = javaClass.layer * options.classesPerPackage + javaClass.index
+        if (ownPosition == 0) return emptyList()
+
+        return (0 until options.fanIn).map {
+            val domain = if (random.nextDouble() < CROSS_DOMAIN_RATIO) random.nextInt(domainCount) else javaClass.domain
+            classes[domain * perDomain + random.nextInt(ownPosition)]
+        }.distinct()
+    }
+
+    private fun classSource(javaClass: JavaClass, classes: List<JavaClass>): String {
+        val references = references(javaClass, classes).toMutableList()
+        if (javaClass.layer == CONTROLLER_LAYER && javaClass.index == 0) {
+            // Controller 0 depends on service 0, the target of the replace-dependency operations
+            val service = classes[javaClass.domain * LAYERS.size * options.classesPerPackage +
+                SERVICE_LAYER * options.classesPerPackage]
+            references.remove(service)
+            references.add(0, service)
+        }
+
+        return buildString {
+            appendLine("package ${javaClass.packageName};")
+            appendLine()
+            val imports = references.filter { it.packageName != javaClass.packageName }.map { it.qualifiedName }.distinct()
+            for (import in imports.sorted()) {
+                appendLine("import $import;")
+            }
+            if (imports.isNotEmpty()) appendLine()
+
+            val extends = if (javaClass.layer == EXCEPTION_LAYER) " extends RuntimeException" else ""
+            appendLine("public class ${javaClass.simpleName}$extends {")
+            appendLine()
+            references.forEachIndexed { i, ref ->
+                appendLine("    private ${ref.simpleName} ref$i;")
+            }
+            appendLine()
+            appendLine("    public ${javaClass.simpleName}() {")
+            appendLine("    }")
+            if (javaClass.layer == CONTROLLER_LAYER && javaClass.index == 0) {
+                appendLine()
+                appendLine("    public ${javaClass.simpleName}(${references[0].simpleName} service) {")
+                appendLine("        this.ref0 = service;")
+                appendLine("    }")
+            }
+            appendLine()
+            appendLine("    public String describe() {")
+            appendLine("        return \"${javaClass.simpleName}\";")
+            appendLine("    }")
+            appendLine()
+            appendLine("    public int count() {")
+            appendLine("        return ${references.size};")
+            appendLine("    }")
+            appendLine()
+            appendLine("    public void process(String input) {")
+            references.forEachIndexed { i, _ ->
+                appendLine("        if (ref$i != null) ref$i.process(input);")
+            }
+            appendLine("    }")
+            appendLine("}")
+        }
+    }
+
+    private fun testSource(javaClass: JavaClass): String = buildString {
+        appendLine("package ${javaClass.packageName};")
+        appendLine()
+        appendLine("import org.junit.jupiter.api.Test;")
+        appendLine()
+        appendLine("class ${javaClass.simpleName}Test {")
+        appendLine()
+        appendLine("    @Test")
+        appendLine("    void describesItself() {")
+        appendLine("        new ${javaClass.simpleName}().describe();")
+        appendLine("    }")
+        appendLine("}")
+    }
+
+    private fun writeSource(root: String, packageName: String, simpleName: String, source: String) {
+        val dir = File(options.output, "$root/${packageName.replace('.', '/')}")
+        dir.mkdirs()
+        File(dir, "$simpleName.java").writeText(source)
+    }
+
+    private fun writeBuildFile() {
+        if (options.layout == "maven") {
+            File(options.output, "pom.xml").writeText(
+                """
+                |<?xml version="1.0" encoding="UTF-8"?>
+                |<project xmlns="http://maven.apache.org/POM/4.0.0"
+                |         xmlns:xsi="http://www.w3.org/2001/XMLSchema-instance"
+                |         xsi:schemaLocation="http://maven.apache.org/POM/4.0.0 https://maven.apache.org/xsd/maven-4.0.0.xsd">
+                |    <modelVersion>4.0.0</modelVersion>
+                |
+                |    <groupId>com.example</groupId>
+                |    <artifactId>scale-project</artifactId>
+                |    <version>0.0.1-SNAPSHOT</version>
+                |
+                |    <properties>
+                |        <maven.compiler.release>17</maven.compiler.release>
+                |    </properties>
+                |
+                |    <dependencies>
+                |        <dependency>
+                |            <groupId>org.junit.jupiter</groupId>
+                |            <artifactId>junit-jupiter</artifactId>
+                |            <version>5.11.4</version>
+                |            <scope>test</scope>
+                |        </dependency>
+                |    </dependencies>
+                |</project>
+                |""".trimMargin()
+            )
+        } else {
+            File(options.output, "settings.gradle.kts").writeText("rootProject.name = \"scale-project\"\n")
+            File(options.output, "build.gradle.kts").writeText(
+                """
+                |plugins {
+                |    java
+                |}
+                |
+                |repositories {
+                |    mavenCentral()
+                |}
+                |
+                |dependencies {
+                |    testImplementation("org.junit.jupiter:junit-jupiter:5.11.4")
+                |}
+                |""".trimMargin()
+            )
+        }
+    }
+
+    /**
+     * Extracts a port from every domain's first service and switches its first controller
+     * to it, then moves every domain's layers into a feature package.
+     */
+    fun configYaml(): String = buildString {
+        val domains = 0 until minOf(domainCount, options.configDomains ?: domainCount)
+        appendLine("operations:")
+        for (domain in domains) {
+            val pkg = domainPackage(domain)
+            appendLine("  - type: extract-interface")
+            appendLine("    class: $pkg.service.D${domain}Service0")
+            appendLine("    interface: $pkg.port.D${domain}Service0Port")
+            appendLine("    methods: [describe, count, process]")
+        }
+        for (domain in domains) {
+            val pkg = domainPackage(domain)
+            appendLine("  - type: replace-dependency")
+            appendLine("    in: $pkg.controller.D${domain}Controller0")
+            appendLine("    replace: $pkg.service.D${domain}Service0")
+            appendLine("    with: $pkg.port.D${domain}Service0Port")
+        }
+        for (domain in domains) {
+            val pkg = domainPackage(domain)
+            for (layer in LAYERS) {
+                // Exceptions use a name-driven pattern to exercise the short-name index
+                val source = if (layer.packageName == "exception") "$pkg.**.D$domain*Exception*" else "$pkg.${layer.packageName}.*"
+                appendLine("  - type: move")
+                appendLine("    target: $BASE_PACKAGE.feature.d$domain.${layer.packageName}")
+                appendLine("    sources:")
+                appendLine("      - $source")
+            }
+        }
+    }
+
+    companion object {
+        private const val BASE_PACKAGE = "com.example.scale"
+        private const val GROUP_BRANCHING = 8
+        private const val CROSS_DOMAIN_RATIO = 0.3
+
+        private val LAYERS = listOf(
+            Layer("model", "Model"),
+            Layer("dto", "Dto"),
+            Layer("repository", "Repository"),
+            Layer("service", "Service"),
+            Layer("controller", "Controller"),
+            Layer("exception", "Exception")
+        )
+        private const val SERVICE_LAYER = 3
+        private const val CONTROLLER_LAYER = 4
+        private const val EXCEPTION_LAYER = 5
+
+        private fun ceilDiv(a: Int, b: Int): Int = (a + b - 1) / b
+
+        fun parseArgs(args: Array<String>): Options {
+            fun value(name: String): String? {
+                val index = args.indexOf(name)
+                if (index < 0) return null
+                return args.getOrNull(index + 1) ?: throw IllegalArgumentException("$name requires a value")
+            }
+            val output = value("--output") ?: throw IllegalArgumentException("--output is required")
+            val defaults = Options(File(output))
+            return Options(
+                output = File(output),
+                classes = value("--classes")?.toInt() ?: defaults.classes,
+                packageDepth = value("--package-depth")?.toInt() ?: defaults.packageDepth,
+                classesPerPackage = value("--classes-per-package")?.toInt() ?: defaults.classesPerPackage,
+                fanIn = value("--fan-in")?.toInt() ?: defaults.fanIn,
+                testRatio = value("--test-ratio")?.toDouble() ?: defaults.testRatio,
+                layout = value("--layout") ?: defaults.layout,
+                configDomains = value("--config-domains")?.toInt(),
+                seed = value("--seed")?.toInt() ?: defaults.seed
+            )
+        }
+    }
+}
+
+/**
+ * Usage: `--output <dir> [--classes N] [--package-depth N] [--classes-per-package N]
+ * [--fan-in N] [--test-ratio R] [--layout maven|gradle] [--config-domains N] [--seed N]`
+ */
+fun main(args: Array<String>) {
+    val options = SyntheticProjectGenerator.parseArgs(args)
+    val generator = SyntheticProjectGenerator(options)
+    generator.generate()
+    println("Generated ${generator.classCount} classes in ${generator.domainCount} domains at ${options.output}")
+}
@@ -4,8 +4,11 @@ import com.intellij.openapi.application.ReadAction
 import com.intellij.openapi.project.Project
 import com.intellij.psi.JavaPsiFacade
 import com.intellij.psi.PsiClass
+import com.intellij.psi.PsiPackage
 import com.intellij.psi.search.GlobalSearchScope
+import com.intellij.psi.search.PsiShortNamesCache
 import com.intellij.psi.search.searches.AllClassesSearch
+import java.util.concurrent.ConcurrentHashMap
 
 /**
  * Matches classes in a project against glob-style patterns.
@@ -16,9 +19,9 @@ import com.intellij.psi.search.searches.AllClassesSearch
  */
 object ClassResolver {
 
-    private fun isExactPattern(pattern: String): Boolean {
-        return !pattern.contains('*')
-    }
+    private const val MAX_CACHED_PATTERNS = 10_000
+
+    private val compiledPatterns = ConcurrentHashMap<String, Regex>()
 
     /**
      * Converts a glob pattern to a regex pattern.
@@ -60,51 +63,172 @@ object ClassResolver {
         return Regex(regexPattern)
     }
 
+    /**
+     * Returns the regex for [pattern], compiling it only on first use.
+     */
+    fun compiledPattern(pattern: String): Regex {
+        compiledPatterns[pattern]?.let { return it }
+        if (compiledPatterns.size >= MAX_CACHED_PATTERNS) compiledPatterns.clear()
+        return compiledPatterns.computeIfAbsent(pattern) { patternToRegex(it) }
+    }
+
     /**
      * Finds all classes in the project matching the given pattern.
      *
-     * For exact class names (no wildcards), uses JavaPsiFacade.findClass() which is
-     * more reliable. For glob patterns, falls back to AllClassesSearch.
+     * Resolves a single pattern with the strategy [resolveAll] would pick for it. Prefer
+     * [resolveAll] when resolving several patterns.
      *
      * @param project The IntelliJ project
      * @param pattern The glob pattern to match
      * @return List of matching PsiClass instances
      */
-    fun findMatchingClasses(project: Project, pattern: String): List<PsiClass> {
-        return ReadAction.compute<List<PsiClass>, Exception> {
-            if (isExactPattern(pattern)) {
-                findExactClass(project, pattern)
-            } else {
-                findByGlobPattern(project, pattern)
+    fun findMatchingClasses(
+        project: Project,
+        pattern: String,
+        scope: GlobalSearchScope = GlobalSearchScope.projectScope(project)
+    ): List<PsiClass> {
+        return resolveAll(project, listOf(pattern), scope).getValue(pattern)
+    }
+
+    /**
+     * Resolves many patterns at once, each with the strategy [PatternSet.strategyFor]
+     * picks. Exact names are looked up individually. Globs with a literal package prefix
+     * only walk that package and, as far as the pattern allows, its subpackages. Globs with
+     * a selective simple name (`*Entity`) go through the short-name index. The remaining
+     * globs share a single sweep over the project's classes, so the cost grows with
+     * project size plus pattern count rather than their product. A literal prefix that
+     * is not a package, such as the class in `com.example.Outer.*`, falls back to the
+     * short-name index or the sweep, so nested classes still match.
+     *
+     * Only classes in [scope] are considered.
+     *
+     * @return every given pattern mapped to its matching classes, in input order
+     */
+    fun resolveAll(
+        project: Project,
+        patterns: Collection<String>,
+        scope: GlobalSearchScope = GlobalSearchScope.projectScope(project)
+    ): Map<String, List<PsiClass>> {
+        val patternSet = PatternSet(patterns)
+        return ReadAction.compute<Map<String, List<PsiClass>>, Exception> {
+            val results = LinkedHashMap<String, MutableList<PsiClass>>()
+            for (pattern in patterns) {
+                results.getOrPut(pattern) { mutableListOf() }
             }
+
+            for (pattern in patternSet.exactPatterns) {
+                results.getValue(pattern).addAll(findExactClass(project, pattern, scope))
+            }
+
+            val notPackages = mutableListOf<String>()
+            for (pattern in patternSet.globsUsing(ResolutionStrategy.PACKAGE_PREFIX)) {
+                val classes = findInPackage(project, pattern, scope)
+                if (classes != null) results.getValue(pattern).addAll(classes) else notPackages.add(pattern)
+            }
+            val (shortNameFallback, fullScanFallback) = notPackages.partition { PatternSet.simpleNameGlob(it) != null }
+
+            val byShortName = patternSet.globsUsing(ResolutionStrategy.SHORT_NAME_INDEX) + shortNameFallback
+            if (byShortName.isNotEmpty()) {
+                findByShortNames(project, byShortName, scope).forEach { (pattern, classes) ->
+                    results.getValue(pattern).addAll(classes)
+                }
+            }
+
+            val fullScan = PatternSet(patternSet.globsUsing(ResolutionStrategy.FULL_SCAN) + fullScanFallback)
+            if (fullScan.hasGlobs()) {
+                AllClassesSearch.search(scope, project).forEach { psiClass ->
+                    val qualifiedName = psiClass.qualifiedName
+                    if (qualifiedName != null) {
+                        for (pattern in fullScan.matchingGlobs(qualifiedName)) {
+                            results.getValue(pattern).add(psiClass)
+                        }
+                    }
+                }
+            }
+
+            results
         }
     }
 
-    private fun findExactClass(project: Project, qualifiedName: String): List<PsiClass> {
-        val scope = GlobalSearchScope.projectScope(project)
-        val psiClass = JavaPsiFacade.getInstance(project).findClass(qualifiedName, scope)
-        return if (psiClass != null) listOf(psiClass) else emptyList()
+    /**
+     * Walks the index's class names once, fetching classes only for names that match one
+     * of the patterns' simple-name segments, then checks their full qualified names.
+     */
+    private fun findByShortNames(
+        project: Project,
+        patterns: List<String>,
+        scope: GlobalSearchScope
+    ): Map<String, List<PsiClass>> {
+        val patternsBySimpleName = patterns.groupBy { PatternSet.simpleNameGlob(it)!! }
+        val simpleNames = PatternSet(patternsBySimpleName.keys)
+        val regexes = patterns.associateWith { compiledPattern(it) }
+        val cache = PsiShortNamesCache.getInstance(project)
+        val matches = mutableMapOf<String, MutableList<PsiClass>>()
+
+        for (name in cache.allClassNames.distinct()) {
+            val candidatePatterns = simpleNames.matching(name).flatMap { patternsBySimpleName.getValue(it) }
+            if (candidatePatterns.isEmpty()) continue
+
+            for (psiClass in cache.getClassesByName(name, scope)) {
+                val qualifiedName = psiClass.qualifiedName ?: continue
+                for (pattern in candidatePatterns) {
+                    if (regexes.getValue(pattern).matches(qualifiedName)) {
+                        matches.getOrPut(pattern) { mutableListOf() }.add(psiClass)
+                    }
+                }
+            }
+        }
+
+        return matches
     }
 
-    private fun findByGlobPattern(project: Project, pattern: String): List<PsiClass> {
-        val regex = patternToRegex(pattern)
-        val scope = GlobalSearchScope.projectScope(project)
+    /**
+     * Matches the classes (including nested ones) of the pattern's package prefix and of
+     * its subpackages down to the depth the pattern can reach.
+     *
+     * @return the matches, or null if the prefix is not a package
+     */
+    private fun findInPackage(project: Project, pattern: String, scope: GlobalSearchScope): List<PsiClass>? {
+        val root = JavaPsiFacade.getInstance(project).findPackage(PatternSet.packagePrefix(pattern))
+            ?: return null
+        val regex = compiledPattern(pattern)
+        val maxDepth = PatternSet.packageDepth(pattern)
         val matches = mutableListOf<PsiClass>()
 
-        AllClassesSearch.search(scope, project).forEach { psiClass ->
-            val qualifiedName = psiClass.qualifiedName
-            if (qualifiedName != null && regex.matches(qualifiedName)) {
-                matches.add(psiClass)
+        fun visit(psiPackage: PsiPackage, depth: Int) {
+            for (psiClass in psiPackage.getClasses(scope)) {
+                collectMatching(psiClass, regex, matches)
+            }
+            if (maxDepth == null || depth < maxDepth) {
+                for (subPackage in psiPackage.getSubPackages(scope)) {
+                    visit(subPackage, depth + 1)
+                }
             }
         }
 
+        visit(root, 0)
         return matches
     }
 
+    private fun collectMatching(psiClass: PsiClass, regex: Regex, matches: MutableList<PsiClass>) {
+        val qualifiedName = psiClass.qualifiedName
+        if (qualifiedName != null && regex.matches(qualifiedName)) {
+            matches.add(psiClass)
+        }
+        for (innerClass in psiClass.innerClasses) {
+            collectMatching(innerClass, regex, matches)
+        }
+    }
+
+    private fun findExactClass(project: Project, qualifiedName: String, scope: GlobalSearchScope): List<PsiClass> {
+        val psiClass = JavaPsiFacade.getInstance(project).findClass(qualifiedName, scope)
+        return if (psiClass != null) listOf(psiClass) else emptyList()
+    }
+
     /**
      * Checks if a qualified class name matches the given pattern.
      */
     fun matches(pattern: String, qualifiedName: String): Boolean {
-        return patternToRegex(pattern).matches(qualifiedName)
+        return compiledPattern(pattern).matches(qualifiedName)
     }
 }
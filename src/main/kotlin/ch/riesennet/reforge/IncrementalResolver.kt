@@ -0,0 +1,92 @@
+package ch.riesennet.reforge
+
+/**
+ * Snapshot of the index: whether it is in dumb mode, and a counter that changes
+ * whenever PSI, project roots or dumb mode change.
+ */
+data class IndexState(val dumb: Boolean, val modificationCount: Long)
+
+/**
+ * Why a pattern ended up with or without matches.
+ */
+enum class PatternStatus {
+    RESOLVED,
+
+    /** Resolved against a stable index without matches: the pattern matches nothing. */
+    NO_MATCH,
+
+    /** Still without matches when the passes ran out while the index kept changing. */
+    INDEX_NOT_READY
+}
+
+/**
+ * Resolves patterns over several passes, retrying only those that have no matches yet.
+ *
+ * A pass whose index state was the same before and after it, outside dumb mode, saw a
+ * stable index, so its empty results are final ([PatternStatus.NO_MATCH]) and resolution
+ * stops. Otherwise the unresolved patterns are retried after [awaitIndex], up to
+ * [maxPasses] passes. A pass that fails because the index is not ready counts as unstable.
+ *
+ * @param resolve resolves the given patterns in the given pass
+ */
+class IncrementalResolver<T>(
+    private val resolve: (pass: Int, patterns: List<String>) -> Map<String, List<T>>,
+    private val indexState: () -> IndexState,
+    private val awaitIndex: (pass: Int) -> Unit,
+    private val isIndexNotReady: (Throwable) -> Boolean = { false },
+    private val maxPasses: Int = DEFAULT_MAX_PASSES,
+    private val clock: () -> Long = System::nanoTime
+) {
+
+    /**
+     * Outcome of [resolveAll]: matches and status per pattern, the number of passes run
+     * and the time spent in them, including waits for the index.
+     */
+    data class Resolution<T>(
+        val matches: Map<String, List<T>>,
+        val status: Map<String, PatternStatus>,
+        val passes: Int,
+        val durationNanos: Long
+    ) {
+        fun count(status: PatternStatus): Int = this.status.values.count { it == status }
+    }
+
+    fun resolveAll(patterns: Collection<String>): Resolution<T> {
+        val started = clock()
+        val matches = LinkedHashMap<String, List<T>>()
+        for (pattern in patterns) matches[pattern] = emptyList()
+
+        var pending = matches.keys.toList()
+        var stable = false
+        var passes = 0
+
+        while (pending.isNotEmpty() && passes < maxPasses) {
+            passes++
+            if (passes > 1) awaitIndex(passes)
+
+            val before = indexState()
+            val resolved = try {
+                resolve(passes, pending)
+            } catch (e: Exception) {
+                if (!isIndexNotReady(e)) throw e
+                null
+            }
+            val after = indexState()
+
+            resolved?.forEach { (pattern, classes) -> if (pattern in matches) matches[pattern] = classes }
+            pending = pending.filter { matches.getValue(it).isEmpty() }
+            stable = resolved != null && !after.dumb && before == after
+            if (stable) break
+        }
+
+        val unresolvedStatus = if (stable) PatternStatus.NO_MATCH else PatternStatus.INDEX_NOT_READY
+        val status = matches.mapValues { (_, classes) ->
+            if (classes.isNotEmpty()) PatternStatus.RESOLVED else unresolvedStatus
+        }
+        return Resolution(matches, status, passes, clock() - started)
+    }
+
+    companion object {
+        const val DEFAULT_MAX_PASSES = 5
+    }
+}
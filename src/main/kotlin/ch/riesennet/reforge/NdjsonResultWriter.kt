@@ -0,0 +1,46 @@
+package ch.riesennet.reforge
+
+import ch.riesennet.reforge.infrastructure.Json
+import ch.riesennet.reforge.operation.OperationResult
+import java.io.Writer
+
+/**
+ * Streams results as newline-delimited JSON: one `result` record per [OperationResult]
+ * and a final `summary` record. Every record is flushed immediately so consumers can
+ * act on results while the run is still in progress. A [prefix] is written before each
+ * record, e.g. to tell records apart from other lines on a daemon connection.
+ */
+class NdjsonResultWriter(private val out: Writer, private val prefix: String = "") : ResultListener {
+
+    override fun onResult(result: OperationResult) {
+        write(linkedMapOf(
+            "type" to "result",
+            "action" to result.action,
+            "source" to result.source,
+            "target" to result.target,
+            "status" to result.status.name,
+            "error" to result.error,
+            "durationMs" to result.durationMs,
+            "files" to result.files
+        ))
+    }
+
+    override fun onSummary(summary: RunSummary) {
+        write(linkedMapOf(
+            "type" to "summary",
+            "succeeded" to summary.succeeded,
+            "failed" to summary.failed,
+            "skipped" to summary.skipped,
+            "rolledBack" to summary.rolledBack,
+            "durationMs" to summary.durationMs
+        ))
+    }
+
+    @Synchronized
+    private fun write(record: Map<String, Any?>) {
+        out.write(prefix)
+        Json.append(out, record)
+        out.write("\n")
+        out.flush()
+    }
+}
@@ -0,0 +1,134 @@
+package ch.riesennet.reforge
+
+/**
+ * A set of class patterns matched together, so a class only has to be tested against
+ * the patterns that can possibly match it instead of against every pattern.
+ *
+ * Exact patterns are looked up by name. Glob patterns are indexed by their literal
+ * prefix (the text before the first wildcard); a qualified name is only tested against
+ * globs whose prefix it starts with.
+ */
+class PatternSet(patterns: Collection<String>) {
+
+    /** Patterns without wildcards, in input order. */
+    val exactPatterns: List<String>
+
+    /** Glob patterns, in input order. */
+    val globPatterns: List<String>
+
+    private val exactSet: Set<String>
+    private val globsByPrefix: Map<String, List<Pair<String, Regex>>>
+    private val prefixLengths: IntArray
+
+    init {
+        val distinct = patterns.distinct()
+        exactPatterns = distinct.filter { !it.contains('*') }
+        globPatterns = distinct.filter { it.contains('*') }
+        exactSet = exactPatterns.toSet()
+
+        globsByPrefix = globPatterns.groupBy(
+            keySelector = { literalPrefix(it) },
+            valueTransform = { it to ClassResolver.compiledPattern(it) }
+        )
+        prefixLengths = globsByPrefix.keys.map { it.length }.distinct().sorted().toIntArray()
+    }
+
+    fun hasGlobs(): Boolean = globPatterns.isNotEmpty()
+
+    /**
+     * Glob patterns that have to be resolved with [strategy].
+     */
+    fun globsUsing(strategy: ResolutionStrategy): List<String> = globPatterns.filter { strategyFor(it) == strategy }
+
+    /**
+     * Returns the exact and glob patterns matching [name], in no particular order.
+     */
+    fun matching(name: String): List<String> {
+        val globs = matchingGlobs(name)
+        return if (name in exactSet) listOf(name) + globs else globs
+    }
+
+    /**
+     * Returns the glob patterns matching [qualifiedName], in no particular order.
+     */
+    fun matchingGlobs(qualifiedName: String): List<String> {
+        var matches: MutableList<String>? = null
+        for (length in prefixLengths) {
+            if (length > qualifiedName.length) break
+            val candidates = globsByPrefix[qualifiedName.substring(0, length)] ?: continue
+            for ((pattern, regex) in candidates) {
+                if (regex.matches(qualifiedName)) {
+                    if (matches == null) matches = mutableListOf()
+                    matches.add(pattern)
+                }
+            }
+        }
+        return matches ?: emptyList()
+    }
+
+    companion object {
+        /**
+         * The part of [pattern] before its first wildcard, e.g. `com.example.Task`
+         * for `com.example.Task*`.
+         */
+        fun literalPrefix(pattern: String): String = pattern.substringBefore('*')
+
+        /**
+         * The literal package a glob is confined to, e.g. `com.example` for
+         * `com.example.Task*`; empty if the pattern starts with a wildcard.
+         */
+        fun packagePrefix(pattern: String): String = literalPrefix(pattern).substringBeforeLast('.', "")
+
+        /**
+         * How many package levels below [packagePrefix] a match can live, or null if
+         * unbounded because the rest of the pattern contains `**`.
+         */
+        fun packageDepth(pattern: String): Int? {
+            val remainder = pattern.removePrefix(packagePrefix(pattern)).removePrefix(".")
+            return if (remainder.contains("**")) null else remainder.count { it == '.' }
+        }
+
+        /**
+         * The simple-name segment of a glob if it narrows down class names, e.g. `*Entity`
+         * for `com.acme.**.*Entity`; null if it matches any name (`*`, `**`).
+         */
+        fun simpleNameGlob(pattern: String): String? {
+            val simpleName = pattern.substringAfterLast('.')
+            if (simpleName.contains("**") || simpleName.all { it == '*' }) return null
+            return simpleName
+        }
+
+        /**
+         * Picks the cheapest strategy: a bounded package walk if the pattern pins the
+         * package depth, else the short-name index if the simple name is selective,
+         * else an unbounded package walk, and a full scan only as a last resort.
+         */
+        fun strategyFor(pattern: String): ResolutionStrategy {
+            val hasPackagePrefix = packagePrefix(pattern).isNotEmpty()
+            return when {
+                !pattern.contains('*') -> ResolutionStrategy.EXACT
+                hasPackagePrefix && packageDepth(pattern) != null -> ResolutionStrategy.PACKAGE_PREFIX
+                simpleNameGlob(pattern) != null -> ResolutionStrategy.SHORT_NAME_INDEX
+                hasPackagePrefix -> ResolutionStrategy.PACKAGE_PREFIX
+                else -> ResolutionStrategy.FULL_SCAN
+            }
+        }
+    }
+}
+
+/**
+ * How a pattern is resolved against the project.
+ */
+enum class ResolutionStrategy(val label: String) {
+    /** No wildcards: a single class lookup by qualified name. */
+    EXACT("exact"),
+
+    /** Walks the literal package prefix and its subpackages. */
+    PACKAGE_PREFIX("package prefix"),
+
+    /** Looks up classes whose simple name matches, then checks their package. */
+    SHORT_NAME_INDEX("short-name index"),
+
+    /** Matches against every class in the project, shared by all such patterns. */
+    FULL_SCAN("full scan")
+}
@@ -0,0 +1,150 @@
+package ch.riesennet.reforge
+
+import ch.riesennet.reforge.operation.PlanEntry
+import ch.riesennet.reforge.operation.PlannedClass
+import ch.riesennet.reforge.operation.UsageLocation
+import org.yaml.snakeyaml.Yaml
+import org.yaml.snakeyaml.error.YAMLException
+import java.io.File
+import java.security.MessageDigest
+
+/**
+ * Plan written by `reforge plan` and executed by `reforge apply`.
+ *
+ * It names the config it was made from together with the config's SHA-256, holds a
+ * [PlanEntry] per resolved operation, keyed by its position in the config, and the
+ * SHA-256 of every file the entries name. Usages are stored as `start-end` text ranges
+ * grouped by file.
+ *
+ * Files the entries do not name can start matching a pattern or using a class after the
+ * plan was written, so the plan also keeps a [sources] stamp of every file under the
+ * project's source roots (see [sourceStamp]).
+ */
+data class PlanFile(
+    val configPath: String,
+    val configHash: String,
+    val entries: Map<Int, PlanEntry>,
+    val files: Map<String, String?>,
+    val sources: String? = null
+) {
+    /**
+     * Whether a file under [sourceRoots] was added, removed or changed since the plan.
+     */
+    fun sourcesChanged(sourceRoots: Collection<File>): Boolean = sources != sourceStamp(sourceRoots)
+
+    /**
+     * The entry of the operation at [index] as far as it still holds: null if there is
+     * none or one of the operation's own files changed, and classes whose files changed
+     * lose their usages. With [sourcesChanged], entries that resolved patterns are not
+     * valid either: a new or edited file may match them or use their classes.
+     * [fingerprints] caches the current fingerprints and must not be reused once files
+     * may have been written.
+     */
+    fun validEntry(
+        index: Int,
+        fingerprints: MutableMap<String, String?> = HashMap(),
+        sourcesChanged: Boolean = false
+    ): PlanEntry? {
+        val entry = entries[index] ?: return null
+        if (sourcesChanged && (entry.classes.isNotEmpty() || entry.unresolved.isNotEmpty())) return null
+        fun unchanged(paths: List<String>) = paths.all { path ->
+            files[path] == fingerprints.getOrPut(path) { RunJournal.fingerprint(File(path)) }
+        }
+        if (!unchanged(entry.files)) return null
+        return entry.copy(classes = entry.classes.mapValues { (_, planned) ->
+            if (planned.usages == null || unchanged(planned.files)) planned else planned.copy(usages = null)
+        })
+    }
+
+    fun write(file: File) {
+        val document = linkedMapOf(
+            "config" to configPath,
+            "configHash" to configHash,
+            "operations" to entries.map { (index, entry) ->
+                linkedMapOf(
+                    "index" to index,
+                    "files" to entry.files,
+                    "classes" to entry.classes.mapValues { (_, planned) ->
+                        linkedMapOf(
+                            "files" to planned.files,
+                            "usages" to planned.usages?.groupBy({ it.path }, { "${it.start}-${it.end}" })
+                        )
+                    },
+                    "unresolved" to entry.unresolved
+                )
+            },
+            "files" to files,
+            "sources" to sources
+        )
+        file.absoluteFile.parentFile?.mkdirs()
+        file.bufferedWriter().use { Yaml().dump(document, it) }
+    }
+
+    companion object {
+        /**
+         * Plan of [configFile] with [entries], fingerprinting every file they name and
+         * stamping the files under [sourceRoots].
+         */
+        fun create(configFile: File, entries: Map<Int, PlanEntry>, sourceRoots: Collection<File> = emptyList()): PlanFile {
+            val configHash = RunJournal.fingerprint(configFile)
+                ?: throw IllegalArgumentException("Config file does not exist: ${configFile.path}")
+            val files = entries.values.flatMap { it.paths() }.toSortedSet().associateWith { RunJournal.fingerprint(File(it)) }
+            return PlanFile(configFile.absolutePath, configHash, entries, files, sourceStamp(sourceRoots))
+        }
+
+        /**
+         * SHA-256 over path, size and modification time of every file under [sourceRoots].
+         * Cheap enough for large trees, as no file is read.
+         */
+        fun sourceStamp(sourceRoots: Collection<File>): String {
+            val digest = MessageDigest.getInstance("SHA-256")
+            val files = sourceRoots.flatMap { root -> root.walkTopDown().filter { it.isFile }.toList() }
+            for (file in files.sortedBy { it.path }) {
+                digest.update("${file.path}\t${file.length()}\t${file.lastModified()}\n".toByteArray())
+            }
+            return digest.digest().joinToString("") { "%02x".format(it) }
+        }
+
+        /**
+         * @throws IllegalArgumentException if the file does not exist or is not a plan
+         */
+        fun read(file: File): PlanFile {
+            if (!file.exists()) {
+                throw IllegalArgumentException("Plan file does not exist: ${file.path}")
+            }
+            val document = try {
+                file.bufferedReader().use { Yaml().load<Any?>(it) } as? Map<*, *>
+            } catch (e: YAMLException) {
+                throw IllegalArgumentException("Invalid plan file ${file.path}: ${e.message}")
+            } ?: throw IllegalArgumentException("Invalid plan file ${file.path}: not a map")
+            val configPath = document["config"] as? String
+            val configHash = document["configHash"] as? String
+            if (configPath == null || configHash == null) {
+                throw IllegalArgumentException("Invalid plan file ${file.path}: missing 'config' or 'configHash'")
+            }
+
+            val entries = (document["operations"] as? List<*>).orEmpty().filterIsInstance<Map<*, *>>().associate { entry ->
+                (entry["index"] as Number).toInt() to PlanEntry(
+                    files = strings(entry["files"]),
+                    classes = (entry["classes"] as? Map<*, *>).orEmpty().entries.associate { (name, planned) ->
+                        name.toString() to parseClass(planned as? Map<*, *> ?: emptyMap<String, Any>())
+                    },
+                    unresolved = strings(entry["unresolved"])
+                )
+            }
+            val files = (document["files"] as? Map<*, *>).orEmpty().entries.associate { (path, hash) -> path.toString() to hash as? String }
+            return PlanFile(configPath, configHash, entries, files, document["sources"] as? String)
+        }
+
+        private fun parseClass(planned: Map<*, *>): PlannedClass {
+            val usages = (planned["usages"] as? Map<*, *>)?.entries?.flatMap { (path, ranges) ->
+                strings(ranges).map { range ->
+                    UsageLocation(path.toString(), range.substringBefore('-').toInt(), range.substringAfter('-').toInt())
+                }
+            }
+            return PlannedClass(strings(planned["files"]), usages)
+        }
+
+        private fun strings(value: Any?): List<String> = (value as? List<*>).orEmpty().map { it.toString() }
+    }
+}
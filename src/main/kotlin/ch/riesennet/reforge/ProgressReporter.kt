@@ -1,18 +1,34 @@
 package ch.riesennet.reforge
 
+import ch.riesennet.reforge.operation.OperationResult
+import ch.riesennet.reforge.operation.ResultStatus
+import java.io.PrintStream
+import java.util.EnumMap
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.TimeUnit
+
 /**
  * Reports progress of refactoring operations to the console.
+ *
+ * Output goes to stderr by default; the daemon passes the client connection's
+ * stream instead so progress is streamed back to the caller.
+ *
+ * Phases are timed with [span]; the recorded spans feed [printPhaseSummary] and
+ * the `--trace` file. Operations publish each [OperationResult] through [result],
+ * which counts it and forwards it to the registered [ResultListener]s.
  */
-class ProgressReporter {
+class ProgressReporter(
+    private val out: PrintStream = System.err,
+    val trace: TraceRecorder = TraceRecorder()
+) {
 
-    private var movedCount = 0
-    private var failedCount = 0
-    private var skippedCount = 0
-    private var deletedPackageCount = 0
-    private val failures = mutableListOf<Pair<String, String>>()
+    private val resultListeners = CopyOnWriteArrayList<ResultListener>()
+    private val resultCounts = EnumMap<ResultStatus, Int>(ResultStatus::class.java)
+    private val failedResults = mutableListOf<OperationResult>()
+    private val succeededResults = mutableListOf<OperationResult>()
 
     private fun output(message: String) {
-        System.err.println(message)
+        out.println(message)
     }
 
     fun info(message: String) {
@@ -24,28 +40,33 @@ class ProgressReporter {
         output(title)
     }
 
-    fun patternResolved(pattern: String, count: Int) {
-        output("  $pattern → $count class${if (count != 1) "es" else ""}")
+    fun patternResolved(pattern: String, count: Int, strategy: ResolutionStrategy? = null) {
+        val via = strategy?.let { " (${it.label})" } ?: ""
+        output("  $pattern → $count class${if (count != 1) "es" else ""}$via")
+    }
+
+    fun patternUnresolved(pattern: String, status: PatternStatus) {
+        val reason = if (status == PatternStatus.INDEX_NOT_READY) "not resolved, index not ready" else "no match"
+        output("  $pattern → $reason")
     }
 
     fun moveSuccess(source: String, target: String) {
-        movedCount++
         output("  ✓ $source → $target")
     }
 
     fun moveFailure(source: String, error: String) {
-        failedCount++
-        failures.add(source to error)
         output("  ✗ $source (error: $error)")
     }
 
     fun moveSkipped(source: String, reason: String) {
-        skippedCount++
         output("  - $source (skipped: $reason)")
     }
 
+    fun textOccurrences(className: String, count: Int, durationMs: Long) {
+        output("    $className: $count text occurrence${if (count != 1) "s" else ""} in $durationMs ms")
+    }
+
     fun packageDeleted(packageName: String) {
-        deletedPackageCount++
         output("  ✓ Removed $packageName")
     }
 
@@ -53,33 +74,101 @@ class ProgressReporter {
         output("  [dry-run] $source → $target")
     }
 
+    fun dryRunPreview(action: String, source: String, target: String, files: Int, references: Int) {
+        output("  [dry-run] [$action] $source → $target: $files file${if (files != 1) "s" else ""}, " +
+            "$references reference${if (references != 1) "s" else ""}")
+    }
+
     fun operationSuccess(action: String, source: String, target: String) {
-        movedCount++
         output("  ✓ [$action] $source → $target")
     }
 
     fun operationFailure(action: String, source: String, error: String) {
-        failedCount++
-        failures.add("[$action] $source" to error)
         output("  ✗ [$action] $source (error: $error)")
     }
 
-    fun printSummary() {
-        section("Summary:")
-        output("  Moved: $movedCount")
-        output("  Failed: $failedCount")
-        output("  Skipped: $skippedCount")
-        output("  Removed packages: $deletedPackageCount")
+    /**
+     * Times [block] as a phase of the run. [detail] distinguishes instances of the
+     * same phase in the trace without splitting them in the summary.
+     */
+    fun <T> span(name: String, category: String, detail: String? = null, block: () -> T): T {
+        return trace.span(name, category, detail, block)
+    }
 
-        if (failures.isNotEmpty()) {
-            section("Failures:")
-            failures.forEach { (source, error) ->
-                output("  - $source: $error")
-            }
+    fun printPhaseSummary() {
+        val phases = trace.summary()
+        if (phases.isEmpty()) return
+
+        section("Phases:")
+        output("  %-32s %6s %10s %10s".format("phase", "count", "total ms", "max ms"))
+        for (phase in phases) {
+            output("  %-32s %6d %10d %10d".format(
+                phase.name,
+                phase.count,
+                TimeUnit.NANOSECONDS.toMillis(phase.totalNanos),
+                TimeUnit.NANOSECONDS.toMillis(phase.maxNanos)
+            ))
         }
     }
 
-    fun hasFailures(): Boolean = failedCount > 0
+    fun addResultListener(listener: ResultListener) {
+        resultListeners.add(listener)
+    }
 
-    fun getStats(): Triple<Int, Int, Int> = Triple(movedCount, failedCount, skippedCount)
+    /**
+     * Publishes a result as soon as it is known and returns it.
+     */
+    fun result(result: OperationResult): OperationResult {
+        synchronized(resultCounts) {
+            resultCounts.merge(result.status, 1, Int::plus)
+            if (result.status == ResultStatus.FAILED) failedResults.add(result)
+            if (result.status == ResultStatus.SUCCESS) succeededResults.add(result)
+        }
+        resultListeners.forEach { it.onResult(result) }
+        return result
+    }
+
+    /**
+     * Publishes every successful result again as [ResultStatus.ROLLED_BACK] once a
+     * transaction undid their changes, and counts them as rolled back instead.
+     *
+     * @return the number of results corrected
+     */
+    fun rollBackResults(): Int {
+        val rolledBack = synchronized(resultCounts) {
+            val results = succeededResults.map { it.copy(status = ResultStatus.ROLLED_BACK, error = ROLLED_BACK) }
+            succeededResults.clear()
+            resultCounts.merge(ResultStatus.SUCCESS, -results.size, Int::plus)
+            resultCounts.merge(ResultStatus.ROLLED_BACK, results.size, Int::plus)
+            results
+        }
+        for (result in rolledBack) resultListeners.forEach { it.onResult(result) }
+        return rolledBack.size
+    }
+
+    fun resultCount(status: ResultStatus): Int = synchronized(resultCounts) { resultCounts[status] ?: 0 }
+
+    fun failedResults(): List<OperationResult> = synchronized(resultCounts) { failedResults.toList() }
+
+    /**
+     * Tells listeners the run is complete, with the counts of all published results.
+     */
+    fun publishSummary(durationMs: Long): RunSummary {
+        val summary = RunSummary(
+            succeeded = resultCount(ResultStatus.SUCCESS),
+            failed = resultCount(ResultStatus.FAILED),
+            skipped = resultCount(ResultStatus.SKIPPED),
+            durationMs = durationMs,
+            rolledBack = resultCount(ResultStatus.ROLLED_BACK)
+        )
+        resultListeners.forEach { it.onSummary(summary) }
+        return summary
+    }
+
+    fun hasFailures(): Boolean = resultCount(ResultStatus.FAILED) > 0
+
+    companion object {
+        /** Error text of results corrected by [rollBackResults]. */
+        const val ROLLED_BACK = "rolled back"
+    }
 }
@@ -12,11 +12,24 @@ data class RawOperation(
     val fields: Map<String, Any>
 )
 
+/**
+ * A parsed config: its operations in order and the scope they work in.
+ */
+data class Config(
+    val operations: List<RawOperation>,
+    val scope: ScopeConfig = ScopeConfig()
+)
+
 /**
  * Parses YAML configuration for Reforge operations.
  *
  * Expected format:
  * ```yaml
+ * scope:                       # optional
+ *   modules: [app]
+ *   directories: [app/src/main/java/com/example/app/task]
+ *   exclude: [app/src/main/java/com/example/app/task/generated]
+ *
  * operations:
  *   - type: move
  *     target: com.example.app.task.model
@@ -31,7 +44,9 @@ data class RawOperation(
  */
 object ReforgeConfig {
 
-    fun parse(configFile: File): List<RawOperation> {
+    fun parse(configFile: File): List<RawOperation> = load(configFile).operations
+
+    fun load(configFile: File): Config {
         val yaml = Yaml()
         val config = configFile.inputStream().use { stream ->
             @Suppress("UNCHECKED_CAST")
@@ -41,7 +56,7 @@ object ReforgeConfig {
         val operations = config["operations"] as? List<*>
             ?: throw IllegalArgumentException("Config must contain 'operations' list")
 
-        return operations.map { entry ->
+        val rawOperations = operations.map { entry ->
             @Suppress("UNCHECKED_CAST")
             val map = entry as? Map<String, Any>
                 ?: throw IllegalArgumentException("Each operation must be a map")
@@ -51,5 +66,32 @@ object ReforgeConfig {
 
             RawOperation(type = type, fields = map)
         }
+
+        return Config(rawOperations, parseScope(config["scope"]))
+    }
+
+    private fun parseScope(raw: Any?): ScopeConfig {
+        val scope = when (raw) {
+            null -> return ScopeConfig()
+            is Map<*, *> -> raw
+            else -> throw IllegalArgumentException("'scope' must be a map with 'modules', 'directories' and/or 'exclude'")
+        }
+        val unknown = scope.keys.map { it.toString() } - setOf("modules", "directories", "exclude")
+        if (unknown.isNotEmpty()) {
+            throw IllegalArgumentException("Unknown 'scope' field(s): $unknown")
+        }
+        return ScopeConfig(
+            modules = stringList(scope, "modules"),
+            directories = stringList(scope, "directories"),
+            exclude = stringList(scope, "exclude")
+        )
+    }
+
+    private fun stringList(raw: Map<*, *>, key: String): List<String> {
+        return when (val value = raw[key]) {
+            null -> emptyList()
+            is List<*> -> value.map { it.toString() }
+            else -> throw IllegalArgumentException("'scope.$key' must be a list")
+        }
     }
 }
@@ -1,22 +1,53 @@
 package ch.riesennet.reforge
 
+import ch.riesennet.reforge.daemon.ReforgeDaemon
+import ch.riesennet.reforge.infrastructure.ChangeSetTracker
+import ch.riesennet.reforge.infrastructure.IndexReadiness
 import ch.riesennet.reforge.infrastructure.IndexingHelper
+import ch.riesennet.reforge.infrastructure.MemoryStats
 import ch.riesennet.reforge.infrastructure.ProjectSetup
+import ch.riesennet.reforge.infrastructure.Timing
+import ch.riesennet.reforge.infrastructure.Transaction
 import ch.riesennet.reforge.infrastructure.VfsHelper
+import ch.riesennet.reforge.infrastructure.WriteExecutor
+import ch.riesennet.reforge.operation.Batch
+import ch.riesennet.reforge.operation.DiffPreview
+import ch.riesennet.reforge.operation.DiffWorkspace
+import ch.riesennet.reforge.operation.Operation
+import ch.riesennet.reforge.operation.OperationPlanner
 import ch.riesennet.reforge.operation.OperationRegistry
 import ch.riesennet.reforge.operation.OperationResult
+import ch.riesennet.reforge.operation.OperationScope
+import ch.riesennet.reforge.operation.OperationSpec
+import ch.riesennet.reforge.operation.PlanEntry
+import ch.riesennet.reforge.operation.PlannedOperation
+import ch.riesennet.reforge.operation.PreCheck
 import ch.riesennet.reforge.operation.ResultStatus
 import com.intellij.openapi.application.ApplicationManager
 import com.intellij.openapi.application.ApplicationStarter
+import com.intellij.openapi.application.ReadAction
 import com.intellij.openapi.project.Project
 import com.intellij.openapi.project.ProjectManager
+import com.intellij.openapi.roots.ProjectRootManager
 import java.io.File
+import java.io.OutputStreamWriter
+import java.io.Writer
+import java.nio.file.Path
+import java.time.Duration
 import kotlin.system.exitProcess
 
 /**
  * ApplicationStarter entry point for Reforge refactoring engine.
  *
- * Usage: idea reforge <project-path> <config.yaml> [--dry-run]
+ * Usage:
+ * - idea reforge <project-path> <config.yaml> [--dry-run | --diff <file>] [--trace <file>] [--output ndjson[=file]]
+ *   [--chunk-size <n>] [--incremental] [--journal <file> [--resume]] [--transactional [--max-failures <n>]]
+ *   [readiness options]
+ * - idea reforge plan <project-path> <config.yaml> <plan-file> [--trace <file>] [readiness options]
+ * - idea reforge apply <project-path> <plan-file> [options of a run]
+ * - idea reforge serve <project-path> [--socket <path> | --stdin] [readiness options]
+ *
+ * Readiness options: `--index-timeout <seconds>`, `--import-timeout <seconds>`
  */
 class ReforgeStarter : ApplicationStarter {
 
@@ -29,7 +60,17 @@ class ReforgeStarter : ApplicationStarter {
         val reporter = ProgressReporter()
 
         try {
-            val parsedArgs = parseArgs(args.drop(1)) // Drop command name
+            val commandArgs = args.drop(1) // Drop command name
+            if (commandArgs.firstOrNull() == "serve") {
+                serve(parseServeArgs(commandArgs.drop(1)), reporter)
+                exitProcess(0)
+            }
+
+            val parsedArgs = when (commandArgs.firstOrNull()) {
+                "plan" -> parseArgs(commandArgs.drop(1), Command.PLAN)
+                "apply" -> parseArgs(commandArgs.drop(1), Command.APPLY)
+                else -> parseArgs(commandArgs)
+            }
             run(parsedArgs, reporter)
             exitProcess(if (reporter.hasFailures()) 1 else 0)
         } catch (e: IllegalArgumentException) {
@@ -43,140 +84,689 @@ class ReforgeStarter : ApplicationStarter {
         }
     }
 
+    /** What a run does: execute a config, write a plan of it, or apply a plan. */
+    internal enum class Command { RUN, PLAN, APPLY }
+
+    /**
+     * Parsed arguments. [configPath] is null for [Command.APPLY], which reads it from the
+     * plan file at [planPath]. A [diffPath] implies [dryRun].
+     */
     internal data class Args(
         val projectPath: String,
-        val configPath: String,
-        val dryRun: Boolean
+        val configPath: String?,
+        val dryRun: Boolean,
+        val timeouts: Timeouts = Timeouts(),
+        val tracePath: String? = null,
+        val ndjsonOutput: String? = null,
+        val chunkSize: Int? = null,
+        val journalPath: String? = null,
+        val resume: Boolean = false,
+        val transactional: Boolean = false,
+        val maxFailures: Int = 0,
+        val command: Command = Command.RUN,
+        val planPath: String? = null,
+        val diffPath: String? = null,
+        val incremental: Boolean = false
+    )
+
+    internal data class ServeArgs(
+        val projectPath: String,
+        val socketPath: String?,
+        val useStdin: Boolean,
+        val timeouts: Timeouts = Timeouts()
     )
 
-    internal fun parseArgs(args: List<String>): Args {
-        if (args.size < 2) {
+    /**
+     * Upper bounds for readiness waits; null keeps the [IndexReadiness] defaults.
+     */
+    internal data class Timeouts(
+        val index: Duration? = null,
+        val import: Duration? = null
+    )
+
+    /**
+     * Positional arguments: `<project-path> <config.yaml>` for [Command.RUN],
+     * `<project-path> <config.yaml> <plan-file>` for [Command.PLAN] and
+     * `<project-path> <plan-file>` for [Command.APPLY].
+     */
+    internal fun parseArgs(args: List<String>, command: Command = Command.RUN): Args {
+        if (args.size < (if (command == Command.PLAN) 3 else 2)) {
             throw IllegalArgumentException("Missing required arguments")
         }
 
         val projectPath = args[0]
-        val configPath = args[1]
-        val dryRun = args.contains("--dry-run")
+        val configPath = args[1].takeUnless { command == Command.APPLY }
+        val planPath = when (command) {
+            Command.RUN -> null
+            Command.PLAN -> args[2]
+            Command.APPLY -> args[1]
+        }
+        val diffPath = optionValue(args, "--diff")
+        val dryRun = args.contains("--dry-run") || diffPath != null
+        val journalPath = optionValue(args, "--journal")
+        val resume = args.contains("--resume")
+        if (resume && journalPath == null) {
+            throw IllegalArgumentException("--resume requires --journal <file>")
+        }
+        val transactional = args.contains("--transactional")
+        if (transactional && journalPath != null) {
+            throw IllegalArgumentException("--transactional and --journal are mutually exclusive")
+        }
+        val maxFailures = parseMaxFailures(args)
+        if (maxFailures != null && !transactional) {
+            throw IllegalArgumentException("--max-failures requires --transactional")
+        }
 
-        return Args(projectPath, configPath, dryRun)
+        return Args(
+            projectPath,
+            configPath,
+            dryRun,
+            parseTimeouts(args),
+            tracePath = optionValue(args, "--trace"),
+            ndjsonOutput = parseOutput(args),
+            chunkSize = parseChunkSize(args),
+            journalPath = journalPath,
+            resume = resume,
+            transactional = transactional,
+            maxFailures = maxFailures ?: 0,
+            command = command,
+            planPath = planPath,
+            diffPath = diffPath,
+            incremental = args.contains("--incremental")
+        )
+    }
+
+    /**
+     * `--output ndjson` streams to stdout (returned as [STDOUT]), `--output ndjson=<file>` to a file.
+     */
+    private fun parseOutput(args: List<String>): String? {
+        val value = optionValue(args, "--output") ?: return null
+        return when {
+            value == "ndjson" -> STDOUT
+            value.startsWith("ndjson=") && value.length > "ndjson=".length -> value.removePrefix("ndjson=")
+            else -> throw IllegalArgumentException("Unsupported --output format: $value (expected ndjson[=file])")
+        }
+    }
+
+    private fun parseChunkSize(args: List<String>): Int? {
+        val value = optionValue(args, "--chunk-size") ?: return null
+        return value.toIntOrNull()?.takeIf { it > 0 }
+            ?: throw IllegalArgumentException("--chunk-size must be a positive number")
+    }
+
+    private fun parseMaxFailures(args: List<String>): Int? {
+        val value = optionValue(args, "--max-failures") ?: return null
+        return value.toIntOrNull()?.takeIf { it >= 0 }
+            ?: throw IllegalArgumentException("--max-failures must be a non-negative number")
+    }
+
+    internal fun parseServeArgs(args: List<String>): ServeArgs {
+        if (args.isEmpty()) {
+            throw IllegalArgumentException("Missing required arguments")
+        }
+
+        val socketPath = optionValue(args, "--socket")
+        val useStdin = args.contains("--stdin")
+        if (useStdin && socketPath != null) {
+            throw IllegalArgumentException("--socket and --stdin are mutually exclusive")
+        }
+
+        return ServeArgs(args[0], socketPath, useStdin, parseTimeouts(args))
+    }
+
+    private fun parseTimeouts(args: List<String>): Timeouts {
+        return Timeouts(
+            index = secondsOption(args, "--index-timeout"),
+            import = secondsOption(args, "--import-timeout")
+        )
+    }
+
+    private fun optionValue(args: List<String>, name: String): String? {
+        val index = args.indexOf(name)
+        if (index < 0) return null
+        return args.getOrNull(index + 1)?.takeUnless { it.startsWith("--") }
+            ?: throw IllegalArgumentException("$name requires a value")
+    }
+
+    private fun secondsOption(args: List<String>, name: String): Duration? {
+        val value = optionValue(args, name) ?: return null
+        val seconds = value.toLongOrNull()?.takeIf { it > 0 }
+            ?: throw IllegalArgumentException("$name must be a positive number of seconds")
+        return Duration.ofSeconds(seconds)
     }
 
     private fun printUsage() {
         System.err.println()
-        System.err.println("Usage: idea reforge <project-path> <config.yaml> [--dry-run]")
+        System.err.println("Usage: idea reforge <project-path> <config.yaml> [options]")
+        System.err.println("       idea reforge plan <project-path> <config.yaml> <plan-file> [options]")
+        System.err.println("       idea reforge apply <project-path> <plan-file> [options]")
+        System.err.println("       idea reforge serve <project-path> [options]")
         System.err.println()
         System.err.println("Arguments:")
-        System.err.println("  project-path  Path to the IntelliJ project to refactor")
-        System.err.println("  config.yaml   Path to the YAML configuration file")
-        System.err.println("  --dry-run     Show what would be moved without making changes")
+        System.err.println("  project-path           Path to the IntelliJ project to refactor")
+        System.err.println("  config.yaml            Path to the YAML configuration file")
+        System.err.println("  plan-file              Plan written by 'plan': resolved classes, usages and file hashes")
+        System.err.println()
+        System.err.println("Options:")
+        System.err.println("  --dry-run              Show what would be moved without making changes")
+        System.err.println("  --diff <file>          Dry run that writes a unified diff of the previewed edits (moves approximate)")
+        System.err.println("  --trace <file>         Write a Chrome trace-event JSON file of the run's phases")
+        System.err.println("  --output ndjson[=file] Stream results as NDJSON to stdout or a file")
+        System.err.println("  --chunk-size <n>       Items per write command and EDT hand-off (default: 50)")
+        System.err.println("  --incremental          Skip specs whose result already holds, e.g. moves done by an earlier run")
+        System.err.println("  --journal <file>       Record completed batches so a failed run can be resumed")
+        System.err.println("  --resume               Skip batches the journal records as applied and still in place")
+        System.err.println("  --transactional        Save once at the end; roll everything back if too many actions fail")
+        System.err.println("  --max-failures <n>     Failed actions a transactional run tolerates (default: 0)")
+        System.err.println("  --index-timeout <s>    Give up waiting for indexing after s seconds (default: 1800)")
+        System.err.println("  --import-timeout <s>   Wait at most s seconds for a started Maven/Gradle import (default: 10)")
+        System.err.println()
+        System.err.println("Serve mode keeps the project open and indexed between requests:")
+        System.err.println("  --socket <path>        Unix socket to listen on (default: derived from project path)")
+        System.err.println("  --stdin                Read requests from stdin instead of a socket")
+        System.err.println("A run request to a daemon takes the options of a run, e.g. --journal <file> or --trace <file>")
     }
 
     private fun run(args: Args, reporter: ProgressReporter) {
         val projectFile = File(args.projectPath)
-        val configFile = File(args.configPath)
+        val plan = args.planPath?.takeIf { args.command == Command.APPLY }?.let { PlanFile.read(File(it)) }
+        val configPath = plan?.configPath ?: args.configPath
+            ?: throw IllegalArgumentException("Missing required arguments")
+        val configFile = File(configPath)
 
         if (!projectFile.exists()) {
             throw IllegalArgumentException("Project path does not exist: ${args.projectPath}")
         }
 
         if (!configFile.exists()) {
-            throw IllegalArgumentException("Config file does not exist: ${args.configPath}")
+            throw IllegalArgumentException("Config file does not exist: $configPath")
         }
 
+        val ndjsonWriter = args.ndjsonOutput?.let { openNdjsonOutput(it) }
+        ndjsonWriter?.let { reporter.addResultListener(NdjsonResultWriter(it)) }
+
         reporter.info("Loading project: ${projectFile.absolutePath}")
-        val project = openProject(projectFile)
+        val project = reporter.span("open project", "setup") { openProject(projectFile) }
 
         try {
-            ProjectSetup.ensureProjectJdk(project, reporter)
-            ProjectSetup.ensureSourceRoots(project, reporter)
-            reporter.info("Waiting for indexing...")
-            IndexingHelper.waitForSmartMode(project)
+            prepareProject(project, args.timeouts, reporter)
+            args.chunkSize?.let { WriteExecutor.getInstance(project).chunkSize = it }
+            if (args.command == Command.PLAN) {
+                planConfig(project, configFile, File(requireNotNull(args.planPath)), reporter)
+            } else {
+                executeConfig(
+                    project, configFile, args.dryRun, reporter,
+                    args.journalPath?.let { File(it) }, args.resume,
+                    transactional = args.transactional, maxFailures = args.maxFailures, plan = plan,
+                    diffFile = args.diffPath?.let { File(it) }, incremental = args.incremental
+                )
+            }
+        } finally {
+            reporter.info("")
+            reporter.info("Closing project...")
+            reporter.span("close project", "setup") { closeProject(project) }
+            reporter.printPhaseSummary()
+            val peakHeapMb = MemoryStats.peakHeapMegabytes()
+            reporter.info("  Peak heap: $peakHeapMb MB")
+            args.tracePath?.let { writeTrace(File(it), reporter, mapOf("peakHeapMb" to peakHeapMb)) }
+            if (args.ndjsonOutput == STDOUT) ndjsonWriter?.flush() else ndjsonWriter?.close()
+        }
+    }
+
+    private fun openNdjsonOutput(path: String): Writer {
+        if (path == STDOUT) return OutputStreamWriter(System.out, Charsets.UTF_8)
+        val file = File(path)
+        file.absoluteFile.parentFile?.mkdirs()
+        return file.bufferedWriter()
+    }
+
+    private fun writeTrace(traceFile: File, reporter: ProgressReporter, metadata: Map<String, Any?>) {
+        traceFile.absoluteFile.parentFile?.mkdirs()
+        traceFile.bufferedWriter().use { reporter.trace.writeChromeTrace(it, metadata) }
+        reporter.info("Trace written to ${traceFile.path}")
+    }
+
+    private fun serve(args: ServeArgs, reporter: ProgressReporter) {
+        val projectFile = File(args.projectPath)
+        if (!projectFile.exists()) {
+            throw IllegalArgumentException("Project path does not exist: ${args.projectPath}")
+        }
 
-            reporter.info("Parsing config: ${configFile.name}")
-            val rawOps = ReforgeConfig.parse(configFile)
+        reporter.info("Loading project: ${projectFile.absolutePath}")
+        val project = reporter.span("open project", "setup") { openProject(projectFile) }
 
-            if (rawOps.isEmpty()) {
-                reporter.info("No operations found in config")
-                return
+        try {
+            prepareProject(project, args.timeouts, reporter)
+            reporter.printPhaseSummary()
+
+            val daemon = ReforgeDaemon { configFile, options, requestReporter ->
+                val request = parseArgs(listOf(args.projectPath, configFile.path) + options)
+                // NDJSON for stdout is streamed over the connection by the daemon
+                val ndjsonWriter = request.ndjsonOutput?.takeUnless { it == STDOUT }?.let { openNdjsonOutput(it) }
+                ndjsonWriter?.let { requestReporter.addResultListener(NdjsonResultWriter(it)) }
+                val writeExecutor = WriteExecutor.getInstance(project)
+                val chunkSize = writeExecutor.chunkSize
+                try {
+                    // Files may have been edited since the previous request
+                    ChangeSetTracker.getInstance(project).markExternalChange()
+                    request.chunkSize?.let { writeExecutor.chunkSize = it }
+                    executeConfig(
+                        project, configFile, request.dryRun, requestReporter,
+                        request.journalPath?.let { File(it) }, request.resume,
+                        transactional = request.transactional, maxFailures = request.maxFailures,
+                        diffFile = request.diffPath?.let { File(it) }, incremental = request.incremental
+                    )
+                } finally {
+                    writeExecutor.chunkSize = chunkSize
+                    requestReporter.printPhaseSummary()
+                    request.tracePath?.let {
+                        writeTrace(File(it), requestReporter, mapOf("peakHeapMb" to MemoryStats.peakHeapMegabytes()))
+                    }
+                    ndjsonWriter?.close()
+                }
             }
 
-            if (args.dryRun) {
-                reporter.info("DRY RUN MODE - no changes will be made")
+            if (args.useStdin) {
+                reporter.info("Serving requests on stdin")
+                daemon.serveStreams(System.`in`, System.out)
+            } else {
+                val socketPath = args.socketPath?.let { Path.of(it) }
+                    ?: ReforgeDaemon.defaultSocketPath(projectFile)
+                reporter.info("Serving requests on $socketPath")
+                daemon.serveSocket(socketPath)
             }
+        } finally {
+            reporter.info("")
+            reporter.info("Closing project...")
+            closeProject(project)
+        }
+    }
+
+    /**
+     * Configures JDK and source roots and waits for the initial indexing pass.
+     * Runs once per opened project, also in serve mode.
+     */
+    private fun prepareProject(project: Project, timeouts: Timeouts, reporter: ProgressReporter) {
+        val readiness = IndexReadiness.getInstance(project)
+        timeouts.index?.let { readiness.smartModeTimeout = it }
+        timeouts.import?.let { readiness.importTimeout = it }
+
+        reporter.span("ensure project JDK", "setup") { ProjectSetup.ensureProjectJdk(project, reporter) }
+        reporter.span("ensure source roots", "setup") { ProjectSetup.ensureSourceRoots(project, reporter) }
+        reporter.info("Waiting for indexing...")
+        reporter.span("initial indexing", "index") { IndexingHelper.waitForSmartMode(project, "initial indexing") }
+    }
+
+    /**
+     * Parses the config and executes all of its batches against an open project.
+     * Results are published through [reporter] as the operations produce them.
+     *
+     * With a [journalFile], every saved batch is recorded in it (see [RunJournal]). With
+     * [resume], the actions the journal records as successful are skipped if their effects
+     * are still in place, and their results are republished as skipped; the rest of their
+     * batch runs again (see [Operation.withoutApplied]).
+     *
+     * A [transactional] run does not save between batches but once at the end. If more than
+     * [maxFailures] actions fail, it stops and rolls back every change (see [Transaction]).
+     *
+     * With a [plan] of the config, operations whose plan entry still holds execute what
+     * the plan resolved instead of resolving and searching again (see [Operation.fromPlan]).
+     *
+     * With a [diffFile], the dry run previews the edits of every operation in memory (see
+     * [Operation.preview]) and writes them as a unified diff. Previews read the files as
+     * they are on disk, so operations acting on what an earlier batch leaves behind are
+     * skipped. The diff starts with `#` lines naming what it leaves out or approximates.
+     *
+     * An [incremental] run first checks which specs already hold (see [PreCheck]) and
+     * publishes them as skipped instead of executing them.
+     */
+    private fun executeConfig(
+        project: Project,
+        configFile: File,
+        dryRun: Boolean,
+        reporter: ProgressReporter,
+        journalFile: File? = null,
+        resume: Boolean = false,
+        transactional: Boolean = false,
+        maxFailures: Int = 0,
+        plan: PlanFile? = null,
+        diffFile: File? = null,
+        incremental: Boolean = false
+    ) {
+        val started = System.nanoTime()
+        if (!configFile.exists()) {
+            throw IllegalArgumentException("Config file does not exist: ${configFile.path}")
+        }
+
+        reporter.info("Parsing config: ${configFile.name}")
+        val config = reporter.span("parse config", "setup") { ReforgeConfig.load(configFile) }
+        val rawOps = config.operations
+
+        if (rawOps.isEmpty()) {
+            reporter.info("No operations found in config")
+            reporter.publishSummary(Timing.elapsedMillis(started))
+            return
+        }
+
+        if (dryRun) {
+            reporter.info("DRY RUN MODE - no changes will be made")
+        }
+
+        val scope = OperationScope(project, config.scope)
+        if (config.scope.isRestricted) {
+            reporter.info("Scope: ${config.scope.describe()}")
+        }
 
-            // Group consecutive same-type operations into batches
-            val batches = groupIntoBatches(rawOps)
-            val allResults = mutableListOf<OperationResult>()
+        val batches = planBatches(config, reporter)
 
-            for (batch in batches) {
+        val configHash = RunJournal.fingerprint(configFile)
+            ?: throw IllegalArgumentException("Config file does not exist: ${configFile.path}")
+        if (plan != null && plan.configHash != configHash) {
+            throw IllegalArgumentException("Config ${configFile.path} changed since the plan was written; run plan again")
+        }
+        // Checked before the first batch writes anything
+        val sourcesChanged = plan != null && reporter.span("verify plan sources", "resolve") {
+            plan.sourcesChanged(sourceRoots(project))
+        }
+        if (sourcesChanged) {
+            reporter.info("Sources changed since the plan was written; resolving patterns and searching usages again")
+        }
+        val recorded = if (resume && journalFile != null) RunJournal(journalFile).load(configHash) else emptyList()
+        val completed = recorded.associateBy { it.operations }
+        val expectedFiles = RunJournal.latestFingerprints(recorded)
+        if (resume && journalFile != null) {
+            reporter.info("Resuming from ${journalFile.path}: ${completed.size} completed batch(es) recorded")
+        }
+        val journal = journalFile?.takeUnless { dryRun }?.let { RunJournal(it) }
+        journal?.start(configHash, resume)
+        val transaction = if (transactional && !dryRun) Transaction.begin(project) else null
+        var rollback = false
+        val workspace = diffFile?.let { DiffWorkspace() }
+        val dependent = if (workspace != null) OperationPlanner.dependentOperations(batches) else emptySet()
+        var dependentSkipped = 0
+
+        try {
+            for ((index, batch) in batches.withIndex()) {
                 val operation = OperationRegistry.get(batch.type)
+                val positions = batch.operations.map { it.index }
 
-                // Parse raw entries into typed specs
-                val specs = batch.entries.map { operation.parseSpec(it.fields) }
+                val batchName = "batch ${index + 1}: ${batch.type}"
 
                 // Wait for indexing before each batch
-                IndexingHelper.waitForSmartMode(project)
+                reporter.span("wait for smart mode", "index", batchName) {
+                    IndexingHelper.waitForSmartMode(project, batchName)
+                }
 
-                // Execute the batch
-                val results = operation.execute(project, specs, reporter, args.dryRun)
-                allResults.addAll(results)
+                val planned = if (plan == null) batch.operations.map { it.spec } else {
+                    reporter.span("validate plan", "resolve", batchName) { specsFromPlan(operation, batch, plan, sourcesChanged, reporter) }
+                }
 
-                // Save and sync after each batch
-                if (!args.dryRun) {
-                    VfsHelper.saveAllAndSync()
+                // Skip the actions a previous run completed, and the specs left with nothing to do
+                val record = completed[positions]
+                val applied = if (record == null) emptyList() else reporter.span("verify journal", "resume", batchName) {
+                    appliedResults(project, operation, record, expectedFiles, scope, reporter)
+                }
+                val specs = if (record == null || applied.isEmpty()) planned else {
+                    planned.map { operation.withoutApplied(it, record.results, applied) }
+                }
+                if (applied.isNotEmpty()) {
+                    val remaining = specs.count { it != null }
+                    reporter.section(
+                        if (remaining == 0) "Skipping $batchName: already applied"
+                        else "Resuming $batchName: ${applied.size} action(s) already applied, $remaining spec(s) left"
+                    )
+                    for (result in applied) {
+                        reporter.result(result.copy(status = ResultStatus.SKIPPED, error = "already applied", durationMs = null))
+                    }
+                    if (remaining == 0) continue
+                }
+
+                val independent = specs.filterIndexed { position, spec ->
+                    if (spec == null) return@filterIndexed false
+                    val skip = batch.operations[position].index in dependent
+                    if (skip) {
+                        dependentSkipped++
+                        reporter.result(OperationResult(
+                            batch.type, operation.label(spec), "", ResultStatus.SKIPPED, "depends on an earlier batch"
+                        ))
+                    }
+                    !skip
+                }.filterNotNull()
+
+                // Skip what already holds, e.g. moves done by a previous run of a growing config
+                val pending = if (!incremental) independent else reporter.span("pre-check", "resolve", batchName) {
+                    PreCheck(project, scope).run(operation, independent, reporter)
+                }
+                if (pending.isEmpty()) {
+                    reporter.section("Skipping $batchName: already satisfied")
+                    continue
+                }
+
+                // Execute the batch; results are published as they are produced
+                val results = if (workspace != null) {
+                    reporter.section("Previewing $batchName:")
+                    reporter.span("preview", "operation", batchName) {
+                        DiffPreview(project, scope).run(operation, pending, workspace, reporter)
+                    }
+                } else {
+                    reporter.span(batch.type, "operation", batchName) {
+                        operation.execute(project, pending, reporter, dryRun, scope)
+                    }
+                }
+
+                if (transaction != null) {
+                    // Keep documents in memory; the transaction saves once at the end
+                    reporter.span("commit documents", "write", batchName) { VfsHelper.commitAll(project) }
+                    val failed = reporter.failedResults().size
+                    if (failed > maxFailures) {
+                        reporter.section("$failed failed action(s) exceed --max-failures $maxFailures, rolling back")
+                        rollback = true
+                        break
+                    }
+                } else if (!dryRun) {
+                    // Save and sync after each batch, then record it as completed
+                    reporter.span("save and sync", "write", batchName) { VfsHelper.saveAllAndSync(project) }
+                    journal?.record(RunJournal.BatchRecord.completed(positions, batch.type, applied + results))
                 }
             }
+        } catch (e: Exception) {
+            transaction?.let { rollBack(it, reporter) }
+            throw e
+        } finally {
+            journal?.close()
+        }
 
-            // Print summary
-            reporter.section("Summary:")
-            val successCount = allResults.count { it.status == ResultStatus.SUCCESS }
-            val failedCount = allResults.count { it.status == ResultStatus.FAILED }
-            val skippedCount = allResults.count { it.status == ResultStatus.SKIPPED }
-            reporter.info("  Succeeded: $successCount")
-            reporter.info("  Failed: $failedCount")
-            reporter.info("  Skipped: $skippedCount")
-
-            val failures = allResults.filter { it.status == ResultStatus.FAILED }
-            if (failures.isNotEmpty()) {
-                reporter.section("Failures:")
-                for (f in failures) {
-                    reporter.info("  - [${f.action}] ${f.source}: ${f.error}")
+        if (transaction != null) {
+            if (rollback) {
+                rollBack(transaction, reporter)
+            } else {
+                val documents = transaction.documentCount
+                reporter.span("save", "write") { transaction.commit() }
+                reporter.info("Saved $documents changed document(s) in one pass")
+            }
+        }
+
+        if (diffFile != null && workspace != null) {
+            // Label what the diff does not show faithfully, in the file and on the console
+            val caveats = buildList {
+                val approximate = workspace.approximateFiles()
+                if (approximate > 0) {
+                    add("$approximate file(s) hold approximate move edits; import order, formatting and further rewrites may differ from a real run")
+                }
+                if (dependentSkipped > 0) {
+                    add("$dependentSkipped operation(s) depending on an earlier batch are not included")
                 }
             }
+            reporter.span("write diff", "write") {
+                diffFile.writeText(caveats.joinToString("") { "# $it\n" } + workspace.unifiedDiff(project.basePath))
+            }
+            reporter.info("Diff of ${workspace.changedFiles()} changed file(s) written to ${diffFile.path}")
+            caveats.forEach { reporter.info("  Warning: $it") }
+        }
 
-        } finally {
-            reporter.info("")
-            reporter.info("Closing project...")
-            closeProject(project)
+        // Print summary
+        val summary = reporter.publishSummary(Timing.elapsedMillis(started))
+        reporter.section("Summary:")
+        reporter.info("  Succeeded: ${summary.succeeded}")
+        reporter.info("  Failed: ${summary.failed}")
+        reporter.info("  Skipped: ${summary.skipped}")
+        if (summary.rolledBack > 0) reporter.info("  Rolled back: ${summary.rolledBack}")
+
+        val failures = reporter.failedResults()
+        if (failures.isNotEmpty()) {
+            reporter.section("Failures:")
+            for (f in failures) {
+                reporter.info("  - [${f.action}] ${f.source}: ${f.error}")
+            }
         }
+
+        reportIndexWaits(project, reporter)
     }
 
-    internal data class Batch(val type: String, val entries: List<RawOperation>)
+    /**
+     * Parses every entry of [config] up front, then merges independent same-type
+     * operations into batches.
+     */
+    private fun planBatches(config: ReforgeConfig, reporter: ProgressReporter): List<Batch> {
+        val planned = config.operations.mapIndexed { index, raw ->
+            val operation = OperationRegistry.get(raw.type)
+            val spec = operation.parseSpec(raw.fields)
+            PlannedOperation(index, raw.type, spec, operation.footprint(spec))
+        }
+        val batches = reporter.span("plan", "setup") { OperationPlanner.plan(planned) }
+        printPlan(planned, batches, reporter)
+        return batches
+    }
 
     /**
-     * Groups consecutive same-type operations into batches.
-     * This preserves ordering while allowing same-type optimizations
-     * (e.g., multi-pass resolve for moves).
+     * Resolves every operation of the config without changing anything and writes the
+     * result to [planFile] (see [PlanFile]). Operations that depend on an earlier batch are
+     * left out of the plan: what they act on only exists once that batch ran.
      */
-    internal fun groupIntoBatches(ops: List<RawOperation>): List<Batch> {
-        if (ops.isEmpty()) return emptyList()
+    private fun planConfig(project: Project, configFile: File, planFile: File, reporter: ProgressReporter) {
+        reporter.info("Parsing config: ${configFile.name}")
+        val config = reporter.span("parse config", "setup") { ReforgeConfig.load(configFile) }
+        val scope = OperationScope(project, config.scope)
+        if (config.scope.isRestricted) {
+            reporter.info("Scope: ${config.scope.describe()}")
+        }
 
-        val batches = mutableListOf<Batch>()
-        var currentType = ops.first().type
-        var currentEntries = mutableListOf(ops.first())
+        val batches = planBatches(config, reporter)
+        val dependent = OperationPlanner.dependentOperations(batches)
+        val entries = sortedMapOf<Int, PlanEntry>()
+        for ((index, batch) in batches.withIndex()) {
+            val operation = OperationRegistry.get(batch.type)
+            val batchName = "batch ${index + 1}: ${batch.type}"
+            reporter.span("wait for smart mode", "index", batchName) {
+                IndexingHelper.waitForSmartMode(project, batchName)
+            }
+            reporter.section("Planning $batchName")
+            for (planned in batch.operations.filter { it.index !in dependent }) {
+                entries[planned.index] = reporter.span("plan ${batch.type}", "resolve", "#${planned.index + 1}") {
+                    operation.plan(project, planned.spec, scope, reporter)
+                }
+            }
+        }
+
+        val plan = reporter.span("fingerprint files", "setup") { PlanFile.create(configFile, entries, sourceRoots(project)) }
+        plan.write(planFile)
+        val classes = entries.values.flatMap { it.classes.values }
+        reporter.section("Plan written to ${planFile.path}")
+        reporter.info("  ${entries.size} operation(s) planned, ${dependent.size} left to resolve when applying")
+        reporter.info("  ${classes.size} class(es), ${classes.sumOf { it.usages?.size ?: 0 }} usage(s), ${plan.files.size} file(s)")
+        reportIndexWaits(project, reporter)
+    }
+
+    /** Source roots of the project as files, for the [PlanFile] stamp. */
+    private fun sourceRoots(project: Project): List<File> {
+        return ReadAction.compute<List<File>, Exception> {
+            ProjectRootManager.getInstance(project).contentSourceRoots.map { File(it.path) }
+        }
+    }
 
-        for (op in ops.drop(1)) {
-            if (op.type == currentType) {
-                currentEntries.add(op)
+    /**
+     * The specs of [batch] under `reforge apply`: operations whose plan entry still holds
+     * execute it (see [Operation.fromPlan]), the others resolve as configured.
+     */
+    private fun specsFromPlan(
+        operation: Operation,
+        batch: Batch,
+        plan: PlanFile,
+        sourcesChanged: Boolean,
+        reporter: ProgressReporter
+    ): List<OperationSpec> {
+        // Earlier batches have been written by now, so fingerprints are taken per batch
+        val fingerprints = HashMap<String, String?>()
+        var fallbacks = 0
+        var searched = 0
+        val specs = batch.operations.map { planned ->
+            val entry = plan.validEntry(planned.index, fingerprints, sourcesChanged)
+            if (entry == null) {
+                fallbacks++
+                planned.spec
             } else {
-                batches.add(Batch(currentType, currentEntries))
-                currentType = op.type
-                currentEntries = mutableListOf(op)
+                searched += entry.classes.values.count { it.usages == null }
+                operation.fromPlan(planned.spec, entry)
             }
         }
-        batches.add(Batch(currentType, currentEntries))
+        val details = listOfNotNull(
+            "$fallbacks resolved again".takeIf { fallbacks > 0 },
+            "$searched class(es) searched again".takeIf { searched > 0 }
+        )
+        val suffix = if (details.isEmpty()) "" else " (${details.joinToString(", ")})"
+        reporter.info("  Plan: ${specs.size - fallbacks}/${specs.size} operation(s) still valid$suffix")
+        return specs
+    }
 
-        return batches
+    private fun rollBack(transaction: Transaction, reporter: ProgressReporter) {
+        val undone = reporter.span("roll back", "write") { transaction.rollback(reporter) }
+        val corrected = reporter.rollBackResults()
+        reporter.info("Rolled back $undone change(s); the project is unchanged")
+        reporter.info("  $corrected successful result(s) republished as ROLLED_BACK")
+    }
+
+    private fun reportIndexWaits(project: Project, reporter: ProgressReporter) {
+        val waits = IndexReadiness.getInstance(project).drainWaits()
+        if (waits.isEmpty()) return
+
+        val total = waits.sumOf { it.duration.toMillis() }
+        reporter.section("Index readiness: ${waits.size} wait(s), $total ms total")
+        for (wait in waits.sortedByDescending { it.duration }.take(5)) {
+            val timedOut = if (wait.satisfied) "" else " (timed out)"
+            reporter.info("  ${wait.duration.toMillis()} ms  ${wait.reason}$timedOut")
+        }
+    }
+
+    /**
+     * The successful results of a batch recorded in the journal whose effects [operation]
+     * confirms are still in place. None if any of the batch's files changed since the
+     * journal last saw them ([expectedFiles]), as the batch then runs again in full.
+     */
+    private fun appliedResults(
+        project: Project,
+        operation: Operation,
+        record: RunJournal.BatchRecord,
+        expectedFiles: Map<String, String?>,
+        scope: OperationScope,
+        reporter: ProgressReporter
+    ): List<OperationResult> {
+        val changed = record.changedFiles(expectedFiles)
+        if (changed.isNotEmpty()) {
+            reporter.info("  ${changed.size} file(s) changed since the journal was written, e.g. ${changed.first()}")
+            return emptyList()
+        }
+        return ReadAction.compute<List<OperationResult>, Exception> {
+            record.results.filter { it.status == ResultStatus.SUCCESS && operation.isApplied(project, it, scope) }
+        }
+    }
+
+    private fun printPlan(planned: List<PlannedOperation>, batches: List<Batch>, reporter: ProgressReporter) {
+        val consecutive = OperationPlanner.consecutiveBatchCount(planned)
+        reporter.section("Plan: ${planned.size} operation(s) in ${batches.size} batch(es) (config order: $consecutive)")
+        for ((index, batch) in batches.withIndex()) {
+            val positions = batch.operations.joinToString(", ") { "#${it.index + 1}" }
+            reporter.info("  batch ${index + 1}: ${batch.type} × ${batch.operations.size} ($positions)")
+        }
     }
 
     private fun openProject(projectFile: File): Project {
@@ -190,4 +780,9 @@ class ReforgeStarter : ApplicationStarter {
             ProjectManager.getInstance().closeAndDispose(project)
         }
     }
+
+    companion object {
+        /** [Args.ndjsonOutput] value for streaming to stdout. */
+        internal const val STDOUT = "-"
+    }
 }
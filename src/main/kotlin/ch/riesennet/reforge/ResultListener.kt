@@ -0,0 +1,22 @@
+package ch.riesennet.reforge
+
+import ch.riesennet.reforge.operation.OperationResult
+
+/**
+ * Receives results as soon as operations produce them, see [ProgressReporter.result].
+ */
+interface ResultListener {
+
+    fun onResult(result: OperationResult)
+
+    /**
+     * Called once a config has been executed completely.
+     */
+    fun onSummary(summary: RunSummary) {}
+}
+
+/**
+ * Counts of a run's results. [succeeded] excludes results a transactional run
+ * [rolledBack].
+ */
+data class RunSummary(val succeeded: Int, val failed: Int, val skipped: Int, val durationMs: Long, val rolledBack: Int = 0)
@@ -0,0 +1,168 @@
+package ch.riesennet.reforge
+
+import ch.riesennet.reforge.infrastructure.Json
+import ch.riesennet.reforge.operation.OperationResult
+import ch.riesennet.reforge.operation.ResultStatus
+import org.yaml.snakeyaml.Yaml
+import org.yaml.snakeyaml.error.YAMLException
+import java.io.Closeable
+import java.io.File
+import java.io.FileOutputStream
+import java.security.MessageDigest
+
+/**
+ * Append-only NDJSON journal of a run, so a run that died can be resumed.
+ *
+ * Every run starts with a `run` record carrying the SHA-256 of its config. Once a batch
+ * has been saved, a `batch` record lists its operations (positions in the config), its
+ * results and the SHA-256 of every file the results name, null for files that no longer
+ * exist, and the journal is forced to disk. A batch without a record did not complete.
+ */
+class RunJournal(private val file: File) : Closeable {
+
+    /**
+     * A completed batch: the config positions of its [operations], its results and the
+     * fingerprints of the files they wrote.
+     */
+    data class BatchRecord(
+        val operations: List<Int>,
+        val type: String,
+        val results: List<OperationResult>,
+        val files: Map<String, String?>
+    ) {
+        /**
+         * Paths of this batch whose content differs from [expected], by default the
+         * fingerprints taken when the batch was recorded.
+         */
+        fun changedFiles(expected: Map<String, String?> = files): List<String> {
+            return files.keys.filter { fingerprint(File(it)) != expected[it] }
+        }
+
+        companion object {
+            /** Record of a batch that has just been saved, fingerprinting the files of its [results]. */
+            fun completed(operations: List<Int>, type: String, results: List<OperationResult>): BatchRecord {
+                val files = results.flatMap { it.files }.distinct().associateWith { fingerprint(File(it)) }
+                return BatchRecord(operations, type, results, files)
+            }
+        }
+    }
+
+    private var out: FileOutputStream? = null
+
+    /**
+     * Batches recorded in this journal. A truncated last line, left by a run that died
+     * while writing it, is ignored.
+     *
+     * @throws IllegalArgumentException if the journal was written for a different config
+     */
+    fun load(configHash: String): List<BatchRecord> {
+        if (!file.exists()) return emptyList()
+
+        val lines = file.readLines().filter { it.isNotBlank() }
+        val batches = mutableListOf<BatchRecord>()
+        for ((index, line) in lines.withIndex()) {
+            val record = try {
+                Yaml().load<Any?>(line) as? Map<*, *>
+            } catch (e: YAMLException) {
+                if (index == lines.lastIndex) null else throw IllegalStateException("Corrupt journal ${file.path} at line ${index + 1}", e)
+            } ?: continue
+
+            when (record["type"]) {
+                "run" -> if (record["config"] != configHash) {
+                    throw IllegalArgumentException("Journal ${file.path} was written for a different config")
+                }
+                "batch" -> batches.add(parseBatch(record))
+            }
+        }
+        return batches
+    }
+
+    /**
+     * Opens the journal for writing: appends to it when [resume] is true, otherwise
+     * starts a new one. Writes the `run` record.
+     */
+    fun start(configHash: String, resume: Boolean) {
+        file.absoluteFile.parentFile?.mkdirs()
+        out = FileOutputStream(file, resume)
+        write(linkedMapOf("type" to "run", "config" to configHash, "startedAt" to System.currentTimeMillis()))
+    }
+
+    fun record(batch: BatchRecord) {
+        write(linkedMapOf(
+            "type" to "batch",
+            "operation" to batch.type,
+            "operations" to batch.operations,
+            "results" to batch.results.map { result ->
+                linkedMapOf(
+                    "action" to result.action,
+                    "source" to result.source,
+                    "target" to result.target,
+                    "status" to result.status.name,
+                    "error" to result.error,
+                    "durationMs" to result.durationMs,
+                    "files" to result.files
+                )
+            },
+            "files" to batch.files
+        ))
+    }
+
+    override fun close() {
+        out?.close()
+        out = null
+    }
+
+    private fun write(record: Map<String, Any?>) {
+        val stream = out ?: throw IllegalStateException("Journal ${file.path} is not open")
+        stream.write((Json.write(record) + "\n").toByteArray(Charsets.UTF_8))
+        stream.flush()
+        stream.channel.force(false)
+    }
+
+    private fun parseBatch(record: Map<*, *>): BatchRecord {
+        val results = (record["results"] as? List<*>).orEmpty().filterIsInstance<Map<*, *>>().map { result ->
+            OperationResult(
+                action = result["action"].toString(),
+                source = result["source"].toString(),
+                target = result["target"].toString(),
+                status = ResultStatus.valueOf(result["status"].toString()),
+                error = result["error"] as? String,
+                durationMs = (result["durationMs"] as? Number)?.toLong(),
+                files = (result["files"] as? List<*>).orEmpty().map { it.toString() }
+            )
+        }
+        return BatchRecord(
+            operations = (record["operations"] as? List<*>).orEmpty().map { (it as Number).toInt() },
+            type = record["operation"].toString(),
+            results = results,
+            files = (record["files"] as? Map<*, *>).orEmpty().entries.associate { (path, hash) -> path.toString() to hash as? String }
+        )
+    }
+
+    companion object {
+        /**
+         * The fingerprint each file had after the last batch that wrote it, so files
+         * rewritten by later batches do not count as changed.
+         */
+        fun latestFingerprints(batches: List<BatchRecord>): Map<String, String?> {
+            val latest = HashMap<String, String?>()
+            for (batch in batches) latest.putAll(batch.files)
+            return latest
+        }
+
+        /** SHA-256 of [file] as hex, or null if it does not exist. */
+        fun fingerprint(file: File): String? {
+            if (!file.isFile) return null
+            val digest = MessageDigest.getInstance("SHA-256")
+            file.inputStream().use { stream ->
+                val buffer = ByteArray(64 * 1024)
+                while (true) {
+                    val read = stream.read(buffer)
+                    if (read < 0) break
+                    digest.update(buffer, 0, read)
+                }
+            }
+            return digest.digest().joinToString("") { "%02x".format(it) }
+        }
+    }
+}
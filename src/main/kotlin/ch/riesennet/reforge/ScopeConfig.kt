@@ -0,0 +1,49 @@
+package ch.riesennet.reforge
+
+import java.nio.file.FileSystems
+import java.nio.file.Path
+import java.nio.file.PathMatcher
+
+/**
+ * The `scope:` section of a config: the part of the project that class resolution and
+ * usage search are confined to. Empty lists do not restrict anything.
+ *
+ * [modules] are module names. [directories] and [exclude] are globs matched against
+ * project-relative paths; a glob naming a directory also covers everything below it.
+ */
+data class ScopeConfig(
+    val modules: List<String> = emptyList(),
+    val directories: List<String> = emptyList(),
+    val exclude: List<String> = emptyList()
+) {
+
+    private val directoryMatchers: List<PathMatcher> by lazy { directories.flatMap { matchers(it) } }
+    private val excludeMatchers: List<PathMatcher> by lazy { exclude.flatMap { matchers(it) } }
+
+    val isRestricted: Boolean
+        get() = modules.isNotEmpty() || directories.isNotEmpty() || exclude.isNotEmpty()
+
+    /**
+     * Whether the file at [path] passes the directory and exclude globs, given the
+     * project directory [basePath]. Modules are checked separately.
+     */
+    fun acceptsPath(path: String, basePath: String?): Boolean {
+        val base = basePath?.trimEnd('/')
+        val relativePath = if (base != null && path.startsWith("$base/")) path.removePrefix("$base/") else path
+        val candidate = Path.of(relativePath)
+        if (excludeMatchers.any { it.matches(candidate) }) return false
+        return directoryMatchers.isEmpty() || directoryMatchers.any { it.matches(candidate) }
+    }
+
+    fun describe(): String {
+        return listOf("modules" to modules, "directories" to directories, "exclude" to exclude)
+            .filter { it.second.isNotEmpty() }
+            .joinToString(", ") { (name, values) -> "$name ${values.joinToString(", ")}" }
+    }
+
+    private fun matchers(glob: String): List<PathMatcher> {
+        val trimmed = glob.trim('/')
+        val fileSystem = FileSystems.getDefault()
+        return listOf(fileSystem.getPathMatcher("glob:$trimmed"), fileSystem.getPathMatcher("glob:$trimmed/**"))
+    }
+}
@@ -0,0 +1,99 @@
+package ch.riesennet.reforge
+
+import ch.riesennet.reforge.infrastructure.Json
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.TimeUnit
+
+/**
+ * Records timed spans of a run. Spans can be recorded from any thread and nest freely.
+ *
+ * The result can be exported in Chrome trace-event format (load it in `chrome://tracing`
+ * or Perfetto) or aggregated per span name with [summary].
+ */
+class TraceRecorder(private val clock: () -> Long = System::nanoTime) {
+
+    data class Span(
+        val name: String,
+        val category: String,
+        val detail: String?,
+        val startNanos: Long,
+        val durationNanos: Long,
+        val threadId: Long,
+        val threadName: String
+    )
+
+    /**
+     * Aggregate of all spans sharing a name. Nested spans are also counted in their parents.
+     */
+    data class PhaseStats(val name: String, val count: Int, val totalNanos: Long, val maxNanos: Long)
+
+    private val origin = clock()
+    private val spans = ConcurrentLinkedQueue<Span>()
+
+    /**
+     * Runs [block] and records how long it took, also when it throws.
+     */
+    fun <T> span(name: String, category: String, detail: String? = null, block: () -> T): T {
+        val start = clock()
+        try {
+            return block()
+        } finally {
+            val thread = Thread.currentThread()
+            spans.add(Span(name, category, detail, start - origin, clock() - start, thread.threadId(), thread.name))
+        }
+    }
+
+    /**
+     * Records a span measured elsewhere, e.g. time a task waited in a queue.
+     * [startNanos] is a reading of the recorder's clock.
+     */
+    fun record(name: String, category: String, detail: String?, startNanos: Long, durationNanos: Long) {
+        val thread = Thread.currentThread()
+        spans.add(Span(name, category, detail, startNanos - origin, durationNanos, thread.threadId(), thread.name))
+    }
+
+    fun spans(): List<Span> = spans.sortedBy { it.startNanos }
+
+    /**
+     * Per-name totals, most expensive first.
+     */
+    fun summary(): List<PhaseStats> {
+        return spans.groupBy { it.name }
+            .map { (name, group) ->
+                PhaseStats(name, group.size, group.sumOf { it.durationNanos }, group.maxOf { it.durationNanos })
+            }
+            .sortedByDescending { it.totalNanos }
+    }
+
+    /**
+     * Writes all spans as a Chrome trace-event JSON object: one complete (`X`) event per
+     * span plus a `thread_name` metadata event per thread. [metadata] goes into `otherData`.
+     */
+    fun writeChromeTrace(out: Appendable, metadata: Map<String, Any?> = emptyMap()) {
+        val recorded = spans()
+        val threads = recorded.associate { it.threadId to it.threadName }
+        val events = threads.map { (id, name) ->
+            mapOf("name" to "thread_name", "ph" to "M", "pid" to PID, "tid" to id, "args" to mapOf("name" to name))
+        } + recorded.map { span ->
+            val event = linkedMapOf<String, Any?>(
+                "name" to span.name,
+                "cat" to span.category,
+                "ph" to "X",
+                "ts" to TimeUnit.NANOSECONDS.toMicros(span.startNanos),
+                "dur" to TimeUnit.NANOSECONDS.toMicros(span.durationNanos),
+                "pid" to PID,
+                "tid" to span.threadId
+            )
+            if (span.detail != null) event["args"] = mapOf("detail" to span.detail)
+            event
+        }
+        val trace = linkedMapOf<String, Any?>("traceEvents" to events, "displayTimeUnit" to "ms")
+        if (metadata.isNotEmpty()) trace["otherData"] = metadata
+        Json.append(out, trace)
+        out.append('\n')
+    }
+
+    private companion object {
+        const val PID = 1
+    }
+}
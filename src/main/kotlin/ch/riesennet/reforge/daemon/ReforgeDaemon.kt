@@ -0,0 +1,199 @@
+package ch.riesennet.reforge.daemon
+
+import ch.riesennet.reforge.NdjsonResultWriter
+import ch.riesennet.reforge.ProgressReporter
+import ch.riesennet.reforge.ResultListener
+import ch.riesennet.reforge.operation.OperationResult
+import java.io.File
+import java.io.InputStream
+import java.io.OutputStream
+import java.io.OutputStreamWriter
+import java.io.PrintStream
+import java.net.StandardProtocolFamily
+import java.net.UnixDomainSocketAddress
+import java.nio.channels.Channels
+import java.nio.channels.ServerSocketChannel
+import java.nio.file.Files
+import java.nio.file.Path
+import java.security.MessageDigest
+
+/**
+ * Executes a config against the project held open by the daemon, publishing
+ * results through [ProgressReporter.result]. The [options] of the request are
+ * those of a command-line run, e.g. `--dry-run` or `--journal <file>`.
+ */
+fun interface ConfigRunner {
+    fun run(configFile: File, options: List<String>, reporter: ProgressReporter)
+}
+
+/**
+ * Keeps a project open and indexed between refactoring requests so repeat runs
+ * skip IDE startup and the initial indexing pass.
+ *
+ * Requests are single lines:
+ * - `run <config.yaml> [options]` — executes the config with the options of a command-line
+ *   run, tab-separated so paths may contain spaces. Progress lines and one `result` line
+ *   per [OperationResult] are streamed back as they are produced, followed by a final
+ *   `exit <code>` line. With `--output ndjson`, `ndjson` lines carrying the NDJSON records
+ *   replace the `result` lines. A request without tabs is read as `run <config.yaml> [--dry-run]`.
+ * - `ping` — answered with `pong`
+ * - `shutdown` — answered with `bye`, then the daemon stops
+ *
+ * Requests are handled one at a time; refactorings against the same project never overlap.
+ */
+class ReforgeDaemon(private val runner: ConfigRunner) {
+
+    @Volatile
+    private var running = true
+
+    /**
+     * Listens on a Unix domain socket, handling one request per connection.
+     * A stale socket file from a previous daemon is replaced.
+     */
+    fun serveSocket(socketPath: Path) {
+        Files.deleteIfExists(socketPath)
+        val server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)
+        val cleanup = Thread { Files.deleteIfExists(socketPath) }
+        Runtime.getRuntime().addShutdownHook(cleanup)
+
+        server.use {
+            server.bind(UnixDomainSocketAddress.of(socketPath))
+            while (running) {
+                server.accept().use { channel ->
+                    val input = Channels.newInputStream(channel)
+                    val output = Channels.newOutputStream(channel)
+                    val line = input.bufferedReader().readLine() ?: return@use
+                    handle(line, output)
+                }
+            }
+        }
+
+        Files.deleteIfExists(socketPath)
+        Runtime.getRuntime().removeShutdownHook(cleanup)
+    }
+
+    /**
+     * Handles requests line by line until end of input or a `shutdown` request.
+     */
+    fun serveStreams(input: InputStream, output: OutputStream) {
+        val reader = input.bufferedReader()
+        while (running) {
+            val line = reader.readLine() ?: break
+            if (line.isBlank()) continue
+            handle(line, output)
+        }
+    }
+
+    private fun handle(line: String, output: OutputStream) {
+        val out = PrintStream(output, true, Charsets.UTF_8)
+        val request = parseRequest(line)
+
+        when (request) {
+            is Request.Ping -> out.println("pong")
+            is Request.Shutdown -> {
+                running = false
+                out.println("bye")
+            }
+            is Request.Run -> out.println("exit ${execute(request, out)}")
+            is Request.Invalid -> {
+                out.println("Error: ${request.message}")
+                out.println("exit 2")
+            }
+        }
+        out.flush()
+    }
+
+    private fun execute(request: Request.Run, out: PrintStream): Int {
+        val reporter = ProgressReporter(out)
+        if (request.streamsNdjson) {
+            reporter.addResultListener(NdjsonResultWriter(OutputStreamWriter(out, Charsets.UTF_8), prefix = "ndjson\t"))
+        } else {
+            reporter.addResultListener(object : ResultListener {
+                override fun onResult(result: OperationResult) = out.println(formatResult(result))
+            })
+        }
+        return try {
+            runner.run(File(request.configPath), request.options, reporter)
+            if (reporter.hasFailures()) 1 else 0
+        } catch (e: IllegalArgumentException) {
+            out.println("Error: ${e.message}")
+            2
+        } catch (e: Exception) {
+            out.println("Error: ${e.message}")
+            e.printStackTrace()
+            1
+        }
+    }
+
+    internal sealed class Request {
+        data class Run(val configPath: String, val options: List<String> = emptyList()) : Request() {
+            /** Whether NDJSON goes to the client's stdout, i.e. over the connection. */
+            val streamsNdjson: Boolean
+                get() = options.indexOf("--output").let { it >= 0 && options.getOrNull(it + 1) == "ndjson" }
+        }
+        object Ping : Request()
+        object Shutdown : Request()
+        data class Invalid(val message: String) : Request()
+    }
+
+    companion object {
+
+        /**
+         * Socket path used when none is given: one socket per canonical project path,
+         * so the wrapper script can find a running daemon for a project.
+         */
+        fun defaultSocketPath(projectDir: File): Path {
+            val tmpDir = System.getProperty("java.io.tmpdir")
+            return Path.of(tmpDir, "reforge-${projectKey(projectDir)}.sock")
+        }
+
+        /**
+         * Short stable hash of the canonical project path.
+         */
+        fun projectKey(projectDir: File): String {
+            val digest = MessageDigest.getInstance("SHA-256")
+                .digest(projectDir.canonicalPath.toByteArray(Charsets.UTF_8))
+            return digest.joinToString("") { "%02x".format(it) }.take(12)
+        }
+
+        internal fun parseRequest(line: String): Request {
+            val trimmed = line.trim()
+            val fields = if ('\t' in trimmed) trimmed.split('\t') else {
+                // The config path may contain spaces; --dry-run can only trail it
+                val argument = trimmed.substringAfter(' ', "").trim()
+                listOfNotNull(
+                    trimmed.substringBefore(' '),
+                    argument.removeSuffix("--dry-run").trim(),
+                    "--dry-run".takeIf { argument.endsWith(it) }
+                )
+            }
+            return when (val command = fields[0]) {
+                "ping" -> Request.Ping
+                "shutdown" -> Request.Shutdown
+                "run" -> {
+                    val configPath = fields.getOrNull(1).orEmpty().trim()
+                    if (configPath.isEmpty()) {
+                        return Request.Invalid("run requires a config path")
+                    }
+                    Request.Run(configPath, fields.drop(2).filter { it.isNotEmpty() })
+                }
+                else -> Request.Invalid("Unknown request: '$command'")
+            }
+        }
+
+        /**
+         * Tab-separated result line: `result<TAB>status<TAB>action<TAB>source<TAB>target<TAB>error`.
+         */
+        internal fun formatResult(result: OperationResult): String {
+            val fields = listOf(
+                "result",
+                result.status.name,
+                result.action,
+                result.source,
+                result.target,
+                result.error.orEmpty()
+            )
+            return fields.joinToString("\t") { it.replace('\t', ' ').replace('\n', ' ') }
+        }
+    }
+}
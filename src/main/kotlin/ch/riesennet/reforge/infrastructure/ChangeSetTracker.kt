@@ -0,0 +1,154 @@
+package ch.riesennet.reforge.infrastructure
+
+import com.intellij.openapi.Disposable
+import com.intellij.openapi.application.ApplicationManager
+import com.intellij.openapi.components.Service
+import com.intellij.openapi.components.service
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.util.io.FileUtil
+import com.intellij.openapi.vfs.LocalFileSystem
+import com.intellij.openapi.vfs.VfsUtil
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.openapi.vfs.VirtualFileManager
+import com.intellij.openapi.vfs.newvfs.BulkFileListener
+import com.intellij.openapi.vfs.newvfs.events.VFileCopyEvent
+import com.intellij.openapi.vfs.newvfs.events.VFileCreateEvent
+import com.intellij.openapi.vfs.newvfs.events.VFileDeleteEvent
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent
+import com.intellij.openapi.vfs.newvfs.events.VFileMoveEvent
+import com.intellij.openapi.vfs.newvfs.events.VFilePropertyChangeEvent
+
+/**
+ * Records which files and directories operations create, modify or delete, so
+ * [refresh] only has to re-scan those paths instead of the whole VFS tree.
+ *
+ * In-process VFS changes are picked up from VFS events. A full refresh is done only
+ * when an external change may have happened: on first use, after [markExternalChange],
+ * or when a refresh outside of [refresh] reports changes under the project.
+ */
+@Service(Service.Level.PROJECT)
+class ChangeSetTracker(private val project: Project) : Disposable {
+
+    private val lock = Any()
+    private val pending = mutableMapOf<String, Boolean>() // path -> recursive
+    private var externalChange = true
+
+    @Volatile
+    private var refreshing = false
+
+    init {
+        project.messageBus.connect(this).subscribe(VirtualFileManager.VFS_CHANGES, object : BulkFileListener {
+            override fun after(events: List<VFileEvent>) {
+                for (event in events) onEvent(event)
+            }
+        })
+    }
+
+    /**
+     * Records a path to include in the next refresh. Directories whose content was
+     * created wholesale should be recorded as [recursive].
+     */
+    fun record(path: String, recursive: Boolean = false) {
+        if (!isInProject(path)) return
+        synchronized(lock) {
+            pending[path] = pending[path] == true || recursive
+        }
+    }
+
+    /**
+     * Forces the next [refresh] to re-scan the whole VFS, e.g. before serving a
+     * request on a project that may have been edited since the last one.
+     */
+    fun markExternalChange() {
+        synchronized(lock) { externalChange = true }
+    }
+
+    /**
+     * Synchronously refreshes the recorded paths, or the whole VFS if an external
+     * change was detected. Callable from any thread.
+     */
+    fun refresh() {
+        val (full, paths) = synchronized(lock) {
+            val snapshot = externalChange to pending.toMap()
+            externalChange = false
+            pending.clear()
+            snapshot
+        }
+        if (!full && paths.isEmpty()) return
+
+        val app = ApplicationManager.getApplication()
+        if (app.isDispatchThread) {
+            doRefresh(full, paths)
+        } else {
+            app.invokeAndWait { doRefresh(full, paths) }
+        }
+    }
+
+    override fun dispose() {}
+
+    private fun doRefresh(full: Boolean, paths: Map<String, Boolean>) {
+        refreshing = true
+        try {
+            if (full) {
+                VirtualFileManager.getInstance().syncRefresh()
+                return
+            }
+            val (recursive, flat) = paths.entries.partition { it.value }
+            refreshFiles(recursive.map { it.key }, recursive = true)
+            refreshFiles(flat.map { it.key }, recursive = false)
+        } finally {
+            refreshing = false
+        }
+    }
+
+    private fun refreshFiles(paths: List<String>, recursive: Boolean) {
+        val files = paths.mapNotNull { findClosestExisting(it) }.distinct()
+        if (files.isEmpty()) return
+        VfsUtil.markDirtyAndRefresh(false, recursive, true, *files.toTypedArray())
+    }
+
+    /**
+     * A deleted path is refreshed through its closest surviving ancestor.
+     */
+    private fun findClosestExisting(path: String): VirtualFile? {
+        val fileSystem = LocalFileSystem.getInstance()
+        var current: String? = path
+        while (current != null && isInProject(current)) {
+            fileSystem.findFileByPath(current)?.let { return it }
+            current = current.substringBeforeLast('/', "").ifEmpty { null }
+        }
+        return null
+    }
+
+    private fun onEvent(event: VFileEvent) {
+        if (event.isFromRefresh) {
+            // Our own refresh only reports what we recorded; anything else came from outside
+            if (!refreshing && isInProject(event.path)) markExternalChange()
+            return
+        }
+
+        when (event) {
+            is VFileCreateEvent -> record(event.path, recursive = event.isDirectory)
+            is VFileCopyEvent -> record("${event.newParent.path}/${event.newChildName}", recursive = true)
+            is VFileDeleteEvent -> record(event.path.substringBeforeLast('/'))
+            is VFileMoveEvent -> {
+                record(event.oldPath.substringBeforeLast('/'))
+                record(event.newPath, recursive = event.file.isDirectory)
+            }
+            is VFilePropertyChangeEvent -> {
+                record(event.oldPath.substringBeforeLast('/'))
+                record(event.newPath, recursive = event.file.isDirectory)
+            }
+            else -> record(event.path)
+        }
+    }
+
+    private fun isInProject(path: String): Boolean {
+        val basePath = project.basePath ?: return false
+        return FileUtil.isAncestor(basePath, path, false)
+    }
+
+    companion object {
+        fun getInstance(project: Project): ChangeSetTracker = project.service()
+    }
+}
@@ -0,0 +1,194 @@
+package ch.riesennet.reforge.infrastructure
+
+import com.intellij.openapi.Disposable
+import com.intellij.openapi.application.ApplicationManager
+import com.intellij.openapi.components.Service
+import com.intellij.openapi.components.service
+import com.intellij.openapi.externalSystem.service.project.manage.ProjectDataImportListener
+import com.intellij.openapi.project.DumbService
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.roots.ModuleRootEvent
+import com.intellij.openapi.roots.ModuleRootListener
+import com.intellij.openapi.roots.ProjectRootManager
+import java.io.File
+import java.time.Duration
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * Waits for the project to become ready (smart mode, build import) by listening to
+ * dumb mode, root change and import events instead of sleeping for fixed intervals.
+ *
+ * Every wait is bounded by a configurable timeout and recorded with its actual
+ * duration, see [drainWaits].
+ */
+@Service(Service.Level.PROJECT)
+class IndexReadiness(private val project: Project) : Disposable {
+
+    /**
+     * A completed wait: what it was for, how long it took and whether the
+     * condition was met before the timeout.
+     */
+    data class Wait(val reason: String, val duration: Duration, val satisfied: Boolean)
+
+    /** Upper bound for a single wait for smart mode. */
+    @Volatile
+    var smartModeTimeout: Duration = DEFAULT_SMART_MODE_TIMEOUT
+
+    /** Upper bound for waiting on Maven/Gradle import to configure source roots. */
+    @Volatile
+    var importTimeout: Duration = DEFAULT_IMPORT_TIMEOUT
+
+    private val lock = ReentrantLock()
+    private val signals = lock.newCondition()
+    private var generation = 0L
+    private var importEvents = 0L
+    private var importsStarted = 0L
+    private val waits = ConcurrentLinkedQueue<Wait>()
+
+    init {
+        val connection = project.messageBus.connect(this)
+        connection.subscribe(DumbService.DUMB_MODE, object : DumbService.DumbModeListener {
+            override fun exitDumbMode() = signal()
+        })
+        connection.subscribe(ModuleRootListener.TOPIC, object : ModuleRootListener {
+            override fun rootsChanged(event: ModuleRootEvent) = signal(importEvent = true)
+        })
+        connection.subscribe(ProjectDataImportListener.TOPIC, object : ProjectDataImportListener {
+            override fun onImportStarted(projectPath: String?) = signal(importStarted = true)
+            override fun onImportFinished(projectPath: String?) = signal(importEvent = true)
+            override fun onImportFailed(projectPath: String?) = signal(importEvent = true)
+        })
+    }
+
+    /**
+     * Blocks until the project is in smart mode. With [settle], also drains the EDT queue
+     * and re-checks, since an indexing restart is scheduled there right after smart mode
+     * is entered. Must NOT be called from the EDT.
+     *
+     * @throws IllegalStateException if indexing does not finish within [smartModeTimeout]
+     */
+    fun awaitSmartMode(reason: String, settle: Boolean = true) {
+        val dumbService = DumbService.getInstance(project)
+        val started = System.nanoTime()
+        val deadline = started + smartModeTimeout.toNanos()
+
+        while (true) {
+            val seen = currentGeneration()
+            if (dumbService.isDumb) {
+                if (System.nanoTime() >= deadline) {
+                    record(reason, started, satisfied = false)
+                    throw IllegalStateException(
+                        "Indexing did not finish within ${smartModeTimeout.seconds}s ($reason)"
+                    )
+                }
+                awaitSignal(seen, deadline)
+                continue
+            }
+            if (!settle) break
+
+            ApplicationManager.getApplication().invokeAndWait {}
+            if (!dumbService.isDumb) break
+        }
+
+        record(reason, started, satisfied = true)
+    }
+
+    /**
+     * Gives Maven/Gradle import a chance to configure source roots. Returns as soon as
+     * source roots exist, an import finishes or roots change; returns immediately for
+     * projects without a build file. Headless runs often never start an import, so
+     * unless one starts within [IMPORT_START_GRACE] this gives up then; a started import
+     * is waited for up to [importTimeout].
+     */
+    fun awaitProjectImport(reason: String) {
+        val started = System.nanoTime()
+        val deadline = started + importTimeout.toNanos()
+        val graceDeadline = started + minOf(IMPORT_START_GRACE, importTimeout).toNanos()
+        val rootManager = ProjectRootManager.getInstance(project)
+        val (initialImportEvents, initialImportsStarted) = lock.withLock { importEvents to importsStarted }
+
+        if (!hasBuildFile()) {
+            record(reason, started, satisfied = true)
+            return
+        }
+
+        while (rootManager.contentSourceRoots.isEmpty()) {
+            val seen = currentGeneration()
+            val (events, imports) = lock.withLock { importEvents to importsStarted }
+            if (events != initialImportEvents) break
+            val importPending = imports != initialImportsStarted
+            val until = if (importPending) deadline else graceDeadline
+            if (System.nanoTime() >= until) {
+                record(reason, started, satisfied = false)
+                return
+            }
+            awaitSignal(seen, until)
+        }
+
+        record(reason, started, satisfied = true)
+    }
+
+    /**
+     * Returns the waits recorded since the last call and clears them.
+     */
+    fun drainWaits(): List<Wait> {
+        return generateSequence { waits.poll() }.toList()
+    }
+
+    override fun dispose() {
+        signal()
+    }
+
+    private fun hasBuildFile(): Boolean {
+        val basePath = project.basePath ?: return false
+        return BUILD_FILES.any { File(basePath, it).exists() }
+    }
+
+    private fun currentGeneration(): Long = lock.withLock { generation }
+
+    private fun signal(importEvent: Boolean = false, importStarted: Boolean = false) {
+        lock.withLock {
+            generation++
+            if (importEvent) importEvents++
+            if (importStarted) importsStarted++
+            signals.signalAll()
+        }
+    }
+
+    /**
+     * Waits until an event arrives after generation [seen] or the deadline passes.
+     * Wakes up periodically so a condition changed without an event is still noticed.
+     */
+    private fun awaitSignal(seen: Long, deadline: Long) {
+        lock.withLock {
+            if (generation != seen) return
+            val remaining = deadline - System.nanoTime()
+            if (remaining > 0) {
+                signals.awaitNanos(minOf(remaining, RECHECK_INTERVAL_NANOS))
+            }
+        }
+    }
+
+    private fun record(reason: String, started: Long, satisfied: Boolean) {
+        waits.add(Wait(reason, Duration.ofNanos(System.nanoTime() - started), satisfied))
+    }
+
+    companion object {
+        val DEFAULT_SMART_MODE_TIMEOUT: Duration = Duration.ofMinutes(30)
+        val DEFAULT_IMPORT_TIMEOUT: Duration = Duration.ofSeconds(10)
+
+        /** How long to wait for an import to start at all, as the fixed sleep this replaced did. */
+        val IMPORT_START_GRACE: Duration = Duration.ofSeconds(2)
+
+        private val RECHECK_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1)
+
+        private val BUILD_FILES = listOf(
+            "pom.xml", "build.gradle", "build.gradle.kts", "settings.gradle", "settings.gradle.kts"
+        )
+
+        fun getInstance(project: Project): IndexReadiness = project.service()
+    }
+}
@@ -1,9 +1,10 @@
 package ch.riesennet.reforge.infrastructure
 
-import com.intellij.openapi.application.ApplicationManager
+import ch.riesennet.reforge.IndexState
 import com.intellij.openapi.project.DumbService
 import com.intellij.openapi.project.Project
-import com.intellij.openapi.vfs.VirtualFileManager
+import com.intellij.openapi.roots.ProjectRootManager
+import com.intellij.psi.util.PsiModificationTracker
 
 /**
  * Utilities for working with IntelliJ's indexing system in headless mode.
@@ -11,19 +12,27 @@ import com.intellij.openapi.vfs.VirtualFileManager
 object IndexingHelper {
 
     /**
-     * Waits for indexing to complete with VFS refresh and stabilization delay.
+     * Refreshes the VFS and waits until indexing has completed and settled.
      * Must NOT be called from the EDT.
+     *
+     * @param reason Recorded with the wait duration, see [IndexReadiness.drainWaits]
      */
-    fun waitForSmartMode(project: Project) {
+    fun waitForSmartMode(project: Project, reason: String = "index") {
         // Refresh VFS to pick up any file changes before indexing
-        ApplicationManager.getApplication().invokeAndWait {
-            VirtualFileManager.getInstance().syncRefresh()
-        }
-        DumbService.getInstance(project).waitForSmartMode()
-        // Small delay to let the index stabilize after smart mode is entered
-        Thread.sleep(500)
-        // Re-check smart mode in case indexing restarted
-        DumbService.getInstance(project).waitForSmartMode()
+        ChangeSetTracker.getInstance(project).refresh()
+        IndexReadiness.getInstance(project).awaitSmartMode(reason)
+    }
+
+    /**
+     * Current index state. The modification count covers PSI changes, root changes
+     * (e.g. from a build import) and dumb mode transitions.
+     */
+    fun indexState(project: Project): IndexState {
+        val dumbService = DumbService.getInstance(project)
+        val modificationCount = PsiModificationTracker.getInstance(project).modificationCount +
+            ProjectRootManager.getInstance(project).modificationCount +
+            dumbService.modificationTracker.modificationCount
+        return IndexState(dumbService.isDumb, modificationCount)
     }
 
     /**
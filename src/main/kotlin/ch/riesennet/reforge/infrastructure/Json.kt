@@ -0,0 +1,61 @@
+package ch.riesennet.reforge.infrastructure
+
+/**
+ * Minimal JSON serializer for the machine-readable outputs (trace files, result streams).
+ *
+ * Supports maps with string keys, iterables, strings, numbers, booleans and null.
+ * Anything else is written as its string representation.
+ */
+object Json {
+
+    fun write(value: Any?): String = StringBuilder().also { append(it, value) }.toString()
+
+    fun append(out: Appendable, value: Any?) {
+        when (value) {
+            null -> out.append("null")
+            is String -> quote(out, value)
+            is Boolean -> out.append(value.toString())
+            is Double -> out.append(if (value.isFinite()) value.toString() else "null")
+            is Float -> out.append(if (value.isFinite()) value.toString() else "null")
+            is Number -> out.append(value.toString())
+            is Map<*, *> -> {
+                out.append('{')
+                var first = true
+                for ((key, item) in value) {
+                    if (!first) out.append(',')
+                    first = false
+                    quote(out, key.toString())
+                    out.append(':')
+                    append(out, item)
+                }
+                out.append('}')
+            }
+            is Iterable<*> -> {
+                out.append('[')
+                var first = true
+                for (item in value) {
+                    if (!first) out.append(',')
+                    first = false
+                    append(out, item)
+                }
+                out.append(']')
+            }
+            else -> quote(out, value.toString())
+        }
+    }
+
+    private fun quote(out: Appendable, value: String) {
+        out.append('"')
+        for (c in value) {
+            when (c) {
+                '"' -> out.append("\\\"")
+                '\\' -> out.append("\\\\")
+                '\n' -> out.append("\\n")
+                '\r' -> out.append("\\r")
+                '\t' -> out.append("\\t")
+                else -> if (c < ' ') out.append("\\u%04x".format(c.code)) else out.append(c)
+            }
+        }
+        out.append('"')
+    }
+}
@@ -0,0 +1,200 @@
+package ch.riesennet.reforge.infrastructure
+
+/**
+ * Line-based diff for the dry-run previews: Myers' O(ND) difference between two texts,
+ * unified diff output, and a three-way merge of two edits of the same text.
+ */
+object LineDiff {
+
+    /**
+     * Lines `oldStart until oldEnd` of the old text replaced by lines `newStart until newEnd`
+     * of the new one. An empty old range is an insertion, an empty new range a deletion.
+     */
+    data class Change(val oldStart: Int, val oldEnd: Int, val newStart: Int, val newEnd: Int)
+
+    /** Number of unchanged lines shown around each change. */
+    const val CONTEXT = 3
+
+    /**
+     * The changes turning [old] into [new], in order.
+     */
+    fun changes(old: List<String>, new: List<String>): List<Change> {
+        var prefix = 0
+        while (prefix < old.size && prefix < new.size && old[prefix] == new[prefix]) prefix++
+        var suffix = 0
+        while (suffix < old.size - prefix && suffix < new.size - prefix &&
+            old[old.size - 1 - suffix] == new[new.size - 1 - suffix]
+        ) suffix++
+
+        val a = old.subList(prefix, old.size - suffix)
+        val b = new.subList(prefix, new.size - suffix)
+        val deleted = BooleanArray(a.size)
+        val inserted = BooleanArray(b.size)
+        shortestEdit(a, b, deleted, inserted)
+
+        val changes = mutableListOf<Change>()
+        var x = 0
+        var y = 0
+        while (x < a.size || y < b.size) {
+            if (x < a.size && y < b.size && !deleted[x] && !inserted[y]) {
+                x++
+                y++
+                continue
+            }
+            val startX = x
+            val startY = y
+            while (x < a.size && deleted[x]) x++
+            while (y < b.size && inserted[y]) y++
+            changes.add(Change(prefix + startX, prefix + x, prefix + startY, prefix + y))
+        }
+        return changes
+    }
+
+    /**
+     * Marks the lines of [a] deleted and of [b] inserted by a shortest edit script. Keeps
+     * the frontier of every step, only for the diagonals it reached, to backtrack.
+     */
+    private fun shortestEdit(a: List<String>, b: List<String>, deleted: BooleanArray, inserted: BooleanArray) {
+        val n = a.size
+        val m = b.size
+        if (n == 0 || m == 0) {
+            deleted.fill(true)
+            inserted.fill(true)
+            return
+        }
+        val max = n + m
+        val offset = max + 1
+        val v = IntArray(2 * max + 3)
+        val trace = mutableListOf<IntArray>()
+
+        search@ for (d in 0..max) {
+            trace.add(IntArray(2 * d + 3) { v[offset - d - 1 + it] })
+            for (k in -d..d step 2) {
+                var x = if (k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1])) {
+                    v[offset + k + 1]
+                } else {
+                    v[offset + k - 1] + 1
+                }
+                var y = x - k
+                while (x < n && y < m && a[x] == b[y]) {
+                    x++
+                    y++
+                }
+                v[offset + k] = x
+                if (x >= n && y >= m) break@search
+            }
+        }
+
+        var x = n
+        var y = m
+        for (d in trace.lastIndex downTo 1) {
+            val frontier = trace[d]
+            fun at(k: Int) = frontier[k + d + 1]
+            val k = x - y
+            val previousK = if (k == -d || (k != d && at(k - 1) < at(k + 1))) k + 1 else k - 1
+            val previousX = at(previousK)
+            val previousY = previousX - previousK
+            while (x > previousX && y > previousY) {
+                x--
+                y--
+            }
+            if (x == previousX) inserted[previousY] = true else deleted[previousX] = true
+            x = previousX
+            y = previousY
+        }
+    }
+
+    /**
+     * Unified diff of [old] at [oldPath] and [new] at [newPath], empty if they are equal.
+     * A null [old] is a created file.
+     */
+    fun unified(oldPath: String, newPath: String, old: String?, new: String): String {
+        val oldLines = if (old == null) emptyList() else lines(old)
+        val newLines = lines(new)
+        val changes = changes(oldLines, newLines)
+        if (changes.isEmpty() && old != null && oldPath == newPath) return ""
+
+        val out = StringBuilder()
+        out.append("--- ").append(if (old == null) "/dev/null" else "a/$oldPath").append('\n')
+        out.append("+++ ").append("b/$newPath").append('\n')
+
+        var index = 0
+        while (index < changes.size) {
+            // Merge changes whose context would overlap into one hunk
+            var last = index
+            while (last + 1 < changes.size && changes[last + 1].oldStart - changes[last].oldEnd <= 2 * CONTEXT) last++
+            val first = changes[index]
+            val end = changes[last]
+            val oldStart = maxOf(0, first.oldStart - CONTEXT)
+            val oldEnd = minOf(oldLines.size, end.oldEnd + CONTEXT)
+            val newStart = first.newStart - (first.oldStart - oldStart)
+            val newEnd = end.newEnd + (oldEnd - end.oldEnd)
+
+            out.append("@@ -").append(range(oldStart, oldEnd)).append(" +").append(range(newStart, newEnd)).append(" @@\n")
+            var line = oldStart
+            for (change in changes.subList(index, last + 1)) {
+                while (line < change.oldStart) out.append(' ').append(oldLines[line++]).append('\n')
+                for (i in change.oldStart until change.oldEnd) out.append('-').append(oldLines[i]).append('\n')
+                for (i in change.newStart until change.newEnd) out.append('+').append(newLines[i]).append('\n')
+                line = change.oldEnd
+            }
+            while (line < oldEnd) out.append(' ').append(oldLines[line++]).append('\n')
+            index = last + 1
+        }
+        return out.toString()
+    }
+
+    /**
+     * Combines two edits of [base], [ours] and [theirs], or returns null if they change
+     * the same lines differently. Insertions at the same line are kept both, ours first.
+     */
+    fun merge(base: String, ours: String, theirs: String): String? {
+        if (ours == base || ours == theirs) return theirs
+        if (theirs == base) return ours
+
+        val baseLines = base.split('\n')
+        val ourLines = ours.split('\n')
+        val theirLines = theirs.split('\n')
+
+        class Replacement(val start: Int, val end: Int, val lines: MutableList<String>)
+        val replacements = (
+            changes(baseLines, ourLines).map { Replacement(it.oldStart, it.oldEnd, ourLines.subList(it.newStart, it.newEnd).toMutableList()) } +
+                changes(baseLines, theirLines).map { Replacement(it.oldStart, it.oldEnd, theirLines.subList(it.newStart, it.newEnd).toMutableList()) }
+            ).sortedWith(compareBy({ it.start }, { it.end }))
+
+        val combined = mutableListOf<Replacement>()
+        for (replacement in replacements) {
+            val previous = combined.lastOrNull()
+            when {
+                previous == null -> combined.add(replacement)
+                previous.start == replacement.start && previous.end == replacement.end && previous.lines == replacement.lines -> {}
+                previous.start == previous.end && replacement.start == replacement.end && previous.start == replacement.start ->
+                    previous.lines.addAll(replacement.lines)
+                previous.end <= replacement.start -> combined.add(replacement)
+                else -> return null
+            }
+        }
+
+        val merged = mutableListOf<String>()
+        var line = 0
+        for (replacement in combined) {
+            merged.addAll(baseLines.subList(line, replacement.start))
+            merged.addAll(replacement.lines)
+            line = replacement.end
+        }
+        merged.addAll(baseLines.subList(line, baseLines.size))
+        return merged.joinToString("\n")
+    }
+
+    /** Lines of [text], without the empty line after a final newline. */
+    private fun lines(text: String): List<String> {
+        if (text.isEmpty()) return emptyList()
+        return text.removeSuffix("\n").split('\n')
+    }
+
+    /** `start,count` of a unified diff range; an empty range names the line before it. */
+    private fun range(start: Int, end: Int): String {
+        val count = end - start
+        return if (count == 0) "$start,0" else "${start + 1},$count"
+    }
+}
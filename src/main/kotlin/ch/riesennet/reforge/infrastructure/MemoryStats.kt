@@ -0,0 +1,22 @@
+package ch.riesennet.reforge.infrastructure
+
+import java.lang.management.ManagementFactory
+import java.lang.management.MemoryType
+
+/**
+ * JVM memory figures reported at the end of a run.
+ */
+object MemoryStats {
+
+    /**
+     * Peak heap usage since JVM start, summed over the heap pools. Pools peak at
+     * different times, so this is an upper bound of the actual peak.
+     */
+    fun peakHeapBytes(): Long {
+        return ManagementFactory.getMemoryPoolMXBeans()
+            .filter { it.type == MemoryType.HEAP }
+            .sumOf { it.peakUsage?.used ?: 0L }
+    }
+
+    fun peakHeapMegabytes(): Long = peakHeapBytes() / (1024 * 1024)
+}
@@ -0,0 +1,141 @@
+package ch.riesennet.reforge.infrastructure
+
+import com.intellij.openapi.Disposable
+import com.intellij.openapi.application.ApplicationManager
+import com.intellij.openapi.application.ReadAction
+import com.intellij.openapi.command.WriteCommandAction
+import com.intellij.openapi.components.Service
+import com.intellij.openapi.components.service
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.roots.ProjectRootManager
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.openapi.vfs.VirtualFileManager
+import com.intellij.openapi.vfs.newvfs.BulkFileListener
+import com.intellij.openapi.vfs.newvfs.events.VFileDeleteEvent
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent
+import com.intellij.openapi.vfs.newvfs.events.VFileMoveEvent
+import com.intellij.openapi.vfs.newvfs.events.VFilePropertyChangeEvent
+import com.intellij.psi.PsiDirectory
+import com.intellij.psi.PsiManager
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Caches the directory of a package per source root, creating missing directories on
+ * first use. [prepare] creates the directories of a whole batch in one write command,
+ * so the moves themselves only look them up.
+ *
+ * Entries are dropped once VFS events show their directory, or one of its parents,
+ * was deleted, moved or renamed.
+ */
+@Service(Service.Level.PROJECT)
+class PackageDirectories(private val project: Project) : Disposable {
+
+    private data class Key(val sourceRoot: String, val packageName: String) {
+        val path: String
+            get() = if (packageName.isEmpty()) sourceRoot else "$sourceRoot/${packageName.replace('.', '/')}"
+    }
+
+    private val directories = ConcurrentHashMap<Key, PsiDirectory>()
+
+    init {
+        project.messageBus.connect(this).subscribe(VirtualFileManager.VFS_CHANGES, object : BulkFileListener {
+            override fun after(events: List<VFileEvent>) {
+                if (events.any { affectsDirectories(it) }) prune()
+            }
+        })
+    }
+
+    /**
+     * Creates the directories of all [targets] (source root, or null for the first
+     * source root, and package name) that are not cached yet, in one write command.
+     * Must NOT be called from the EDT.
+     *
+     * @return the number of directories looked up or created
+     */
+    fun prepare(targets: Collection<Pair<VirtualFile?, String>>): Int {
+        // Checking a cached directory reads PSI and the project's source roots
+        val missing = ReadAction.compute<List<Pair<VirtualFile?, String>>, Exception> {
+            targets.distinct().filter { (sourceRoot, packageName) -> cached(resolveRoot(sourceRoot), packageName) == null }
+        }
+        if (missing.isEmpty()) return 0
+
+        ApplicationManager.getApplication().invokeAndWait {
+            WriteCommandAction.writeCommandAction(project).withName("Create target packages").run<Exception> {
+                for ((sourceRoot, packageName) in missing) {
+                    getOrCreate(sourceRoot, packageName)
+                }
+            }
+            VfsHelper.syncRefresh(project)
+        }
+        return missing.size
+    }
+
+    /**
+     * The cached directory of [packageName] in [sourceRoot] (or the first source root),
+     * or one created in its own write command. Must be called on the EDT.
+     */
+    fun get(sourceRoot: VirtualFile?, packageName: String): PsiDirectory {
+        cached(resolveRoot(sourceRoot), packageName)?.let { return it }
+        val directory = WriteCommandAction.writeCommandAction(project).compute<PsiDirectory, Exception> {
+            getOrCreate(sourceRoot, packageName)
+        }
+        VfsHelper.syncRefresh(project)
+        return directory
+    }
+
+    /**
+     * The directory of [packageName] in [sourceRoot] (or the first source root),
+     * creating it if needed. Must be called in a write action unless the directory
+     * was [prepare]d.
+     */
+    fun getOrCreate(sourceRoot: VirtualFile?, packageName: String): PsiDirectory {
+        val root = resolveRoot(sourceRoot)
+        cached(root, packageName)?.let { return it }
+
+        val baseDir = PsiManager.getInstance(project).findDirectory(root)
+            ?: throw IllegalStateException("Cannot find PsiDirectory for source root: ${root.path}")
+
+        var currentDir = baseDir
+        for (segment in packageName.split(".").filter { it.isNotEmpty() }) {
+            val subDir = currentDir.findSubdirectory(segment)
+            currentDir = subDir ?: currentDir.createSubdirectory(segment)
+        }
+
+        directories[Key(root.path, packageName)] = currentDir
+        return currentDir
+    }
+
+    override fun dispose() {}
+
+    private fun cached(root: VirtualFile, packageName: String): PsiDirectory? {
+        val key = Key(root.path, packageName)
+        val directory = directories[key] ?: return null
+        if (isCurrent(key, directory)) return directory
+        directories.remove(key, directory)
+        return null
+    }
+
+    private fun resolveRoot(sourceRoot: VirtualFile?): VirtualFile {
+        if (sourceRoot != null) return sourceRoot
+        return ProjectRootManager.getInstance(project).contentSourceRoots.firstOrNull()
+            ?: throw IllegalStateException("No source roots found in project")
+    }
+
+    private fun isCurrent(key: Key, directory: PsiDirectory): Boolean {
+        return directory.isValid && directory.virtualFile.path == key.path
+    }
+
+    private fun affectsDirectories(event: VFileEvent): Boolean {
+        return event is VFileDeleteEvent || event is VFileMoveEvent ||
+            (event is VFilePropertyChangeEvent && event.isRename)
+    }
+
+    /** Drops entries whose directory was deleted or no longer sits where its key says. */
+    private fun prune() {
+        directories.entries.removeIf { (key, directory) -> !isCurrent(key, directory) }
+    }
+
+    companion object {
+        fun getInstance(project: Project): PackageDirectories = project.service()
+    }
+}
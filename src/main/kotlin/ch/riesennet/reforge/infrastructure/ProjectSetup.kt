@@ -7,7 +7,6 @@ import com.intellij.openapi.project.Project
 import com.intellij.openapi.roots.ModuleRootManager
 import com.intellij.openapi.roots.ProjectRootManager
 import com.intellij.openapi.vfs.LocalFileSystem
-import com.intellij.openapi.vfs.VirtualFileManager
 import ch.riesennet.reforge.ProgressReporter
 
 /**
@@ -53,10 +52,8 @@ object ProjectSetup {
      */
     fun ensureSourceRoots(project: Project, reporter: ProgressReporter) {
         // Give auto-import a chance to run first
-        Thread.sleep(2000)
-        ApplicationManager.getApplication().invokeAndWait {
-            VirtualFileManager.getInstance().syncRefresh()
-        }
+        IndexReadiness.getInstance(project).awaitProjectImport("project import")
+        ChangeSetTracker.getInstance(project).refresh()
 
         val rootManager = ProjectRootManager.getInstance(project)
         if (rootManager.contentSourceRoots.isNotEmpty()) {
@@ -0,0 +1,12 @@
+package ch.riesennet.reforge.infrastructure
+
+import java.util.concurrent.TimeUnit
+
+/**
+ * Wall-time measurement for results and summaries, based on [System.nanoTime].
+ */
+object Timing {
+
+    /** Milliseconds elapsed since [started], a [System.nanoTime] reading. */
+    fun elapsedMillis(started: Long): Long = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started)
+}
@@ -0,0 +1,178 @@
+package ch.riesennet.reforge.infrastructure
+
+import ch.riesennet.reforge.ProgressReporter
+import com.intellij.openapi.Disposable
+import com.intellij.openapi.application.ApplicationManager
+import com.intellij.openapi.command.WriteCommandAction
+import com.intellij.openapi.editor.Document
+import com.intellij.openapi.editor.EditorFactory
+import com.intellij.openapi.editor.event.DocumentEvent
+import com.intellij.openapi.editor.event.DocumentListener
+import com.intellij.openapi.fileEditor.FileDocumentManager
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.util.Disposer
+import com.intellij.openapi.util.io.FileUtil
+import com.intellij.openapi.vfs.VfsUtil
+import com.intellij.openapi.vfs.VfsUtilCore
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.openapi.vfs.VirtualFileManager
+import com.intellij.openapi.vfs.VirtualFileVisitor
+import com.intellij.openapi.vfs.newvfs.BulkFileListener
+import com.intellij.openapi.vfs.newvfs.events.VFileContentChangeEvent
+import com.intellij.openapi.vfs.newvfs.events.VFileCopyEvent
+import com.intellij.openapi.vfs.newvfs.events.VFileCreateEvent
+import com.intellij.openapi.vfs.newvfs.events.VFileDeleteEvent
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent
+import com.intellij.openapi.vfs.newvfs.events.VFileMoveEvent
+import com.intellij.openapi.vfs.newvfs.events.VFilePropertyChangeEvent
+
+/**
+ * Records the changes of a transactional run so they can be undone as a whole.
+ *
+ * Documents are snapshotted before their first change. VFS changes under the project
+ * (creations, moves, renames, deletions and content writes) are logged, because moves
+ * and created files go to disk immediately (see [UndoLog]). [commit] saves all documents
+ * once; [rollback] undoes the log in reverse, restores the document snapshots and saves.
+ */
+class Transaction private constructor(private val project: Project) : Disposable {
+
+    private val lock = Any()
+    private val log = UndoLog<VirtualFile>()
+    private val snapshots = LinkedHashMap<Document, CharSequence>()
+
+    private fun start() {
+        EditorFactory.getInstance().eventMulticaster.addDocumentListener(object : DocumentListener {
+            override fun beforeDocumentChange(event: DocumentEvent) {
+                synchronized(lock) { snapshots.putIfAbsent(event.document, event.document.immutableCharSequence) }
+            }
+        }, this)
+        project.messageBus.connect(this).subscribe(VirtualFileManager.VFS_CHANGES, object : BulkFileListener {
+            override fun before(events: List<VFileEvent>) {
+                for (event in events) if (isTracked(event)) before(event)
+            }
+
+            override fun after(events: List<VFileEvent>) {
+                for (event in events) if (isTracked(event)) after(event)
+            }
+        })
+    }
+
+    /** Number of documents changed so far. */
+    val documentCount: Int
+        get() = synchronized(lock) { snapshots.size }
+
+    /**
+     * Stops recording and saves all documents. Must NOT be called from the EDT.
+     */
+    fun commit() {
+        Disposer.dispose(this)
+        VfsHelper.saveAllAndSync(project)
+    }
+
+    /**
+     * Stops recording and undoes every recorded change, reporting changes that cannot be
+     * undone to [reporter]. Must NOT be called from the EDT.
+     *
+     * @return the number of changes undone
+     */
+    fun rollback(reporter: ProgressReporter): Int {
+        Disposer.dispose(this)
+        val undoOrder = log.undoOrder()
+        val documents = synchronized(lock) { snapshots.toMap() }
+        ApplicationManager.getApplication().invokeAndWait {
+            WriteCommandAction.writeCommandAction(project).withName("Roll back").run<Exception> {
+                for (change in undoOrder) {
+                    try {
+                        undo(change)
+                    } catch (e: Exception) {
+                        reporter.info("  Warning: could not undo ${describe(change)} (${e.message})")
+                    }
+                }
+                for ((document, text) in documents) {
+                    val file = FileDocumentManager.getInstance().getFile(document)
+                    if (file != null && file.isValid && document.isWritable) document.setText(text)
+                }
+            }
+        }
+        VfsHelper.saveAllAndSync(project)
+        return undoOrder.size + documents.size
+    }
+
+    override fun dispose() {}
+
+    private fun before(event: VFileEvent) {
+        when (event) {
+            is VFileMoveEvent -> log.moved(event.file, event.oldParent)
+            is VFilePropertyChangeEvent -> if (event.propertyName == VirtualFile.PROP_NAME) {
+                log.renamed(event.file, event.oldValue as String)
+            }
+            is VFileDeleteEvent -> logDeletion(event.file)
+            is VFileContentChangeEvent -> log.contentChanged(event.file) { event.file.contentsToByteArray() }
+        }
+    }
+
+    private fun after(event: VFileEvent) {
+        val file = when (event) {
+            is VFileCreateEvent -> event.file
+            is VFileCopyEvent -> event.findCreatedFile()
+            else -> null
+        } ?: return
+        log.created(file)
+    }
+
+    /** Logs a deleted file with its content, or a deleted directory with everything below it. */
+    private fun logDeletion(file: VirtualFile) {
+        val entries = mutableListOf<Pair<String, ByteArray?>>()
+        VfsUtilCore.visitChildrenRecursively(file, object : VirtualFileVisitor<Any>() {
+            override fun visitFile(visited: VirtualFile): Boolean {
+                entries.add(visited.path to if (visited.isDirectory) null else visited.contentsToByteArray())
+                return true
+            }
+        })
+        log.deleted(entries)
+    }
+
+    private fun undo(change: UndoLog.Change<VirtualFile>) {
+        when (change) {
+            is UndoLog.Change.Created -> if (change.file.isValid) change.file.delete(this)
+            is UndoLog.Change.Moved -> if (change.file.isValid && change.oldParent.isValid) change.file.move(this, change.oldParent)
+            is UndoLog.Change.Renamed -> if (change.file.isValid) change.file.rename(this, change.oldName)
+            is UndoLog.Change.ContentChanged -> if (change.file.isValid) change.file.setBinaryContent(change.content)
+            is UndoLog.Change.Deleted -> for ((path, content) in change.entries) {
+                val parent = VfsUtil.createDirectoryIfMissing(path.substringBeforeLast('/'))
+                    ?: throw IllegalStateException("Cannot create ${path.substringBeforeLast('/')}")
+                val name = path.substringAfterLast('/')
+                if (content == null) {
+                    parent.findChild(name) ?: parent.createChildDirectory(this, name)
+                } else {
+                    (parent.findChild(name) ?: parent.createChildData(this, name)).setBinaryContent(content)
+                }
+            }
+        }
+    }
+
+    private fun describe(change: UndoLog.Change<VirtualFile>): String = when (change) {
+        is UndoLog.Change.Created -> "creation of ${change.file.path}"
+        is UndoLog.Change.Moved -> "move of ${change.file.path}"
+        is UndoLog.Change.Renamed -> "rename of ${change.file.path}"
+        is UndoLog.Change.ContentChanged -> "write to ${change.file.path}"
+        is UndoLog.Change.Deleted -> "deletion of ${change.entries.first().first}"
+    }
+
+    private fun isTracked(event: VFileEvent): Boolean {
+        if (event.isFromRefresh) return false
+        val basePath = project.basePath ?: return false
+        return FileUtil.isAncestor(basePath, event.path, false) &&
+            !FileUtil.isAncestor("$basePath/.idea", event.path, false)
+    }
+
+    companion object {
+        /** Starts recording the changes made to [project]. */
+        fun begin(project: Project): Transaction {
+            val transaction = Transaction(project)
+            Disposer.register(project, transaction)
+            transaction.start()
+            return transaction
+        }
+    }
+}
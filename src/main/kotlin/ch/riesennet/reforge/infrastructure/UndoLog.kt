@@ -0,0 +1,61 @@
+package ch.riesennet.reforge.infrastructure
+
+/**
+ * The file changes of a [Transaction] in the order they happened, generic over the file
+ * handle [F]. [undoOrder] yields them in the order they have to be undone: latest first,
+ * so a file moved and then changed is restored in place before it moves back.
+ *
+ * Content writes to a file created within the log are not recorded, since undoing the
+ * creation deletes the file. A deleted directory is recorded with everything below it,
+ * parents first, so undoing it recreates the tree top-down.
+ */
+internal class UndoLog<F> {
+
+    sealed class Change<F> {
+        class Created<F>(val file: F) : Change<F>()
+        class Moved<F>(val file: F, val oldParent: F) : Change<F>()
+        class Renamed<F>(val file: F, val oldName: String) : Change<F>()
+        class ContentChanged<F>(val file: F, val content: ByteArray) : Change<F>()
+
+        /** A deleted file or tree: paths with their content, null for directories, parents first. */
+        class Deleted<F>(val entries: List<Pair<String, ByteArray?>>) : Change<F>()
+    }
+
+    private val changes = mutableListOf<Change<F>>()
+    private val created = mutableSetOf<F>()
+
+    val size: Int
+        @Synchronized get() = changes.size
+
+    @Synchronized
+    fun created(file: F) {
+        created.add(file)
+        changes.add(Change.Created(file))
+    }
+
+    @Synchronized
+    fun moved(file: F, oldParent: F) {
+        changes.add(Change.Moved(file, oldParent))
+    }
+
+    @Synchronized
+    fun renamed(file: F, oldName: String) {
+        changes.add(Change.Renamed(file, oldName))
+    }
+
+    /** Records the [content] of [file] before a write, read only if the write needs undoing. */
+    fun contentChanged(file: F, content: () -> ByteArray) {
+        if (synchronized(this) { file in created }) return
+        val before = content()
+        synchronized(this) { changes.add(Change.ContentChanged(file, before)) }
+    }
+
+    /** Records a deletion of [entries], a file or a directory and everything below it, parents first. */
+    @Synchronized
+    fun deleted(entries: List<Pair<String, ByteArray?>>) {
+        if (entries.isNotEmpty()) changes.add(Change.Deleted(entries))
+    }
+
+    @Synchronized
+    fun undoOrder(): List<Change<F>> = changes.asReversed().toList()
+}
@@ -2,7 +2,8 @@ package ch.riesennet.reforge.infrastructure
 
 import com.intellij.openapi.application.ApplicationManager
 import com.intellij.openapi.fileEditor.FileDocumentManager
-import com.intellij.openapi.vfs.VirtualFileManager
+import com.intellij.openapi.project.Project
+import com.intellij.psi.PsiDocumentManager
 
 /**
  * Utilities for VFS synchronization and document saving.
@@ -10,23 +11,32 @@ import com.intellij.openapi.vfs.VirtualFileManager
 object VfsHelper {
 
     /**
-     * Synchronously refreshes the VFS to flush changes to/from disk.
+     * Synchronously refreshes the paths changed since the last refresh, see [ChangeSetTracker].
+     * Callable from any thread.
+     */
+    fun syncRefresh(project: Project) {
+        ChangeSetTracker.getInstance(project).refresh()
+    }
+
+    /**
+     * Commits all documents to PSI without saving them, for runs that save once at the end.
      * Must be called from a non-EDT thread (wraps in invokeAndWait).
      */
-    fun syncRefresh() {
+    fun commitAll(project: Project) {
         ApplicationManager.getApplication().invokeAndWait {
-            VirtualFileManager.getInstance().syncRefresh()
+            PsiDocumentManager.getInstance(project).commitAllDocuments()
+            ChangeSetTracker.getInstance(project).refresh()
         }
     }
 
     /**
-     * Saves all in-memory documents and syncs VFS.
+     * Saves all in-memory documents and syncs the changed paths.
      * Must be called from a non-EDT thread (wraps in invokeAndWait).
      */
-    fun saveAllAndSync() {
+    fun saveAllAndSync(project: Project) {
         ApplicationManager.getApplication().invokeAndWait {
             FileDocumentManager.getInstance().saveAllDocuments()
-            VirtualFileManager.getInstance().syncRefresh()
+            ChangeSetTracker.getInstance(project).refresh()
         }
     }
 }
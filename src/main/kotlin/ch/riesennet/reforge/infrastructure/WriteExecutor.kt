@@ -0,0 +1,86 @@
+package ch.riesennet.reforge.infrastructure
+
+import ch.riesennet.reforge.ProgressReporter
+import com.intellij.openapi.application.ApplicationManager
+import com.intellij.openapi.application.WriteAction
+import com.intellij.openapi.command.CommandProcessor
+import com.intellij.openapi.command.WriteCommandAction
+import com.intellij.openapi.components.Service
+import com.intellij.openapi.components.service
+import com.intellij.openapi.project.Project
+import java.util.concurrent.TimeUnit
+
+/**
+ * Runs the write work of a batch on the EDT in chunks: one EDT hand-off, one write
+ * command and one VFS refresh per [chunkSize] items instead of per item.
+ *
+ * Each chunk starts in smart mode. In headless mode chunks run as undo-transparent
+ * actions, so no undo history is recorded. Each chunk is traced as `edt queue` (time
+ * waiting for the EDT) and `write chunk` (time executing).
+ */
+@Service(Service.Level.PROJECT)
+class WriteExecutor(private val project: Project) {
+
+    /** Items per EDT hand-off and write command. */
+    @Volatile
+    var chunkSize: Int = DEFAULT_CHUNK_SIZE
+
+    /**
+     * Runs [action] for every item. Actions run on the EDT inside a write action and
+     * should report their own failures; an exception escaping one item is logged and
+     * does not stop the rest of its chunk. Must NOT be called from the EDT.
+     */
+    fun <T> runChunked(items: List<T>, name: String, reporter: ProgressReporter, action: (T) -> Unit) {
+        if (items.isEmpty()) return
+        val chunks = items.chunked(chunkSize.coerceAtLeast(1))
+        var queueNanos = 0L
+        var executionNanos = 0L
+
+        for ((index, chunk) in chunks.withIndex()) {
+            val detail = "$name chunk ${index + 1}/${chunks.size} (${chunk.size} items)"
+            // Writes of the previous chunk may have started indexing
+            IndexReadiness.getInstance(project).awaitSmartMode(detail, settle = false)
+            val submitted = System.nanoTime()
+            ApplicationManager.getApplication().invokeAndWait {
+                val started = System.nanoTime()
+                reporter.trace.record("edt queue", "write", detail, submitted, started - submitted)
+                queueNanos += started - submitted
+                reporter.span("write chunk", "write", detail) {
+                    runWrite(name) {
+                        for (item in chunk) {
+                            try {
+                                action(item)
+                            } catch (e: Exception) {
+                                reporter.info("  Warning: $name failed for $item (${e.message})")
+                            }
+                        }
+                    }
+                    VfsHelper.syncRefresh(project)
+                }
+                executionNanos += System.nanoTime() - started
+            }
+        }
+
+        reporter.info(
+            "  $name: ${items.size} item(s) in ${chunks.size} chunk(s), " +
+                "EDT queue ${TimeUnit.NANOSECONDS.toMillis(queueNanos)} ms, " +
+                "execution ${TimeUnit.NANOSECONDS.toMillis(executionNanos)} ms"
+        )
+    }
+
+    private fun runWrite(name: String, block: () -> Unit) {
+        if (ApplicationManager.getApplication().isHeadlessEnvironment) {
+            CommandProcessor.getInstance().runUndoTransparentAction {
+                WriteAction.run<Exception> { block() }
+            }
+        } else {
+            WriteCommandAction.writeCommandAction(project).withName(name).run<Exception> { block() }
+        }
+    }
+
+    companion object {
+        const val DEFAULT_CHUNK_SIZE = 50
+
+        fun getInstance(project: Project): WriteExecutor = project.service()
+    }
+}
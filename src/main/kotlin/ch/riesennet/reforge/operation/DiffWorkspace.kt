@@ -0,0 +1,99 @@
+package ch.riesennet.reforge.operation
+
+import ch.riesennet.reforge.infrastructure.LineDiff
+
+/**
+ * An edit a dry run would make to the file at [path]: its text [before] and [after].
+ * A null [before] creates the file; a [newPath] other than [path] moves it.
+ */
+data class FileEdit(val path: String, val before: String?, val after: String, val newPath: String = path)
+
+/**
+ * A replacement of the text range `start until end` of a file.
+ */
+data class TextEdit(val start: Int, val end: Int, val replacement: String) {
+
+    companion object {
+        /** Applies [edits] to [text]; edits overlapping an earlier one are dropped. */
+        fun apply(text: String, edits: List<TextEdit>): String {
+            val out = StringBuilder()
+            var position = 0
+            for (edit in edits.sortedWith(compareBy({ it.start }, { it.end }))) {
+                if (edit.start < position) continue
+                out.append(text, position, edit.start).append(edit.replacement)
+                position = edit.end
+            }
+            return out.append(text, position, text.length).toString()
+        }
+    }
+}
+
+/**
+ * The files a diff dry run would change, held in memory only.
+ *
+ * Operations preview their edits against the files as they are on disk, concurrently
+ * (see [DiffPreview]). Edits of a file are merged line by line, so independent
+ * operations may edit different parts of the same file; edits of the same lines conflict.
+ * Files with approximate edits (see [Preview.approximate]) are counted by [approximateFiles].
+ */
+class DiffWorkspace {
+
+    private class State(val path: String, val original: String?, var text: String, var newPath: String) {
+        var approximate = false
+
+        val changed: Boolean
+            get() = original != text || newPath != path
+    }
+
+    private val files = LinkedHashMap<String, State>()
+
+    /**
+     * Merges [edits], all or none of them, marking their files if the edits are [approximate].
+     *
+     * @return the paths whose edits conflict with earlier ones, empty if they were merged
+     */
+    @Synchronized
+    fun apply(edits: List<FileEdit>, approximate: Boolean = false): List<String> {
+        val merged = mutableListOf<Pair<FileEdit, String>>()
+        val conflicts = mutableListOf<String>()
+        for (edit in edits) {
+            val state = files[edit.path]
+            val text = when {
+                state == null -> edit.after
+                edit.before == null -> null
+                else -> LineDiff.merge(edit.before, state.text, edit.after)
+            }
+            val moved = state != null && state.newPath != state.path && edit.newPath != edit.path && state.newPath != edit.newPath
+            if (text == null || moved) conflicts.add(edit.path) else merged.add(edit to text)
+        }
+        if (conflicts.isNotEmpty()) return conflicts
+
+        for ((edit, text) in merged) {
+            val state = files.getOrPut(edit.path) { State(edit.path, edit.before, text, edit.newPath) }
+            state.text = text
+            if (edit.newPath != edit.path) state.newPath = edit.newPath
+            if (approximate) state.approximate = true
+        }
+        return emptyList()
+    }
+
+    /** Number of files that would change. */
+    @Synchronized
+    fun changedFiles(): Int = files.values.count { it.changed }
+
+    /** Number of changed files with approximate edits. */
+    @Synchronized
+    fun approximateFiles(): Int = files.values.count { it.changed && it.approximate }
+
+    /**
+     * Unified diff of every file that would change, by path, with paths relative to
+     * [basePath] where they are below it.
+     */
+    @Synchronized
+    fun unifiedDiff(basePath: String?): String {
+        fun relative(path: String) = if (basePath != null && path.startsWith("$basePath/")) path.removePrefix("$basePath/") else path
+        return files.values.sortedBy { it.path }.joinToString("") { state ->
+            LineDiff.unified(relative(state.path), relative(state.newPath), state.original, state.text)
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package ch.riesennet.reforge.operation
+
+/**
+ * The classes and packages an operation reads or writes, as qualified name prefixes:
+ * `com.example.Task` covers that class (and any class whose name starts with it),
+ * `com.example.` covers the package and its subpackages.
+ *
+ * Only the names an operation is configured with count. References from other classes
+ * are rewritten by the refactorings themselves, so they do not order operations.
+ */
+data class Footprint(val prefixes: Set<String>) {
+
+    /**
+     * True if a name covered by this footprint may also be covered by [other]. Prefixes
+     * are compared as plain strings, so `com.example.Task` also overlaps `com.example.TaskService`.
+     */
+    fun overlaps(other: Footprint): Boolean {
+        return prefixes.any { mine -> other.prefixes.any { mine.startsWith(it) || it.startsWith(mine) } }
+    }
+
+    companion object {
+        /** Overlaps every footprint: the operation is kept in place relative to all others. */
+        val EVERYTHING = Footprint(setOf(""))
+
+        fun of(vararg prefixes: String): Footprint = Footprint(prefixes.toSet())
+    }
+}
@@ -7,8 +7,8 @@ import com.intellij.openapi.project.Project
  * Interface for refactoring operations.
  *
  * Each operation type (move, extract-interface, replace-dependency) implements this
- * interface with its own resolve/execute logic. The orchestrator groups consecutive
- * same-type operations into batches and calls [execute] once per batch.
+ * interface with its own resolve/execute logic. The orchestrator merges same-type
+ * operations into batches with [OperationPlanner] and calls [execute] once per batch.
  */
 interface Operation {
     val type: String
@@ -18,15 +18,79 @@ interface Operation {
      */
     fun parseSpec(raw: Map<String, Any>): OperationSpec
 
+    /**
+     * Classes and packages [spec] reads or writes, used to reorder independent operations.
+     * Defaults to [Footprint.EVERYTHING], which keeps the operation in config order.
+     */
+    fun footprint(spec: OperationSpec): Footprint = Footprint.EVERYTHING
+
+    /**
+     * Short name of [spec] for results that cover the whole spec rather than one of its
+     * actions, e.g. a spec skipped or failing before it resolved anything. Defaults to
+     * the spec's string form.
+     */
+    fun label(spec: OperationSpec): String = spec.toString()
+
+    /**
+     * Whether the effect of a successful [result] from an earlier run is still in place,
+     * so a resumed run can skip it. Called in a read action. Defaults to false, which
+     * re-runs the batch.
+     */
+    fun isApplied(project: Project, result: OperationResult, scope: OperationScope): Boolean = false
+
+    /**
+     * The part of [spec] a resumed run still has to execute, given the [recorded] results
+     * of its batch and those of them confirmed by [isApplied]; null if nothing is left.
+     * Defaults to null if every recorded result of the spec's [label] is applied.
+     */
+    fun withoutApplied(spec: OperationSpec, recorded: List<OperationResult>, applied: List<OperationResult>): OperationSpec? {
+        val own = recorded.filter { it.source == label(spec) }
+        return if (own.isNotEmpty() && own.all { it in applied }) null else spec
+    }
+
+    /**
+     * Checks which parts of [spec] already hold, so repeated runs of a growing config only
+     * execute the rest. Called in a read action, concurrently for the specs of a batch (see
+     * [PreCheck]). Defaults to [PreCheckResult.pending], which executes the whole spec.
+     */
+    fun preCheck(project: Project, spec: OperationSpec, scope: OperationScope): PreCheckResult = PreCheckResult.pending(spec)
+
+    /**
+     * Resolves [spec] for `reforge plan` without changing anything: the files it edits
+     * and, for patterns, the classes they match and the usages of those. Called in smart
+     * mode, outside read actions. Defaults to an empty [PlanEntry].
+     */
+    fun plan(project: Project, spec: OperationSpec, scope: OperationScope, reporter: ProgressReporter): PlanEntry = PlanEntry()
+
+    /**
+     * The spec `reforge apply` executes in place of [spec], given an [entry] whose files
+     * are unchanged since the plan; classes whose files changed have null usages.
+     * Defaults to [spec].
+     */
+    fun fromPlan(spec: OperationSpec, entry: PlanEntry): OperationSpec = spec
+
+    /**
+     * Computes the edits [spec] would make, on in-memory copies of the affected files,
+     * for a diff dry run. Writes nothing to documents, the VFS or disk. Called in smart
+     * mode, outside read actions, concurrently for the specs of a batch (see
+     * [DiffPreview]). Defaults to no edits and no actions.
+     */
+    fun preview(project: Project, spec: OperationSpec, scope: OperationScope, reporter: ProgressReporter): Preview =
+        Preview(emptyList(), emptyList())
+
     /**
      * Execute a batch of specs of this type.
-     * Called with all consecutive specs of the same type grouped together.
-     * Returns results for each individual action taken.
+     * Called with the specs of one planned batch (see [OperationPlanner]): independent
+     * specs of this type, in config order, which need not be consecutive in the config.
+     * Returns results for each individual action taken; each result is also
+     * published through [ProgressReporter.result] as soon as it is known.
+     * Classes are resolved and usages searched within [scope].
      */
     fun execute(
         project: Project,
         specs: List<OperationSpec>,
         reporter: ProgressReporter,
-        dryRun: Boolean
+        dryRun: Boolean,
+        scope: OperationScope
     ): List<OperationResult>
 }
@@ -0,0 +1,104 @@
+package ch.riesennet.reforge.operation
+
+import java.util.TreeMap
+
+/**
+ * An operation of the config with its parsed spec and [Footprint], at [index] in the config.
+ */
+data class PlannedOperation(
+    val index: Int,
+    val type: String,
+    val spec: OperationSpec,
+    val footprint: Footprint
+)
+
+/**
+ * A batch of same-type operations, executed by one [Operation.execute] call.
+ */
+data class Batch(val type: String, val operations: List<PlannedOperation>)
+
+/**
+ * Orders the operations of a config into as few batches as possible.
+ *
+ * An operation depends on every earlier operation whose footprint overlaps its own.
+ * It is placed, in config order, into the first batch of its type that comes after the
+ * batches of all its dependencies. A same-type dependency in the batch the previous
+ * operation went to is the exception: the operations are consecutive and share that
+ * batch, the way consecutive operations of one type always did. Operations keep their
+ * config order within a batch. Without dependencies this merges every operation of a
+ * type into one batch.
+ */
+object OperationPlanner {
+
+    fun plan(operations: List<PlannedOperation>): List<Batch> {
+        val types = mutableListOf<String>()
+        val entries = mutableListOf<MutableList<PlannedOperation>>()
+        // Latest batch per type of the operations placed so far, by footprint prefix
+        val placed = TreeMap<String, MutableMap<String, Int>>()
+        var previous = -1
+
+        for (operation in operations) {
+            var earliest = 0
+            for (prefix in operation.footprint.prefixes) {
+                for ((type, batch) in overlapping(placed, prefix)) {
+                    // A batch resolves all its specs before executing any, so a dependency
+                    // shares it only if nothing of the config runs between the two
+                    val consecutive = type == operation.type && batch == previous
+                    earliest = maxOf(earliest, if (consecutive) batch else batch + 1)
+                }
+            }
+
+            var batch = (earliest until types.size).firstOrNull { types[it] == operation.type }
+            if (batch == null) {
+                batch = types.size
+                types.add(operation.type)
+                entries.add(mutableListOf())
+            }
+            entries[batch].add(operation)
+            previous = batch
+            for (prefix in operation.footprint.prefixes) {
+                placed.getOrPut(prefix) { HashMap() }.merge(operation.type, batch, ::maxOf)
+            }
+        }
+
+        return types.indices.map { Batch(types[it], entries[it]) }
+    }
+
+    /**
+     * Config positions of the operations that overlap an operation of an earlier batch,
+     * and so act on what that batch leaves behind.
+     */
+    fun dependentOperations(batches: List<Batch>): Set<Int> {
+        val dependent = mutableSetOf<Int>()
+        val placed = TreeMap<String, MutableMap<String, Int>>()
+        for ((index, batch) in batches.withIndex()) {
+            for (operation in batch.operations) {
+                if (operation.footprint.prefixes.any { overlapping(placed, it).any() }) dependent.add(operation.index)
+            }
+            for (operation in batch.operations) {
+                for (prefix in operation.footprint.prefixes) {
+                    placed.getOrPut(prefix) { HashMap() }.merge(operation.type, index, ::maxOf)
+                }
+            }
+        }
+        return dependent
+    }
+
+    /**
+     * Type and batch of the placed operations with a prefix that [prefix] starts with,
+     * or that starts with [prefix]; see [Footprint.overlaps].
+     */
+    private fun overlapping(placed: TreeMap<String, MutableMap<String, Int>>, prefix: String): Sequence<Pair<String, Int>> {
+        val shorter = (0 until prefix.length).asSequence().mapNotNull { placed[prefix.substring(0, it)] }
+        val longer = placed.subMap(prefix, true, prefix + Char.MAX_VALUE, false).values.asSequence()
+        return (shorter + longer).flatMap { byType -> byType.entries.asSequence().map { it.key to it.value } }
+    }
+
+    /**
+     * Number of batches the config would take if only consecutive operations of the same
+     * type were merged, for comparison with the plan.
+     */
+    fun consecutiveBatchCount(operations: List<PlannedOperation>): Int {
+        return operations.indices.count { it == 0 || operations[it].type != operations[it - 1].type }
+    }
+}
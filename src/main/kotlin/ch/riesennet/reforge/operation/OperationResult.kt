@@ -2,13 +2,24 @@ package ch.riesennet.reforge.operation
 
 /**
  * Result of a single refactoring action within an operation.
+ *
+ * [durationMs] is the wall time spent on the action, or null if it was not timed on its
+ * own: actions executed together (e.g. a bulk move), whose group time is printed once,
+ * and results that did no work, such as skips.
+ * [files] lists the paths the action wrote to, as far as they are known.
  */
 data class OperationResult(
     val action: String,
     val source: String,
     val target: String,
     val status: ResultStatus,
-    val error: String? = null
+    val error: String? = null,
+    val durationMs: Long? = null,
+    val files: List<String> = emptyList()
 )
 
-enum class ResultStatus { SUCCESS, FAILED, SKIPPED }
+/**
+ * [ROLLED_BACK] corrects a [SUCCESS] published earlier whose changes a transactional run
+ * undid.
+ */
+enum class ResultStatus { SUCCESS, FAILED, SKIPPED, ROLLED_BACK }
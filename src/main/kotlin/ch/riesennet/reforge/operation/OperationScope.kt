@@ -0,0 +1,79 @@
+package ch.riesennet.reforge.operation
+
+import ch.riesennet.reforge.ProgressReporter
+import ch.riesennet.reforge.ScopeConfig
+import com.intellij.openapi.module.ModuleManager
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.psi.search.DelegatingGlobalSearchScope
+import com.intellij.psi.search.GlobalSearchScope
+import com.intellij.psi.search.ProjectScope
+import com.intellij.psi.search.PsiSearchHelper
+import com.intellij.psi.search.UsageSearchContext
+
+/**
+ * The search scope every operation of a run resolves classes and searches usages in,
+ * built from the config's [ScopeConfig]. Without a `scope:` section this is the
+ * whole project.
+ */
+class OperationScope(private val project: Project, val config: ScopeConfig = ScopeConfig()) {
+
+    private val projectScope = GlobalSearchScope.projectScope(project)
+
+    /** Project files within the configured modules, directories and excludes. */
+    val searchScope: GlobalSearchScope = if (config.isRestricted) buildScope() else projectScope
+
+    /** [searchScope] plus libraries, for types that may come from dependencies. */
+    val searchScopeWithLibraries: GlobalSearchScope = if (config.isRestricted) {
+        searchScope.uniteWith(ProjectScope.getLibrariesScope(project))
+    } else {
+        GlobalSearchScope.allScope(project)
+    }
+
+    private val outsideScope: GlobalSearchScope by lazy {
+        projectScope.intersectWith(GlobalSearchScope.notScope(searchScope))
+    }
+
+    /**
+     * Warns if the simple name of the class [qualifiedName] occurs in code of a project
+     * file outside the scope, which may be a reference that is not updated. Looks the
+     * name up in the word index only, without resolving references, so it stays cheap
+     * for scopes a small part of a large project. Must be called in a read action.
+     */
+    fun warnIfUsedOutside(qualifiedName: String, reporter: ProgressReporter) {
+        if (!config.isRestricted) return
+        var path: String? = null
+        PsiSearchHelper.getInstance(project).processCandidateFilesForText(
+            outsideScope, UsageSearchContext.IN_CODE, true, qualifiedName.substringAfterLast('.')
+        ) { file ->
+            path = file.path
+            false
+        }
+        val found = path ?: return
+        reporter.info("  Warning: $qualifiedName may be referenced outside the scope ($found); such references are not updated")
+    }
+
+    private fun buildScope(): GlobalSearchScope {
+        val base = if (config.modules.isEmpty()) {
+            projectScope
+        } else {
+            val moduleManager = ModuleManager.getInstance(project)
+            val moduleScopes = config.modules.map { name ->
+                val module = moduleManager.findModuleByName(name)
+                    ?: throw IllegalArgumentException(
+                        "Unknown module in scope: $name. Known modules: ${moduleManager.modules.map { it.name }}"
+                    )
+                GlobalSearchScope.moduleScope(module)
+            }
+            GlobalSearchScope.union(moduleScopes)
+        }
+        if (config.directories.isEmpty() && config.exclude.isEmpty()) return base
+
+        val basePath = project.basePath
+        return object : DelegatingGlobalSearchScope(base) {
+            override fun contains(file: VirtualFile): Boolean {
+                return super.contains(file) && config.acceptsPath(file.path, basePath)
+            }
+        }
+    }
+}
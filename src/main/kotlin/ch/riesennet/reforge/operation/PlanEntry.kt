@@ -0,0 +1,27 @@
+package ch.riesennet.reforge.operation
+
+/**
+ * A usage to rewrite: the text range of a reference element in the file at [path].
+ */
+data class UsageLocation(val path: String, val start: Int, val end: Int)
+
+/**
+ * A class a pattern resolved to during `reforge plan`: the paths of its own file and of
+ * the files using it, and its usages. Null [usages] are searched again when applying,
+ * e.g. because some of them were comment or text occurrences.
+ */
+data class PlannedClass(val files: List<String>, val usages: List<UsageLocation>?)
+
+/**
+ * What `reforge plan` resolved for one operation of the config: the paths of the files
+ * it edits, the [classes] its patterns matched by qualified name, and the patterns that
+ * matched nothing.
+ */
+data class PlanEntry(
+    val files: List<String> = emptyList(),
+    val classes: Map<String, PlannedClass> = emptyMap(),
+    val unresolved: List<String> = emptyList()
+) {
+    /** Every path the entry names. */
+    fun paths(): Set<String> = (files + classes.values.flatMap { it.files }).toSet()
+}
@@ -0,0 +1,71 @@
+package ch.riesennet.reforge.operation
+
+import ch.riesennet.reforge.ProgressReporter
+import com.intellij.openapi.application.ReadAction
+import com.intellij.openapi.project.Project
+import com.intellij.util.concurrency.AppExecutorUtil
+import java.util.concurrent.CompletableFuture
+
+/**
+ * Outcome of [Operation.preCheck]: the part of a spec still to execute, null if nothing
+ * is left, and the parts whose post-condition already holds as (source, target) pairs.
+ */
+data class PreCheckResult(val remaining: OperationSpec?, val satisfied: List<Pair<String, String>> = emptyList()) {
+
+    companion object {
+        fun pending(spec: OperationSpec): PreCheckResult = PreCheckResult(spec)
+
+        fun satisfied(source: String, target: String): PreCheckResult = PreCheckResult(null, listOf(source to target))
+    }
+}
+
+/**
+ * Evaluates [Operation.preCheck] for the specs of a batch concurrently, in non-blocking
+ * read actions on a bounded pool, and publishes the satisfied parts as skipped results.
+ */
+class PreCheck(private val project: Project, private val scope: OperationScope) {
+
+    /**
+     * @return the specs, or parts of specs, that still have to be executed, in batch order
+     */
+    fun run(operation: Operation, specs: List<OperationSpec>, reporter: ProgressReporter): List<OperationSpec> {
+        if (specs.isEmpty()) return specs
+        val executor = AppExecutorUtil.createBoundedApplicationPoolExecutor("Reforge pre-check", PARALLELISM)
+        val outcomes = try {
+            val futures = specs.map { spec ->
+                CompletableFuture.supplyAsync({
+                    ReadAction.nonBlocking<PreCheckResult> { operation.preCheck(project, spec, scope) }
+                        .inSmartMode(project)
+                        .executeSynchronously()
+                }, executor)
+            }
+            futures.mapIndexed { index, future ->
+                try {
+                    future.join()
+                } catch (e: Exception) {
+                    reporter.info("  Warning: pre-check failed (${e.cause?.message ?: e.message})")
+                    PreCheckResult.pending(specs[index])
+                }
+            }
+        } finally {
+            executor.shutdown()
+        }
+
+        val satisfied = outcomes.flatMap { it.satisfied }
+        for ((source, target) in satisfied) {
+            reporter.result(OperationResult(operation.type, source, target, ResultStatus.SKIPPED, ALREADY_SATISFIED))
+        }
+        val remaining = outcomes.mapNotNull { it.remaining }
+        if (satisfied.isNotEmpty()) {
+            reporter.info("  ${satisfied.size} already satisfied, ${remaining.size}/${specs.size} spec(s) left to execute")
+        }
+        return remaining
+    }
+
+    companion object {
+        /** Error text of the skipped results of satisfied specs. */
+        const val ALREADY_SATISFIED = "already satisfied"
+
+        private val PARALLELISM = (Runtime.getRuntime().availableProcessors() - 1).coerceAtLeast(1)
+    }
+}
@@ -0,0 +1,76 @@
+package ch.riesennet.reforge.operation
+
+import ch.riesennet.reforge.ProgressReporter
+import com.intellij.openapi.project.Project
+import com.intellij.util.concurrency.AppExecutorUtil
+import java.util.concurrent.CompletableFuture
+
+/**
+ * An action a diff dry run previewed: the [files] it would edit and the number of
+ * [references] it would rewrite, or the [error] it would fail with.
+ */
+data class PreviewAction(
+    val source: String,
+    val target: String,
+    val files: List<String> = emptyList(),
+    val references: Int = 0,
+    val error: String? = null
+)
+
+/**
+ * Outcome of [Operation.preview]: the edits of a spec and the actions they belong to.
+ * [approximate] edits are reconstructed from the usages instead of produced by the
+ * refactoring itself, and may differ from what a real run writes.
+ */
+data class Preview(val edits: List<FileEdit>, val actions: List<PreviewAction>, val approximate: Boolean = false)
+
+/**
+ * Evaluates [Operation.preview] for the specs of a batch concurrently on a bounded pool,
+ * merges their edits into a [DiffWorkspace] in batch order and publishes each action as
+ * a skipped result, or as failed if it would fail or its edits conflict with an earlier
+ * operation's.
+ */
+class DiffPreview(private val project: Project, private val scope: OperationScope) {
+
+    fun run(operation: Operation, specs: List<OperationSpec>, workspace: DiffWorkspace, reporter: ProgressReporter): List<OperationResult> {
+        if (specs.isEmpty()) return emptyList()
+        val results = mutableListOf<OperationResult>()
+        val executor = AppExecutorUtil.createBoundedApplicationPoolExecutor("Reforge preview", PARALLELISM)
+        try {
+            val futures = specs.map { spec ->
+                CompletableFuture.supplyAsync({ operation.preview(project, spec, scope, reporter) }, executor)
+            }
+            for ((index, future) in futures.withIndex()) {
+                val preview = try {
+                    future.join()
+                } catch (e: Exception) {
+                    val error = e.cause?.message ?: e.message ?: "Unknown error"
+                    val label = operation.label(specs[index])
+                    reporter.operationFailure(operation.type, label, error)
+                    results.add(reporter.result(OperationResult(operation.type, label, "", ResultStatus.FAILED, error)))
+                    continue
+                }
+                val conflicts = workspace.apply(preview.edits, preview.approximate)
+                for (action in preview.actions) {
+                    val error = action.error ?: conflicts.firstOrNull()?.let { "edits conflict with an earlier operation in $it" }
+                    if (error != null) {
+                        reporter.operationFailure(operation.type, action.source, error)
+                        results.add(reporter.result(OperationResult(operation.type, action.source, action.target, ResultStatus.FAILED, error)))
+                    } else {
+                        reporter.dryRunPreview(operation.type, action.source, action.target, action.files.size, action.references)
+                        results.add(reporter.result(OperationResult(
+                            operation.type, action.source, action.target, ResultStatus.SKIPPED, files = action.files
+                        )))
+                    }
+                }
+            }
+        } finally {
+            executor.shutdown()
+        }
+        return results
+    }
+
+    companion object {
+        private val PARALLELISM = (Runtime.getRuntime().availableProcessors() - 1).coerceAtLeast(1)
+    }
+}
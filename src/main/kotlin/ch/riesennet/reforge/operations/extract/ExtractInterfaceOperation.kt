@@ -1,20 +1,25 @@
 package ch.riesennet.reforge.operations.extract
 
 import ch.riesennet.reforge.ProgressReporter
-import ch.riesennet.reforge.infrastructure.IndexingHelper
+import ch.riesennet.reforge.infrastructure.PackageDirectories
+import ch.riesennet.reforge.infrastructure.Timing
+import ch.riesennet.reforge.infrastructure.WriteExecutor
+import ch.riesennet.reforge.operation.FileEdit
+import ch.riesennet.reforge.operation.Footprint
 import ch.riesennet.reforge.operation.Operation
 import ch.riesennet.reforge.operation.OperationResult
+import ch.riesennet.reforge.operation.OperationScope
 import ch.riesennet.reforge.operation.OperationSpec
+import ch.riesennet.reforge.operation.PlanEntry
+import ch.riesennet.reforge.operation.PreCheckResult
+import ch.riesennet.reforge.operation.Preview
+import ch.riesennet.reforge.operation.PreviewAction
 import ch.riesennet.reforge.operation.ResultStatus
-import com.intellij.openapi.application.ApplicationManager
 import com.intellij.openapi.application.ReadAction
-import com.intellij.openapi.command.WriteCommandAction
-import com.intellij.openapi.project.DumbService
 import com.intellij.openapi.project.Project
 import com.intellij.openapi.roots.ProjectRootManager
-import com.intellij.openapi.vfs.VirtualFileManager
 import com.intellij.psi.*
-import com.intellij.psi.search.GlobalSearchScope
+import com.intellij.psi.util.PsiTreeUtil
 
 /**
  * Extract interface operation: creates an interface from specified methods of a class,
@@ -40,145 +45,225 @@ class ExtractInterfaceOperation : Operation {
         )
     }
 
+    override fun footprint(spec: OperationSpec): Footprint {
+        val extract = spec as ExtractInterfaceSpec
+        return Footprint.of(extract.sourceClass, extract.interfaceName)
+    }
+
+    /** The class the interface is extracted from. */
+    override fun label(spec: OperationSpec): String = (spec as ExtractInterfaceSpec).sourceClass
+
+    /**
+     * The interface exists and the source class implements it.
+     */
+    override fun isApplied(project: Project, result: OperationResult, scope: OperationScope): Boolean {
+        val facade = JavaPsiFacade.getInstance(project)
+        if (facade.findClass(result.target, scope.searchScope) == null) return false
+        val psiClass = facade.findClass(result.source, scope.searchScope) ?: return false
+        return psiClass.interfaces.any { it.qualifiedName == result.target }
+    }
+
+    /**
+     * Satisfied if the interface exists, declares every method and the class implements it.
+     */
+    override fun preCheck(project: Project, spec: OperationSpec, scope: OperationScope): PreCheckResult {
+        val extract = spec as ExtractInterfaceSpec
+        val facade = JavaPsiFacade.getInstance(project)
+        val psiInterface = facade.findClass(extract.interfaceName, scope.searchScope)
+        val psiClass = facade.findClass(extract.sourceClass, scope.searchScope)
+        val satisfied = psiInterface != null && psiClass != null &&
+            psiClass.interfaces.any { it.qualifiedName == extract.interfaceName } &&
+            extract.methods.all { psiInterface.findMethodsByName(it, false).isNotEmpty() }
+        return if (satisfied) PreCheckResult.satisfied(extract.sourceClass, extract.interfaceName) else PreCheckResult.pending(spec)
+    }
+
+    /**
+     * The file of the class it edits.
+     */
+    override fun plan(project: Project, spec: OperationSpec, scope: OperationScope, reporter: ProgressReporter): PlanEntry {
+        val extract = spec as ExtractInterfaceSpec
+        val path = ReadAction.compute<String?, Exception> {
+            JavaPsiFacade.getInstance(project).findClass(extract.sourceClass, scope.searchScope)?.containingFile?.virtualFile?.path
+        }
+        return PlanEntry(files = listOfNotNull(path))
+    }
+
+    /**
+     * Makes a non-physical copy of the class file implement the interface and renders the
+     * interface file, the way [execute] would write them.
+     */
+    override fun preview(project: Project, spec: OperationSpec, scope: OperationScope, reporter: ProgressReporter): Preview {
+        val extract = spec as ExtractInterfaceSpec
+        return ReadAction.nonBlocking<Preview> { previewExtract(project, extract, scope, reporter) }
+            .inSmartMode(project)
+            .executeSynchronously()
+    }
+
+    private fun previewExtract(
+        project: Project,
+        spec: ExtractInterfaceSpec,
+        scope: OperationScope,
+        reporter: ProgressReporter
+    ): Preview {
+        val psiClass = JavaPsiFacade.getInstance(project).findClass(spec.sourceClass, scope.searchScope)
+            ?: return Preview(emptyList(), listOf(PreviewAction(
+                spec.sourceClass, spec.interfaceName, error = "Class not found: ${spec.sourceClass}"
+            )))
+
+        val file = psiClass.containingFile
+        val copy = file.copy() as PsiFile
+        implement(project, PsiTreeUtil.findSameElementInCopy(psiClass, copy), spec.interfaceName)
+
+        val sourceFile = file.virtualFile
+        val sourceRoot = ProjectRootManager.getInstance(project).fileIndex.getSourceRootForFile(sourceFile)
+        val interfaceDirectory = sourceRoot?.path?.let { root ->
+            spec.interfaceName.substringBeforeLast('.', "").split('.').filter { it.isNotEmpty() }.fold(root) { path, part -> "$path/$part" }
+        } ?: sourceFile.parent.path
+        val interfacePath = "$interfaceDirectory/${spec.interfaceName.substringAfterLast('.')}.java"
+
+        return Preview(
+            listOf(
+                FileEdit(sourceFile.path, file.text, copy.text),
+                FileEdit(interfacePath, null, interfaceSource(spec, findMethods(psiClass, spec, reporter)))
+            ),
+            listOf(PreviewAction(spec.sourceClass, spec.interfaceName, listOf(sourceFile.path, interfacePath), references = 1))
+        )
+    }
+
     override fun execute(
         project: Project,
         specs: List<OperationSpec>,
         reporter: ProgressReporter,
-        dryRun: Boolean
+        dryRun: Boolean,
+        scope: OperationScope
     ): List<OperationResult> {
+        val extractSpecs = specs.filterIsInstance<ExtractInterfaceSpec>()
         val results = mutableListOf<OperationResult>()
 
-        for (spec in specs.filterIsInstance<ExtractInterfaceSpec>()) {
-            reporter.section("Extracting interface ${spec.interfaceName} from ${spec.sourceClass}:")
-
-            if (dryRun) {
+        if (dryRun) {
+            for (spec in extractSpecs) {
+                reporter.section("Extracting interface ${spec.interfaceName} from ${spec.sourceClass}:")
                 for (method in spec.methods) {
                     reporter.info("  [dry-run] would extract method: $method")
                 }
-                results.add(OperationResult(
+                results.add(reporter.result(OperationResult(
                     "extract-interface", spec.sourceClass, spec.interfaceName,
                     ResultStatus.SKIPPED
-                ))
-                continue
+                )))
             }
+            return results
+        }
 
+        WriteExecutor.getInstance(project).runChunked(extractSpecs, "extract-interface", reporter) { spec ->
+            reporter.section("Extracting interface ${spec.interfaceName} from ${spec.sourceClass}:")
+            val started = System.nanoTime()
             try {
-                DumbService.getInstance(project).waitForSmartMode()
-                extractInterface(project, spec, reporter)
+                val files = reporter.span("extract interface", "refactor", spec.sourceClass) {
+                    extractInterface(project, spec, scope, reporter)
+                }
                 reporter.operationSuccess("extract-interface", spec.sourceClass, spec.interfaceName)
-                results.add(OperationResult(
+                results.add(reporter.result(OperationResult(
                     "extract-interface", spec.sourceClass, spec.interfaceName,
-                    ResultStatus.SUCCESS
-                ))
+                    ResultStatus.SUCCESS, durationMs = Timing.elapsedMillis(started), files = files
+                )))
             } catch (e: Exception) {
                 val error = e.message ?: "Unknown error"
                 reporter.operationFailure("extract-interface", spec.sourceClass, error)
-                results.add(OperationResult(
+                results.add(reporter.result(OperationResult(
                     "extract-interface", spec.sourceClass, spec.interfaceName,
-                    ResultStatus.FAILED, error
-                ))
+                    ResultStatus.FAILED, error, durationMs = Timing.elapsedMillis(started)
+                )))
             }
         }
 
         return results
     }
 
-    private fun extractInterface(project: Project, spec: ExtractInterfaceSpec, reporter: ProgressReporter) {
-        ApplicationManager.getApplication().invokeAndWait {
-            // Find the source class
-            val psiClass = ReadAction.compute<PsiClass?, Exception> {
-                JavaPsiFacade.getInstance(project)
-                    .findClass(spec.sourceClass, GlobalSearchScope.projectScope(project))
-            } ?: throw IllegalStateException("Class not found: ${spec.sourceClass}")
-
-            // Find the methods to extract
-            val methodsToExtract = ReadAction.compute<List<PsiMethod>, Exception> {
-                spec.methods.mapNotNull { methodName ->
-                    psiClass.findMethodsByName(methodName, false).firstOrNull()
-                }
-            }
+    /**
+     * Runs inside a write action of [WriteExecutor].
+     *
+     * @return paths of the source class file and the created interface file
+     */
+    private fun extractInterface(
+        project: Project,
+        spec: ExtractInterfaceSpec,
+        scope: OperationScope,
+        reporter: ProgressReporter
+    ): List<String> {
+        // Find the source class
+        val psiClass = JavaPsiFacade.getInstance(project).findClass(spec.sourceClass, scope.searchScope)
+            ?: throw IllegalStateException("Class not found: ${spec.sourceClass}")
 
-            if (methodsToExtract.size != spec.methods.size) {
-                val found = ReadAction.compute<List<String>, Exception> {
-                    methodsToExtract.mapNotNull { it.name }
-                }
-                val missing = spec.methods - found.toSet()
-                System.err.println("  Warning: methods not found: $missing")
-            }
+        val methodsToExtract = findMethods(psiClass, spec, reporter)
 
-            // Determine where to create the interface
-            val interfacePackage = spec.interfaceName.substringBeforeLast('.')
-            val interfaceSimpleName = spec.interfaceName.substringAfterLast('.')
-
-            // Create the interface file
-            WriteCommandAction.writeCommandAction(project).run<Exception> {
-                // Find or create target directory
-                val sourceFile = psiClass.containingFile?.virtualFile
-                val fileIndex = ProjectRootManager.getInstance(project).fileIndex
-                val sourceRoot = sourceFile?.let { fileIndex.getSourceRootForFile(it) }
-
-                val targetDir = if (sourceRoot != null) {
-                    createPackageDir(project, interfacePackage, sourceRoot)
-                } else {
-                    val sourceRoots = ProjectRootManager.getInstance(project).contentSourceRoots
-                    createPackageDir(project, interfacePackage, sourceRoots.first())
-                }
+        // Determine where to create the interface
+        val interfacePackage = spec.interfaceName.substringBeforeLast('.')
+        val interfaceSimpleName = spec.interfaceName.substringAfterLast('.')
 
-                // Build interface source
-                val methodDeclarations = methodsToExtract.joinToString("\n\n") { method ->
-                    val returnType = method.returnType?.presentableText ?: "void"
-                    val params = method.parameterList.parameters.joinToString(", ") { param ->
-                        "${param.type.presentableText} ${param.name}"
-                    }
-                    "    $returnType ${method.name}($params);"
-                }
+        // Find or create target directory
+        val sourceFile = psiClass.containingFile?.virtualFile
+        val fileIndex = ProjectRootManager.getInstance(project).fileIndex
+        val sourceRoot = sourceFile?.let { fileIndex.getSourceRootForFile(it) }
+        val targetDir = PackageDirectories.getInstance(project).getOrCreate(sourceRoot, interfacePackage)
 
-                val interfaceSource = buildString {
-                    appendLine("package $interfacePackage;")
-                    appendLine()
-                    appendLine("public interface $interfaceSimpleName {")
-                    appendLine()
-                    append(methodDeclarations)
-                    appendLine()
-                    appendLine("}")
-                }
+        // Create the interface file
+        val factory = PsiFileFactory.getInstance(project)
+        val interfaceFile = factory.createFileFromText(
+            "$interfaceSimpleName.java",
+            com.intellij.lang.java.JavaLanguage.INSTANCE,
+            interfaceSource(spec, methodsToExtract)
+        )
+        val createdFile = targetDir.add(interfaceFile) as? PsiFile
 
-                // Create the interface file
-                val factory = PsiFileFactory.getInstance(project)
-                val interfaceFile = factory.createFileFromText(
-                    "$interfaceSimpleName.java",
-                    com.intellij.lang.java.JavaLanguage.INSTANCE,
-                    interfaceSource
-                )
-                targetDir.add(interfaceFile)
-
-                // Make the source class implement the interface
-                val elementFactory = JavaPsiFacade.getElementFactory(project)
-                val interfaceRef = elementFactory.createReferenceFromText(spec.interfaceName, psiClass)
-                val implementsList = psiClass.implementsList
-                if (implementsList != null) {
-                    implementsList.add(interfaceRef)
-                } else {
-                    // Class has no implements clause — create one
-                    val refList = elementFactory.createReferenceList(arrayOf(interfaceRef))
-                    psiClass.addAfter(refList, psiClass.extendsList ?: psiClass.nameIdentifier)
-                }
-            }
+        implement(project, psiClass, spec.interfaceName)
+
+        return listOfNotNull(sourceFile?.path, createdFile?.virtualFile?.path)
+    }
 
-            VirtualFileManager.getInstance().syncRefresh()
+    private fun findMethods(psiClass: PsiClass, spec: ExtractInterfaceSpec, reporter: ProgressReporter): List<PsiMethod> {
+        val methods = spec.methods.mapNotNull { methodName ->
+            psiClass.findMethodsByName(methodName, false).firstOrNull()
         }
+        if (methods.size != spec.methods.size) {
+            val missing = spec.methods - methods.map { it.name }.toSet()
+            reporter.info("  Warning: methods not found: $missing")
+        }
+        return methods
     }
 
-    private fun createPackageDir(project: Project, packageName: String, sourceRoot: com.intellij.openapi.vfs.VirtualFile): PsiDirectory {
-        val baseDir = PsiManager.getInstance(project).findDirectory(sourceRoot)
-            ?: throw IllegalStateException("Cannot find PsiDirectory for source root: ${sourceRoot.path}")
+    private fun interfaceSource(spec: ExtractInterfaceSpec, methods: List<PsiMethod>): String {
+        val methodDeclarations = methods.joinToString("\n\n") { method ->
+            val returnType = method.returnType?.presentableText ?: "void"
+            val params = method.parameterList.parameters.joinToString(", ") { param ->
+                "${param.type.presentableText} ${param.name}"
+            }
+            "    $returnType ${method.name}($params);"
+        }
 
-        var currentDir = baseDir
-        for (segment in packageName.split(".")) {
-            val subDir = currentDir.findSubdirectory(segment)
-            currentDir = subDir ?: currentDir.createSubdirectory(segment)
+        return buildString {
+            appendLine("package ${spec.interfaceName.substringBeforeLast('.')};")
+            appendLine()
+            appendLine("public interface ${spec.interfaceName.substringAfterLast('.')} {")
+            appendLine()
+            append(methodDeclarations)
+            appendLine()
+            appendLine("}")
         }
+    }
 
-        return currentDir
+    /**
+     * Makes [psiClass], physical or a preview copy, implement [interfaceName].
+     */
+    private fun implement(project: Project, psiClass: PsiClass, interfaceName: String) {
+        val elementFactory = JavaPsiFacade.getElementFactory(project)
+        val interfaceRef = elementFactory.createReferenceFromText(interfaceName, psiClass)
+        val implementsList = psiClass.implementsList
+        if (implementsList != null) {
+            implementsList.add(interfaceRef)
+        } else {
+            // Class has no implements clause — create one
+            val refList = elementFactory.createReferenceList(arrayOf(interfaceRef))
+            psiClass.addAfter(refList, psiClass.extendsList ?: psiClass.nameIdentifier)
+        }
     }
 }
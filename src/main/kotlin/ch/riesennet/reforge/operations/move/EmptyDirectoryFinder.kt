@@ -0,0 +1,46 @@
+package ch.riesennet.reforge.operations.move
+
+/**
+ * Finds the directories left empty by moves: the given directories and their ancestors,
+ * up to a boundary such as a source root, that contain nothing but other empty
+ * directories. Works on any directory representation through [parent], [children]
+ * and [isDirectory].
+ */
+class EmptyDirectoryFinder<D>(
+    private val parent: (D) -> D?,
+    private val children: (D) -> List<D>,
+    private val isDirectory: (D) -> Boolean
+) {
+
+    /**
+     * @param isBoundary directories that are neither checked nor walked past
+     * @return the empty directories, deepest first, so deleting them in order only ever
+     * deletes empty directories
+     */
+    fun find(start: Collection<D>, isBoundary: (D) -> Boolean): List<D> {
+        val depths = LinkedHashMap<D, Int>()
+        for (directory in start) {
+            val chain = mutableListOf<D>()
+            var current: D? = directory
+            while (current != null && current !in depths && !isBoundary(current)) {
+                chain.add(current)
+                current = parent(current)
+            }
+            // Depth relative to the first known or boundary ancestor is enough to order parents after children
+            var depth = current?.let { depths[it] } ?: 0
+            for (candidate in chain.asReversed()) {
+                depth++
+                depths[candidate] = depth
+            }
+        }
+
+        val empty = HashSet<D>()
+        val deepestFirst = depths.keys.sortedByDescending { depths.getValue(it) }
+        for (directory in deepestFirst) {
+            if (children(directory).all { isDirectory(it) && it in empty }) {
+                empty.add(directory)
+            }
+        }
+        return deepestFirst.filter { it in empty }
+    }
+}
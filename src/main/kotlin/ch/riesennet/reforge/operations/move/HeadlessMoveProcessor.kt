@@ -1,27 +1,62 @@
 package ch.riesennet.reforge.operations.move
 
+import ch.riesennet.reforge.ProgressReporter
 import com.intellij.openapi.project.Project
 import com.intellij.psi.PsiClass
+import com.intellij.psi.PsiElement
 import com.intellij.refactoring.move.MoveCallback
 import com.intellij.refactoring.move.moveClassesOrPackages.MoveClassesOrPackagesProcessor
 import com.intellij.refactoring.move.moveClassesOrPackages.SingleSourceRootMoveDestination
+import com.intellij.refactoring.util.MoveRenameUsageInfo
+import com.intellij.usageView.UsageInfo
+import com.intellij.usageView.UsageViewUtil
 
 /**
  * Subclass that exposes protected findUsages/execute for headless use,
  * bypassing the UI dialog path in BaseRefactoringProcessor.run().
+ *
+ * Usages are searched with [search] for the classes [precomputed] holds no valid
+ * usages for; the others use the precomputed ones.
  */
 class HeadlessMoveProcessor(
     project: Project,
-    classes: Array<PsiClass>,
-    destination: SingleSourceRootMoveDestination,
-    searchInComments: Boolean,
-    searchTextOccurrences: Boolean,
-    moveCallback: MoveCallback?
+    private val classes: Array<PsiClass>,
+    private val destination: SingleSourceRootMoveDestination,
+    private val search: UsageSearch,
+    moveCallback: MoveCallback?,
+    private val precomputed: UsagePrecomputation? = null
 ) : MoveClassesOrPackagesProcessor(
-    project, classes, destination, searchInComments, searchTextOccurrences, moveCallback
+    project, classes, destination, search.options.searchInComments, search.options.searchTextOccurrences, moveCallback
 ) {
-    fun findAndExecute() {
-        val usages = findUsages()
-        execute(usages)
+
+    override fun findUsages(): Array<UsageInfo> {
+        val taken = precomputed?.take(classes.asList()).orEmpty()
+        val targetPackage = destination.targetPackage.qualifiedName
+        val usages = classes.flatMap { psiClass ->
+            (taken[psiClass] ?: search.find(psiClass, "$targetPackage.${psiClass.name}")).asList()
+        }
+        return UsageViewUtil.removeDuplicatedUsages(usages.toTypedArray())
+    }
+
+    /**
+     * Searches usages and performs the move, timing both phases separately.
+     *
+     * @return paths of the files whose references were rewritten, per moved element
+     */
+    fun findAndExecute(reporter: ProgressReporter, detail: String): Map<PsiElement, Set<String>> {
+        val usages = reporter.span("find usages", "refactor", detail) { findUsages() }
+        val usageFiles = usageFilesByElement(usages)
+        reporter.span("apply move", "write", detail) { execute(usages) }
+        return usageFiles
+    }
+
+    private fun usageFilesByElement(usages: Array<UsageInfo>): Map<PsiElement, Set<String>> {
+        val files = mutableMapOf<PsiElement, MutableSet<String>>()
+        for (usage in usages) {
+            val element = (usage as? MoveRenameUsageInfo)?.referencedElement ?: continue
+            val path = usage.virtualFile?.path ?: continue
+            files.getOrPut(element) { mutableSetOf() }.add(path)
+        }
+        return files
     }
 }
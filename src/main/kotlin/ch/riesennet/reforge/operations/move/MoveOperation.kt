@@ -1,27 +1,47 @@
 package ch.riesennet.reforge.operations.move
 
 import ch.riesennet.reforge.ClassResolver
+import ch.riesennet.reforge.IncrementalResolver
+import ch.riesennet.reforge.PatternSet
+import ch.riesennet.reforge.PatternStatus
 import ch.riesennet.reforge.ProgressReporter
+import ch.riesennet.reforge.infrastructure.IndexReadiness
 import ch.riesennet.reforge.infrastructure.IndexingHelper
+import ch.riesennet.reforge.infrastructure.PackageDirectories
+import ch.riesennet.reforge.infrastructure.Timing
+import ch.riesennet.reforge.infrastructure.VfsHelper
+import ch.riesennet.reforge.operation.FileEdit
+import ch.riesennet.reforge.operation.Footprint
 import ch.riesennet.reforge.operation.Operation
 import ch.riesennet.reforge.operation.OperationResult
+import ch.riesennet.reforge.operation.OperationScope
 import ch.riesennet.reforge.operation.OperationSpec
+import ch.riesennet.reforge.operation.PlanEntry
+import ch.riesennet.reforge.operation.PlannedClass
+import ch.riesennet.reforge.operation.PreCheckResult
+import ch.riesennet.reforge.operation.Preview
+import ch.riesennet.reforge.operation.PreviewAction
 import ch.riesennet.reforge.operation.ResultStatus
+import ch.riesennet.reforge.operation.TextEdit
 import com.intellij.openapi.application.ApplicationManager
 import com.intellij.openapi.application.ReadAction
 import com.intellij.openapi.command.WriteCommandAction
-import com.intellij.openapi.project.DumbService
 import com.intellij.openapi.project.Project
 import com.intellij.openapi.roots.ProjectRootManager
 import com.intellij.openapi.vfs.VirtualFile
-import com.intellij.openapi.vfs.VirtualFileManager
 import com.intellij.psi.*
 import com.intellij.refactoring.PackageWrapper
+import com.intellij.psi.util.PsiTreeUtil
 import com.intellij.refactoring.move.moveClassesOrPackages.SingleSourceRootMoveDestination
+import com.intellij.refactoring.util.NonCodeUsageInfo
+import com.intellij.usageView.UsageInfo
+import java.util.concurrent.TimeUnit
 
 /**
- * Move operation: resolves class patterns across multiple passes, then executes
- * all moves in a single phase. Cleans up empty source packages afterward.
+ * Move operation: resolves class patterns, retrying unresolved ones only while the index
+ * is still changing, then executes all moves in a single phase. Classes sharing a target
+ * package and source root are moved with one refactoring. Cleans up empty source
+ * packages afterward.
  */
 class MoveOperation : Operation {
 
@@ -34,228 +54,675 @@ class MoveOperation : Operation {
             is List<*> -> s.filterIsInstance<String>()
             else -> throw IllegalArgumentException("Move operation requires 'sources' list")
         }
-        return MoveSpec(target = target, sources = sources)
+        return MoveSpec(target = target, sources = sources, search = parseSearchOptions(raw))
+    }
+
+    /**
+     * The literal prefixes of the source patterns and the target package.
+     */
+    override fun footprint(spec: OperationSpec): Footprint {
+        val move = spec as MoveSpec
+        val targetPrefix = if (move.target.isEmpty()) "" else "${move.target}."
+        return Footprint(move.sources.map { PatternSet.literalPrefix(it) }.toSet() + targetPrefix)
+    }
+
+    /** The source patterns. */
+    override fun label(spec: OperationSpec): String = (spec as MoveSpec).sources.joinToString(", ")
+
+    /**
+     * The class exists under its target name and no longer under its source name.
+     */
+    override fun isApplied(project: Project, result: OperationResult, scope: OperationScope): Boolean {
+        val facade = JavaPsiFacade.getInstance(project)
+        if (facade.findClass(result.target, scope.searchScope) == null) return false
+        return result.source == result.target || facade.findClass(result.source, scope.searchScope) == null
+    }
+
+    /**
+     * Drops the source patterns whose recorded classes are all applied. A pattern that
+     * recorded nothing, or a failure, stays; a glob then only matches the classes that
+     * did not move.
+     */
+    override fun withoutApplied(spec: OperationSpec, recorded: List<OperationResult>, applied: List<OperationResult>): OperationSpec? {
+        val move = spec as MoveSpec
+        val pending = move.sources.filterNot { pattern ->
+            val own = recorded.filter { it.source == pattern || ClassResolver.matches(pattern, it.source) }
+            own.isNotEmpty() && own.all { it in applied }
+        }
+        return if (pending.isEmpty()) null else move.copy(sources = pending)
+    }
+
+    /**
+     * Drops the source patterns whose classes are all in the target package already; see
+     * [isPatternSatisfied].
+     */
+    override fun preCheck(project: Project, spec: OperationSpec, scope: OperationScope): PreCheckResult {
+        val move = spec as MoveSpec
+        val facade = JavaPsiFacade.getInstance(project)
+        val matches = ClassResolver.resolveAll(project, move.sources, scope.searchScope)
+        val (satisfied, pending) = move.sources.partition { pattern ->
+            val names = matches[pattern].orEmpty().mapNotNull { it.qualifiedName }
+            isPatternSatisfied(pattern, move.target, names) { facade.findClass(it, scope.searchScope) != null }
+        }
+        return PreCheckResult(
+            remaining = if (pending.isEmpty()) null else move.copy(sources = pending),
+            satisfied = satisfied.map { it to move.target }
+        )
+    }
+
+    /**
+     * A pattern is satisfied if every class it matches is in [target] already. An exact
+     * pattern that matches nothing is satisfied if its class exists in [target]. A glob
+     * that matches nothing stays pending, so the move reports it as unresolved: it may be
+     * a typo, or the index may not be ready yet.
+     */
+    internal fun isPatternSatisfied(
+        pattern: String,
+        target: String,
+        matches: List<String>,
+        classExists: (String) -> Boolean
+    ): Boolean {
+        if (matches.isEmpty()) {
+            return !pattern.contains('*') && classExists("$target.${pattern.substringAfterLast('.')}")
+        }
+        return matches.all { it.substringBeforeLast('.', "") == target }
+    }
+
+    /**
+     * Resolves the source patterns and searches the usages of every match, recording each
+     * by file and text range. Classes with comment or text occurrences are recorded
+     * without usages and searched again when applying.
+     */
+    override fun plan(project: Project, spec: OperationSpec, scope: OperationScope, reporter: ProgressReporter): PlanEntry {
+        val move = spec as MoveSpec
+        val resolution = resolvePatterns(project, move.sources, scope, reporter)
+        reportResolution(resolution, reporter)
+        val candidates = describe(project, resolution.matches.values.flatten().distinct(), move.target)
+
+        val search = UsageSearch(project, scope, move.search, reporter)
+        val usages = UsagePrecomputation(project)
+        usages.compute(candidates.associate { it.psiClass to UsagePrecomputation.Target(it.targetName, search) }, reporter)
+
+        val classes = ReadAction.compute<Map<String, PlannedClass>, Exception> {
+            candidates.associate { candidate ->
+                val found = usages.take(candidate.psiClass)
+                val files = listOfNotNull(candidate.sourceFile) +
+                    found.orEmpty().mapNotNull { it.virtualFile?.path }
+                candidate.sourceName to PlannedClass(files.distinct(), found?.let { UsagePrecomputation.locate(it) })
+            }
+        }
+        return PlanEntry(classes = classes, unresolved = move.sources.filter { resolution.matches.getValue(it).isEmpty() })
+    }
+
+    /**
+     * Moves the planned classes by exact name, with their recorded usages unless their
+     * files changed, and keeps the patterns that matched nothing.
+     */
+    override fun fromPlan(spec: OperationSpec, entry: PlanEntry): OperationSpec {
+        val move = spec as MoveSpec
+        return move.copy(
+            sources = entry.classes.keys.toList() + entry.unresolved,
+            usages = entry.classes.mapNotNull { (name, planned) -> planned.usages?.let { name to it } }.toMap()
+        )
+    }
+
+    /**
+     * Previews the moves on the file texts: rewrites the usages the refactoring would
+     * find, the package statement of each moved file and adds imports for unqualified
+     * references that leave or enter a package. This approximates [HeadlessMoveProcessor],
+     * which writes through the VFS and cannot run on copies; import order, formatting and
+     * references the refactoring rewrites beyond the usages found may differ from the real
+     * move, so the preview is marked [Preview.approximate].
+     */
+    override fun preview(project: Project, spec: OperationSpec, scope: OperationScope, reporter: ProgressReporter): Preview {
+        val move = spec as MoveSpec
+        val matches = ClassResolver.resolveAll(project, move.sources, scope.searchScope)
+        matches.filterValues { it.isEmpty() }.keys.forEach { reporter.patternUnresolved(it, PatternStatus.NO_MATCH) }
+        val candidates = describe(project, matches.values.flatten().distinct(), move.target)
+
+        val search = UsageSearch(project, scope, move.search, reporter)
+        val usages = UsagePrecomputation(project)
+        usages.compute(candidates.associate { it.psiClass to UsagePrecomputation.Target(it.targetName, search) }, reporter)
+
+        return ReadAction.nonBlocking<Preview> { previewMoves(candidates, move.target, search, usages) }
+            .inSmartMode(project)
+            .executeSynchronously()
+    }
+
+    private fun previewMoves(
+        candidates: List<MoveCandidate>,
+        targetPackage: String,
+        search: UsageSearch,
+        usages: UsagePrecomputation
+    ): Preview {
+        val moving = candidates.mapTo(mutableSetOf()) { it.psiClass }
+        val movingFiles = candidates.mapNotNullTo(mutableSetOf()) { it.psiClass.containingFile }
+        val edits = LinkedHashMap<PsiFile, MutableList<TextEdit>>()
+        val imports = LinkedHashMap<PsiJavaFile, MutableSet<String>>()
+        val newPaths = mutableMapOf<PsiFile, String>()
+        val actions = mutableListOf<PreviewAction>()
+
+        for (candidate in candidates) {
+            val psiClass = candidate.psiClass
+            if (!psiClass.isValid) {
+                actions.add(PreviewAction(candidate.sourceName, candidate.targetName, error = "Class is no longer valid"))
+                continue
+            }
+            val found = usages.take(psiClass) ?: search.find(psiClass, candidate.targetName)
+            val files = linkedSetOf<String>()
+
+            for (usage in found) {
+                val file = usage.file ?: continue
+                usageEdit(usage, candidate, targetPackage, movingFiles, imports)?.let { edits.getOrPut(file) { mutableListOf() }.add(it) }
+                file.virtualFile?.path?.let { files.add(it) }
+            }
+
+            val file = psiClass.containingFile as? PsiJavaFile
+            val path = file?.virtualFile?.path
+            if (file != null && path != null && file !in newPaths) {
+                val statement = if (targetPackage.isEmpty()) "" else "package $targetPackage;"
+                val packageStatement = file.packageStatement
+                edits.getOrPut(file) { mutableListOf() }.add(
+                    if (packageStatement != null) {
+                        TextEdit(packageStatement.textRange.startOffset, packageStatement.textRange.endOffset, statement)
+                    } else {
+                        TextEdit(0, 0, "$statement\n\n")
+                    }
+                )
+                if (file.packageName != targetPackage) {
+                    imports.getOrPut(file) { mutableSetOf() }.addAll(leftBehind(file, moving))
+                }
+                val directory = candidate.sourceRoot?.path?.let { root ->
+                    targetPackage.split('.').filter { it.isNotEmpty() }.fold(root) { parent, part -> "$parent/$part" }
+                } ?: file.virtualFile.parent.path
+                newPaths[file] = "$directory/${file.name}"
+            }
+            files.addAll(listOfNotNull(path, file?.let { newPaths[it] }))
+            actions.add(PreviewAction(candidate.sourceName, candidate.targetName, files.toList(), found.size))
+        }
+
+        for ((file, names) in imports) {
+            edits.getOrPut(file) { mutableListOf() }.addAll(importEdits(file, names))
+        }
+        val fileEdits = edits.mapNotNull { (file, textEdits) ->
+            val path = file.virtualFile?.path ?: return@mapNotNull null
+            FileEdit(path, file.text, TextEdit.apply(file.text, textEdits), newPaths[file] ?: path)
+        }
+        return Preview(fileEdits, actions, approximate = true)
+    }
+
+    /**
+     * The edit rewriting [usage] to the target name of [candidate]. An unqualified Java
+     * reference keeps its text; its file gets an import instead, unless it ends up in
+     * the target package.
+     */
+    private fun usageEdit(
+        usage: UsageInfo,
+        candidate: MoveCandidate,
+        targetPackage: String,
+        movingFiles: Set<PsiFile>,
+        imports: MutableMap<PsiJavaFile, MutableSet<String>>
+    ): TextEdit? {
+        if (usage is NonCodeUsageInfo) {
+            val segment = usage.segment ?: return null
+            return TextEdit(segment.startOffset, segment.endOffset, usage.newText)
+        }
+        val element = usage.element ?: return null
+        if (element is PsiJavaCodeReferenceElement) {
+            if (element.isQualified) {
+                val name = element.referenceNameElement ?: return null
+                return TextEdit(element.textRange.startOffset, name.textRange.endOffset, candidate.targetName)
+            }
+            val file = element.containingFile as? PsiJavaFile ?: return null
+            if (file !in movingFiles && file.packageName != targetPackage &&
+                file.importList?.findSingleClassImportStatement(candidate.sourceName) == null
+            ) {
+                imports.getOrPut(file) { mutableSetOf() }.add(candidate.targetName)
+            }
+            return null
+        }
+        // References from other languages, e.g. XML, spell out the qualified name
+        val index = element.text.indexOf(candidate.sourceName)
+        if (index < 0) return null
+        val start = element.textRange.startOffset + index
+        return TextEdit(start, start + candidate.sourceName.length, candidate.targetName)
+    }
+
+    /**
+     * Qualified names of the top-level classes of its old package that [file] references
+     * unqualified and that stay behind.
+     */
+    private fun leftBehind(file: PsiJavaFile, moving: Set<PsiClass>): Set<String> {
+        return PsiTreeUtil.collectElementsOfType(file, PsiJavaCodeReferenceElement::class.java)
+            .asSequence()
+            .filter { !it.isQualified && PsiTreeUtil.getParentOfType(it, PsiImportList::class.java, PsiPackageStatement::class.java) == null }
+            .mapNotNull { it.resolve() as? PsiClass }
+            .filter { it.containingClass == null && it !in moving }
+            .mapNotNull { it.qualifiedName }
+            .filter { it.substringBeforeLast('.', "") == file.packageName }
+            .toSet()
+    }
+
+    private fun importEdits(file: PsiJavaFile, names: Set<String>): List<TextEdit> {
+        if (names.isEmpty()) return emptyList()
+        val statements = names.sorted().joinToString("") { "\nimport $it;" }
+        val importList = file.importList
+        val packageStatement = file.packageStatement
+        return listOf(when {
+            importList != null && importList.allImportStatements.isNotEmpty() ->
+                TextEdit(importList.textRange.endOffset, importList.textRange.endOffset, statements)
+            packageStatement != null ->
+                TextEdit(packageStatement.textRange.endOffset, packageStatement.textRange.endOffset, "\n$statements")
+            else -> TextEdit(0, 0, statements.removePrefix("\n") + "\n\n")
+        })
+    }
+
+    private fun parseSearchOptions(raw: Map<String, Any>): UsageSearchOptions {
+        val textSearch = when (val t = raw["text-search"]) {
+            null -> emptyMap<String, Any?>()
+            is Map<*, *> -> t
+            else -> throw IllegalArgumentException("Move operation 'text-search' must be a map with 'files' and/or 'directories'")
+        }
+        return UsageSearchOptions(
+            searchInComments = booleanOption(raw, "search-comments"),
+            searchTextOccurrences = booleanOption(raw, "search-text"),
+            textFiles = stringList(textSearch, "files"),
+            textDirectories = stringList(textSearch, "directories")
+        )
+    }
+
+    private fun booleanOption(raw: Map<String, Any>, key: String): Boolean {
+        return when (val value = raw[key]) {
+            null -> true
+            is Boolean -> value
+            else -> throw IllegalArgumentException("Move operation '$key' must be true or false")
+        }
+    }
+
+    private fun stringList(raw: Map<*, *>, key: String): List<String> {
+        return when (val value = raw[key]) {
+            null -> emptyList()
+            is List<*> -> value.filterIsInstance<String>()
+            else -> throw IllegalArgumentException("Move operation 'text-search.$key' must be a list")
+        }
     }
 
     override fun execute(
         project: Project,
         specs: List<OperationSpec>,
         reporter: ProgressReporter,
-        dryRun: Boolean
+        dryRun: Boolean,
+        scope: OperationScope
     ): List<OperationResult> {
         val moveSpecs = specs.filterIsInstance<MoveSpec>()
         val results = mutableListOf<OperationResult>()
         val sourcePackages = mutableSetOf<String>()
 
-        // Phase 1: Resolve all patterns (multi-pass)
-        data class ResolvedEntry(val target: String, val pattern: String, val classes: List<PsiClass>)
+        // Phase 1: Resolve all patterns, retrying unresolved ones while the index changes
+        data class ResolvedEntry(
+            val target: String,
+            val search: UsageSearchOptions,
+            val pattern: String,
+            val classes: List<PsiClass>
+        )
+
+        reporter.section("Resolving patterns...")
+        val resolution = resolvePatterns(project, moveSpecs.flatMap { it.sources }, scope, reporter)
+        val resolved = moveSpecs.flatMap { spec ->
+            spec.sources.map { pattern ->
+                val classes = resolution.matches.getValue(pattern)
+                val status = resolution.status.getValue(pattern)
+                if (status == PatternStatus.RESOLVED) {
+                    reporter.patternResolved(pattern, classes.size, PatternSet.strategyFor(pattern))
+                } else {
+                    reporter.patternUnresolved(pattern, status)
+                }
+                ResolvedEntry(spec.target, spec.search, pattern, classes)
+            }
+        }
+        reportResolution(resolution, reporter)
 
-        var resolved = emptyList<ResolvedEntry>()
+        // Phase 2: Search usages of all classes concurrently, then execute all moves,
+        // one refactoring per target package, search options and source root
+        val candidatesByTarget = resolved.groupBy { it.target to it.search }.mapValues { (key, entries) ->
+            describe(project, entries.flatMap { it.classes }.distinct(), key.first)
+        }
+        val searches = candidatesByTarget.keys.map { it.second }.distinct()
+            .associateWith { UsageSearch(project, scope, it, reporter) }
 
-        for (pass in 1..5) {
-            if (pass > 1) {
-                reporter.info("")
-                reporter.info("Pass $pass: retrying resolution...")
-                IndexingHelper.waitForSmartMode(project)
+        val usages = UsagePrecomputation(project)
+        if (!dryRun) {
+            reporter.span("create target packages", "write") {
+                PackageDirectories.getInstance(project).prepare(
+                    candidatesByTarget.flatMap { (key, candidates) -> candidates.map { it.sourceRoot to key.first } }
+                )
             }
 
-            reporter.section("Resolving patterns...")
-            resolved = moveSpecs.flatMap { spec ->
-                spec.sources.map { pattern ->
-                    val classes = ClassResolver.findMatchingClasses(project, pattern)
-                    reporter.patternResolved(pattern, classes.size)
-                    ResolvedEntry(spec.target, pattern, classes)
-                }
+            reporter.section("Searching usages...")
+            val planned = moveSpecs.flatMap { it.usages.entries }.associate { it.key to it.value }
+            val restored = if (planned.isEmpty()) emptySet() else ReadAction.compute<Set<PsiClass>, Exception> {
+                usages.restore(candidatesByTarget.values.flatten()
+                    .mapNotNull { candidate -> planned[candidate.sourceName]?.let { candidate.psiClass to it } }
+                    .toMap())
             }
-
-            val unresolvedCount = resolved.count { it.classes.isEmpty() }
-            if (unresolvedCount == 0) break
+            if (planned.isNotEmpty()) {
+                reporter.info("  Restored usages of ${restored.size}/${planned.size} planned classes")
+            }
+            usages.compute(
+                candidatesByTarget.flatMap { (key, candidates) ->
+                    val search = searches.getValue(key.second)
+                    candidates.filter { it.psiClass !in restored }
+                        .map { it.psiClass to UsagePrecomputation.Target(it.targetName, search) }
+                }.toMap(),
+                reporter
+            )
         }
 
-        // Phase 2: Execute all moves
-        val byTarget = resolved.groupBy { it.target }
-
-        for ((targetPackage, entries) in byTarget) {
+        for ((key, candidates) in candidatesByTarget) {
+            val (targetPackage, searchOptions) = key
             reporter.section("Moving to $targetPackage:")
 
-            val allClasses = entries.flatMap { it.classes }
-            if (allClasses.isEmpty()) {
+            if (candidates.isEmpty()) {
                 reporter.info("  (no classes to move)")
                 continue
             }
 
             if (dryRun) {
-                for (psiClass in allClasses) {
-                    val sourceName = ReadAction.compute<String?, Exception> { psiClass.qualifiedName }
-                        ?: continue
-                    val targetName = "$targetPackage.${ReadAction.compute<String?, Exception> { psiClass.name }}"
-                    reporter.dryRunMove(sourceName, targetName)
-                    results.add(OperationResult("move", sourceName, targetName, ResultStatus.SKIPPED))
+                for (candidate in candidates) {
+                    reporter.dryRunMove(candidate.sourceName, candidate.targetName)
+                    results.add(reporter.result(
+                        OperationResult("move", candidate.sourceName, candidate.targetName, ResultStatus.SKIPPED)
+                    ))
                 }
                 continue
             }
 
-            for (psiClass in allClasses) {
-                val sourceName = ReadAction.compute<String?, Exception> { psiClass.qualifiedName }
-                    ?: continue
-                val sourcePackageName = sourceName.substringBeforeLast('.', "")
-                val targetName = "$targetPackage.${ReadAction.compute<String?, Exception> { psiClass.name }}"
-
-                var moved = false
-                for (attempt in 1..3) {
-                    try {
-                        DumbService.getInstance(project).waitForSmartMode()
-                        moveClass(project, psiClass, targetPackage)
-                        reporter.moveSuccess(sourceName, targetName)
-                        results.add(OperationResult("move", sourceName, targetName, ResultStatus.SUCCESS))
-                        moved = true
-                        break
-                    } catch (e: Exception) {
-                        if (IndexingHelper.isIndexNotReadyException(e) && attempt < 3) {
-                            System.err.println("  Index not ready for $sourceName, retrying (attempt ${attempt + 1}/3)...")
-                            Thread.sleep(2000)
-                        } else {
-                            val error = e.message ?: "Unknown error"
-                            reporter.moveFailure(sourceName, error)
-                            results.add(OperationResult("move", sourceName, targetName, ResultStatus.FAILED, error))
-                            if (!IndexingHelper.isIndexNotReadyException(e)) break
-                        }
+            for ((sourceRoot, group) in candidates.groupBy { it.sourceRoot }) {
+                val search = searches.getValue(searchOptions)
+                for (candidate in moveGroup(project, group, targetPackage, sourceRoot, search, usages, reporter, results)) {
+                    val sourcePackageName = candidate.sourceName.substringBeforeLast('.', "")
+                    if (sourcePackageName.isNotEmpty()) {
+                        sourcePackages.add(sourcePackageName)
                     }
                 }
-
-                if (moved && sourcePackageName.isNotEmpty()) {
-                    sourcePackages.add(sourcePackageName)
-                }
             }
         }
 
         // Phase 3: Cleanup empty packages
         if (!dryRun) {
-            cleanupEmptyPackages(project, sourcePackages, reporter)
+            reporter.span("cleanup empty packages", "write") {
+                cleanupEmptyPackages(project, sourcePackages, reporter)
+            }
         }
 
         return results
     }
 
-    private fun moveClass(project: Project, psiClass: PsiClass, targetPackage: String) {
-        ApplicationManager.getApplication().invokeAndWait {
-            val targetDirectory = WriteCommandAction.writeCommandAction(project)
-                .compute<PsiDirectory, Exception> {
-                    val sourceFile = psiClass.containingFile?.virtualFile
-                    val fileIndex = ProjectRootManager.getInstance(project).fileIndex
-                    val sourceRoot = sourceFile?.let { fileIndex.getSourceRootForFile(it) }
-
-                    if (sourceRoot != null) {
-                        createPackageInSourceRoot(project, targetPackage, sourceRoot)
-                    } else {
-                        createPackageDirectories(project, targetPackage)
-                    }
+    private fun resolvePatterns(
+        project: Project,
+        patterns: List<String>,
+        scope: OperationScope,
+        reporter: ProgressReporter
+    ): IncrementalResolver.Resolution<PsiClass> {
+        val resolver = IncrementalResolver(
+            resolve = { pass, pending ->
+                reporter.span("resolve patterns", "resolve", "pass $pass, ${pending.size} patterns") {
+                    ClassResolver.resolveAll(project, pending, scope.searchScope)
+                }
+            },
+            indexState = { IndexingHelper.indexState(project) },
+            awaitIndex = { pass ->
+                reporter.info("  Pass $pass: index changed, retrying unresolved patterns...")
+                reporter.span("wait for smart mode", "index", "move resolution pass $pass") {
+                    IndexingHelper.waitForSmartMode(project, "move resolution pass $pass")
+                }
+            },
+            isIndexNotReady = IndexingHelper::isIndexNotReadyException
+        )
+        return resolver.resolveAll(patterns.distinct())
+    }
+
+    private fun reportResolution(resolution: IncrementalResolver.Resolution<PsiClass>, reporter: ProgressReporter) {
+        val noMatch = resolution.count(PatternStatus.NO_MATCH)
+        val notReady = resolution.count(PatternStatus.INDEX_NOT_READY)
+        val unresolved = listOfNotNull(
+            "$noMatch without match".takeIf { noMatch > 0 },
+            "$notReady index not ready".takeIf { notReady > 0 }
+        )
+        val suffix = if (unresolved.isEmpty()) "" else " (${unresolved.joinToString(", ")})"
+        reporter.info(
+            "  Resolved ${resolution.count(PatternStatus.RESOLVED)}/${resolution.status.size} patterns " +
+                "in ${resolution.passes} pass${if (resolution.passes != 1) "es" else ""}, " +
+                "${TimeUnit.NANOSECONDS.toMillis(resolution.durationNanos)} ms$suffix"
+        )
+    }
+
+    /**
+     * A class to move, with its names captured before the move changes them.
+     */
+    private data class MoveCandidate(
+        val psiClass: PsiClass,
+        val sourceName: String,
+        val targetName: String,
+        val sourceRoot: VirtualFile?,
+        val sourceFile: String?
+    )
+
+    private fun describe(project: Project, classes: List<PsiClass>, targetPackage: String): List<MoveCandidate> {
+        return ReadAction.compute<List<MoveCandidate>, Exception> {
+            val fileIndex = ProjectRootManager.getInstance(project).fileIndex
+            classes.mapNotNull { psiClass ->
+                val sourceName = psiClass.qualifiedName ?: return@mapNotNull null
+                val sourceFile = psiClass.containingFile?.virtualFile
+                val sourceRoot = sourceFile?.let { fileIndex.getSourceRootForFile(it) }
+                MoveCandidate(psiClass, sourceName, "$targetPackage.${psiClass.name}", sourceRoot, sourceFile?.path)
+            }
+        }
+    }
+
+    /**
+     * Moves a group of classes sharing target package and source root with a single
+     * refactoring, so usages are searched and rewritten in one pass. If the bulk move
+     * fails, classes it did not move are retried one by one. Classes it moved before
+     * failing are reported as failed: the refactoring moves files before it rewrites
+     * references, so theirs may still point to the old package. Results of classes moved
+     * in bulk carry no duration of their own; the bulk move's time is reported once.
+     *
+     * @return the candidates whose files were moved
+     */
+    private fun moveGroup(
+        project: Project,
+        group: List<MoveCandidate>,
+        targetPackage: String,
+        sourceRoot: VirtualFile?,
+        search: UsageSearch,
+        usages: UsagePrecomputation,
+        reporter: ProgressReporter,
+        results: MutableList<OperationResult>
+    ): List<MoveCandidate> {
+        val moved = mutableListOf<MoveCandidate>()
+        var remaining = group
+
+        if (group.size > 1) {
+            val started = System.nanoTime()
+            try {
+                val usageFiles = withIndexRetry(project, "move ${group.size} classes to $targetPackage", reporter) {
+                    moveClasses(project, group.map { it.psiClass }, targetPackage, sourceRoot, search, usages, reporter)
+                }
+                // One refactoring moved them all; its time is reported once instead of per class
+                reporter.info("  Bulk move of ${group.size} classes took ${Timing.elapsedMillis(started)} ms")
+                for (candidate in group) {
+                    moveSucceeded(candidate, null, usageFiles, reporter, results)
                 }
+                remaining = emptyList()
+                moved.addAll(group)
+            } catch (e: Exception) {
+                reporter.info("  Bulk move of ${group.size} classes failed (${e.message}), moving individually...")
+                val (done, pending) = group.partition { isMoved(it) }
+                for (candidate in done) {
+                    val error = "moved before the bulk move failed, references may not be updated (${e.message})"
+                    reporter.moveFailure(candidate.sourceName, error)
+                    results.add(reporter.result(OperationResult(
+                        "move", candidate.sourceName, candidate.targetName, ResultStatus.FAILED, error,
+                        files = movedFiles(candidate, emptyMap())
+                    )))
+                }
+                moved.addAll(done)
+                remaining = pending
+            }
+        }
+
+        for (candidate in remaining) {
+            val started = System.nanoTime()
+            try {
+                val usageFiles = withIndexRetry(project, "move ${candidate.sourceName}", reporter) {
+                    moveClasses(project, listOf(candidate.psiClass), targetPackage, sourceRoot, search, usages, reporter)
+                }
+                moveSucceeded(candidate, Timing.elapsedMillis(started), usageFiles, reporter, results)
+                moved.add(candidate)
+            } catch (e: Exception) {
+                val error = e.message ?: "Unknown error"
+                reporter.moveFailure(candidate.sourceName, error)
+                results.add(reporter.result(OperationResult(
+                    "move", candidate.sourceName, candidate.targetName, ResultStatus.FAILED, error,
+                    durationMs = Timing.elapsedMillis(started)
+                )))
+            }
+        }
+
+        return moved
+    }
+
+    private fun moveSucceeded(
+        candidate: MoveCandidate,
+        durationMs: Long?,
+        usageFiles: Map<PsiElement, Set<String>>,
+        reporter: ProgressReporter,
+        results: MutableList<OperationResult>
+    ) {
+        reporter.moveSuccess(candidate.sourceName, candidate.targetName)
+        results.add(reporter.result(OperationResult(
+            "move", candidate.sourceName, candidate.targetName, ResultStatus.SUCCESS,
+            durationMs = durationMs, files = movedFiles(candidate, usageFiles)
+        )))
+    }
+
+    /** The class's old and new file and the files whose references to it were rewritten. */
+    private fun movedFiles(candidate: MoveCandidate, usageFiles: Map<PsiElement, Set<String>>): List<String> {
+        return ReadAction.compute<List<String>, Exception> {
+            val targetFile = candidate.psiClass.takeIf { it.isValid }?.containingFile?.virtualFile?.path
+            (listOfNotNull(candidate.sourceFile, targetFile) + usageFiles[candidate.psiClass].orEmpty()).distinct()
+        }
+    }
+
+    private fun isMoved(candidate: MoveCandidate): Boolean {
+        return ReadAction.compute<Boolean, Exception> {
+            candidate.psiClass.isValid && candidate.psiClass.qualifiedName == candidate.targetName
+        }
+    }
 
-            VirtualFileManager.getInstance().syncRefresh()
+    /**
+     * Runs [action] in smart mode, retrying while the index turns out not to be ready.
+     */
+    private fun <T> withIndexRetry(project: Project, description: String, reporter: ProgressReporter, action: () -> T): T {
+        val readiness = IndexReadiness.getInstance(project)
+        var attempt = 1
+        while (true) {
+            try {
+                readiness.awaitSmartMode(description, settle = false)
+                return action()
+            } catch (e: Exception) {
+                if (!IndexingHelper.isIndexNotReadyException(e) || attempt >= MAX_ATTEMPTS) throw e
+                attempt++
+                reporter.info("  Index not ready for $description, retrying (attempt $attempt/$MAX_ATTEMPTS)...")
+                readiness.awaitSmartMode("retry $description")
+            }
+        }
+    }
+
+    private fun moveClasses(
+        project: Project,
+        classes: List<PsiClass>,
+        targetPackage: String,
+        sourceRoot: VirtualFile?,
+        search: UsageSearch,
+        usages: UsagePrecomputation,
+        reporter: ProgressReporter
+    ): Map<PsiElement, Set<String>> {
+        var usageFiles = emptyMap<PsiElement, Set<String>>()
+        ApplicationManager.getApplication().invokeAndWait {
+            val targetDirectory = PackageDirectories.getInstance(project).get(sourceRoot, targetPackage)
 
             val packageWrapper = PackageWrapper(PsiManager.getInstance(project), targetPackage)
             val destination = SingleSourceRootMoveDestination(packageWrapper, targetDirectory)
 
             val processor = HeadlessMoveProcessor(
                 project,
-                arrayOf(psiClass),
+                classes.toTypedArray(),
                 destination,
-                true,
-                true,
-                null
+                search,
+                null,
+                usages
             )
 
             processor.setPreviewUsages(false)
-            processor.findAndExecute()
+            usageFiles = processor.findAndExecute(reporter, "$targetPackage (${classes.size} classes)")
 
-            VirtualFileManager.getInstance().syncRefresh()
+            VfsHelper.syncRefresh(project)
         }
+        return usageFiles
     }
 
+    /**
+     * Finds all directories of [sourcePackages] and their parent packages that are now
+     * empty in one read pass, then deletes them bottom-up in a single write command and
+     * refreshes once.
+     */
     private fun cleanupEmptyPackages(project: Project, sourcePackages: Set<String>, reporter: ProgressReporter) {
         if (sourcePackages.isEmpty()) return
 
         reporter.section("Cleaning up empty packages...")
 
-        val sortedPackages = sourcePackages.sortedByDescending { it.count { c -> c == '.' } }
-        val deletedPackages = mutableSetOf<String>()
-
-        for (packageName in sortedPackages) {
-            var currentPackage = packageName
-            while (currentPackage.isNotEmpty()) {
-                if (currentPackage in deletedPackages) {
-                    currentPackage = currentPackage.substringBeforeLast('.', "")
-                    continue
-                }
-
-                val deletedAny = deleteEmptyDirectories(project, currentPackage)
-
-                if (deletedAny) {
-                    deletedPackages.add(currentPackage)
-                    reporter.packageDeleted(currentPackage)
-                    currentPackage = currentPackage.substringBeforeLast('.', "")
-                } else {
-                    break
-                }
+        val emptyDirectories = ReadAction.compute<Map<VirtualFile, String>, Exception> {
+            val facade = JavaPsiFacade.getInstance(project)
+            val fileIndex = ProjectRootManager.getInstance(project).fileIndex
+            val start = sourcePackages.flatMap { packageName ->
+                facade.findPackage(packageName)?.directories.orEmpty().map { it.virtualFile }
             }
+            val finder = EmptyDirectoryFinder<VirtualFile>(
+                parent = { it.parent },
+                children = { it.children.asList() },
+                isDirectory = { it.isDirectory }
+            )
+            finder.find(start) { directory ->
+                val sourceRoot = fileIndex.getSourceRootForFile(directory)
+                sourceRoot == null || sourceRoot == directory
+            }.associateWith { fileIndex.getPackageNameByDirectory(it).orEmpty() }
         }
 
-        if (deletedPackages.isEmpty()) {
-            reporter.info("  No empty packages to remove")
-        }
-
-        ApplicationManager.getApplication().invokeAndWait {
-            VirtualFileManager.getInstance().syncRefresh()
-        }
-    }
-
-    private fun deleteEmptyDirectories(project: Project, packageName: String): Boolean {
-        var deleted = false
-        ApplicationManager.getApplication().invokeAndWait {
-            WriteCommandAction.writeCommandAction(project).run<Exception> {
-                val psiPackage = JavaPsiFacade.getInstance(project).findPackage(packageName) ?: return@run
-                for (dir in psiPackage.directories) {
-                    if (dir.files.isEmpty() && dir.subdirectories.isEmpty()) {
-                        dir.delete()
-                        deleted = true
+        val deletedPackages = sortedSetOf<String>()
+        if (emptyDirectories.isNotEmpty()) {
+            ApplicationManager.getApplication().invokeAndWait {
+                WriteCommandAction.writeCommandAction(project).withName("Remove empty packages").run<Exception> {
+                    for ((directory, packageName) in emptyDirectories) {
+                        // Deepest first, so every directory is empty by the time it is deleted
+                        if (directory.isValid && directory.children.isEmpty()) {
+                            directory.delete(this)
+                            if (packageName.isNotEmpty()) deletedPackages.add(packageName)
+                        }
                     }
                 }
+                VfsHelper.syncRefresh(project)
             }
-            VirtualFileManager.getInstance().syncRefresh()
         }
-        return deleted
-    }
 
-    private fun createPackageInSourceRoot(project: Project, packageName: String, sourceRoot: VirtualFile): PsiDirectory {
-        val baseDir = PsiManager.getInstance(project).findDirectory(sourceRoot)
-            ?: throw IllegalStateException("Cannot find PsiDirectory for source root: ${sourceRoot.path}")
-
-        var currentDir = baseDir
-        for (segment in packageName.split(".")) {
-            val subDir = currentDir.findSubdirectory(segment)
-            currentDir = subDir ?: currentDir.createSubdirectory(segment)
+        deletedPackages.forEach { reporter.packageDeleted(it) }
+        if (deletedPackages.isEmpty()) {
+            reporter.info("  No empty packages to remove")
         }
-
-        return currentDir
     }
 
-    private fun createPackageDirectories(project: Project, packageName: String): PsiDirectory {
-        val sourceRoots = ProjectRootManager.getInstance(project).contentSourceRoots
-
-        if (sourceRoots.isEmpty()) {
-            throw IllegalStateException("No source roots found in project")
-        }
-
-        val baseDir = PsiManager.getInstance(project).findDirectory(sourceRoots.first())
-            ?: throw IllegalStateException("Cannot find base source directory")
-
-        var currentDir = baseDir
-        for (segment in packageName.split(".")) {
-            val subDir = currentDir.findSubdirectory(segment)
-            currentDir = subDir ?: currentDir.createSubdirectory(segment)
-        }
-
-        return currentDir
+    companion object {
+        private const val MAX_ATTEMPTS = 3
     }
 }
@@ -1,12 +1,17 @@
 package ch.riesennet.reforge.operations.move
 
 import ch.riesennet.reforge.operation.OperationSpec
+import ch.riesennet.reforge.operation.UsageLocation
 
 /**
  * Specification for a move operation: move classes matching source patterns
- * to a target package.
+ * to a target package, searching usages as configured by [search].
+ * Classes in [usages], by qualified name, use the usages recorded by `reforge plan`
+ * instead of a search.
  */
 data class MoveSpec(
     val target: String,
-    val sources: List<String>
+    val sources: List<String>,
+    val search: UsageSearchOptions = UsageSearchOptions(),
+    val usages: Map<String, List<UsageLocation>> = emptyMap()
 ) : OperationSpec
@@ -0,0 +1,23 @@
+package ch.riesennet.reforge.operations.move
+
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.psi.search.DelegatingGlobalSearchScope
+import com.intellij.psi.search.GlobalSearchScope
+
+/**
+ * Files of [base] whose text occurrences are searched, restricted by the file globs
+ * and directories of [options]. Candidate files come from the word index filtered by
+ * this scope, so excluded files are never loaded.
+ */
+class TextSearchScope(
+    base: GlobalSearchScope,
+    private val options: UsageSearchOptions,
+    private val basePath: String?
+) : DelegatingGlobalSearchScope(base) {
+
+    override fun contains(file: VirtualFile): Boolean {
+        return super.contains(file) && options.acceptsTextFile(file.path, basePath)
+    }
+
+    override fun toString(): String = "Reforge text search scope (${options.textFiles}, ${options.textDirectories})"
+}
@@ -0,0 +1,146 @@
+package ch.riesennet.reforge.operations.move
+
+import ch.riesennet.reforge.ProgressReporter
+import ch.riesennet.reforge.operation.UsageLocation
+import com.intellij.openapi.application.ReadAction
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.vfs.LocalFileSystem
+import com.intellij.psi.PsiClass
+import com.intellij.psi.PsiFile
+import com.intellij.psi.PsiManager
+import com.intellij.refactoring.util.MoveRenameUsageInfo
+import com.intellij.usageView.UsageInfo
+import com.intellij.util.concurrency.AppExecutorUtil
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Usages of the classes about to be moved, searched concurrently in non-blocking read
+ * actions on a bounded pool before the first move starts.
+ *
+ * Each entry remembers the modification stamps of the files it was computed from and
+ * is discarded once one of them changed, e.g. because an earlier move rewrote imports
+ * in a file referencing the class. [HeadlessMoveProcessor] then searches again itself,
+ * for that class only.
+ * Usages recorded by `reforge plan` are [restore]d from their text ranges instead.
+ */
+class UsagePrecomputation(private val project: Project) {
+
+    /** The qualified name a class is moved to and how its usages are searched. */
+    data class Target(val newName: String, val search: UsageSearch)
+
+    private class Entry(val usages: Array<UsageInfo>, val stamps: Map<PsiFile, Long>)
+
+    private val entries = ConcurrentHashMap<PsiClass, Entry>()
+
+    /**
+     * Searches usages of every class in [targets]. Classes whose search fails are left
+     * out and searched again during the move.
+     */
+    fun compute(targets: Map<PsiClass, Target>, reporter: ProgressReporter) {
+        if (targets.isEmpty()) return
+        val executor = AppExecutorUtil.createBoundedApplicationPoolExecutor("Reforge usage search", PARALLELISM)
+        try {
+            reporter.span("precompute usages", "refactor", "${targets.size} classes") {
+                val futures = targets.map { (psiClass, target) ->
+                    CompletableFuture.supplyAsync({
+                        ReadAction.nonBlocking<Entry?> { search(psiClass, target) }
+                            .inSmartMode(project)
+                            .executeSynchronously()
+                    }, executor).thenAccept { entry -> if (entry != null) entries[psiClass] = entry }
+                }
+                for (future in futures) {
+                    try {
+                        future.join()
+                    } catch (e: Exception) {
+                        reporter.info("  Warning: usage search failed (${e.cause?.message ?: e.message})")
+                    }
+                }
+            }
+            reporter.info("  Precomputed usages for ${entries.size}/${targets.size} classes ($PARALLELISM threads)")
+        } finally {
+            executor.shutdown()
+        }
+    }
+
+    /**
+     * Rebuilds the usages recorded by `reforge plan` for the [planned] classes from their
+     * text ranges instead of searching. A class with a location that no longer holds a
+     * reference to it is left out, to be searched. Must be called in a read action.
+     *
+     * @return the classes whose usages were restored
+     */
+    fun restore(planned: Map<PsiClass, List<UsageLocation>>): Set<PsiClass> {
+        val restored = mutableSetOf<PsiClass>()
+        for ((psiClass, locations) in planned) {
+            if (!psiClass.isValid) continue
+            val usages = mutableListOf<UsageInfo>()
+            for (location in locations) usages.add(referenceAt(location, psiClass) ?: break)
+            if (usages.size < locations.size) continue
+            val files = usages.mapNotNullTo(mutableSetOf()) { it.file } + listOfNotNull(psiClass.containingFile)
+            entries[psiClass] = Entry(usages.toTypedArray(), files.associateWith { it.modificationStamp })
+            restored.add(psiClass)
+        }
+        return restored
+    }
+
+    private fun referenceAt(location: UsageLocation, psiClass: PsiClass): UsageInfo? {
+        val virtualFile = LocalFileSystem.getInstance().findFileByPath(location.path) ?: return null
+        val file = PsiManager.getInstance(project).findFile(virtualFile) ?: return null
+        var element = file.findElementAt(location.start)
+        while (element != null && element !is PsiFile &&
+            element.textRange.startOffset == location.start && element.textRange.endOffset <= location.end
+        ) {
+            val reference = element.reference
+            if (element.textRange.endOffset == location.end && reference != null && reference.isReferenceTo(psiClass)) {
+                return MoveRenameUsageInfo(element, reference, psiClass)
+            }
+            element = element.parent
+        }
+        return null
+    }
+
+    /**
+     * Takes the precomputed usages of those [classes] whose entry is present and still
+     * valid; stale entries are dropped. Must be called in a read action.
+     */
+    fun take(classes: List<PsiClass>): Map<PsiClass, Array<UsageInfo>> {
+        val taken = LinkedHashMap<PsiClass, Array<UsageInfo>>()
+        for (psiClass in classes) {
+            val entry = entries.remove(psiClass) ?: continue
+            if (isValid(entry)) taken[psiClass] = entry.usages
+        }
+        return taken
+    }
+
+    /** Takes the precomputed usages of [psiClass], or null if missing or stale. */
+    fun take(psiClass: PsiClass): Array<UsageInfo>? = take(listOf(psiClass))[psiClass]
+
+    private fun search(psiClass: PsiClass, target: Target): Entry? {
+        if (!psiClass.isValid) return null
+        val usages = target.search.find(psiClass, target.newName)
+        val files = usages.mapNotNullTo(mutableSetOf()) { it.file } + listOfNotNull(psiClass.containingFile)
+        return Entry(usages, files.associateWith { it.modificationStamp })
+    }
+
+    private fun isValid(entry: Entry): Boolean {
+        return entry.stamps.all { (file, stamp) -> file.isValid && file.modificationStamp == stamp } &&
+            entry.usages.all { it.isValid }
+    }
+
+    companion object {
+        /**
+         * Text ranges of [usages] for `reforge plan`, or null if one of them is not a
+         * reference, such as a comment or text occurrence. Must be called in a read action.
+         */
+        fun locate(usages: Array<UsageInfo>): List<UsageLocation>? {
+            return usages.map { usage ->
+                val element = usage.reference?.element?.takeUnless { usage.isNonCodeUsage } ?: return null
+                val path = element.containingFile?.virtualFile?.path ?: return null
+                UsageLocation(path, element.textRange.startOffset, element.textRange.endOffset)
+            }
+        }
+
+        private val PARALLELISM = (Runtime.getRuntime().availableProcessors() - 1).coerceAtLeast(1)
+    }
+}
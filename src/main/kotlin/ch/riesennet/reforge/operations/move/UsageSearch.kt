@@ -0,0 +1,64 @@
+package ch.riesennet.reforge.operations.move
+
+import ch.riesennet.reforge.ProgressReporter
+import ch.riesennet.reforge.operation.OperationScope
+import com.intellij.openapi.project.Project
+import com.intellij.psi.PsiClass
+import com.intellij.refactoring.move.moveClassesOrPackages.MoveClassesOrPackagesUtil
+import com.intellij.refactoring.util.TextOccurrencesUtil
+import com.intellij.usageView.UsageInfo
+import java.util.concurrent.TimeUnit
+
+/**
+ * Searches the usages of a class to move: code references within the operation
+ * [scope], then comment and text occurrences as configured by [options]. Text
+ * occurrences are searched in a [TextSearchScope] and reported per class with count
+ * and duration.
+ *
+ * Must be called in a read action.
+ */
+class UsageSearch(
+    project: Project,
+    private val scope: OperationScope,
+    val options: UsageSearchOptions,
+    private val reporter: ProgressReporter
+) {
+
+    private val searchScope = scope.searchScope
+    private val textScope = if (options.hasTextScope) {
+        TextSearchScope(searchScope, options, project.basePath)
+    } else {
+        searchScope
+    }
+
+    fun find(psiClass: PsiClass, newName: String): Array<UsageInfo> {
+        val qualifiedName = psiClass.qualifiedName
+        scope.warnIfUsedOutside(qualifiedName ?: newName, reporter)
+
+        val usages = MoveClassesOrPackagesUtil.findUsages(psiClass, searchScope, false, false, newName).toMutableList()
+        if (qualifiedName == null || (!options.searchInComments && !options.searchTextOccurrences)) {
+            return usages.toTypedArray()
+        }
+
+        val referenceCount = usages.size
+        val started = System.nanoTime()
+        reporter.span("text search", "refactor", qualifiedName) {
+            if (options.searchInComments) {
+                TextOccurrencesUtil.findNonCodeUsages(
+                    psiClass, searchScope, qualifiedName, true, false, newName, usages
+                )
+            }
+            if (options.searchTextOccurrences) {
+                TextOccurrencesUtil.findNonCodeUsages(
+                    psiClass, textScope, qualifiedName, false, true, newName, usages
+                )
+            }
+        }
+        reporter.textOccurrences(
+            qualifiedName,
+            usages.size - referenceCount,
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started)
+        )
+        return usages.toTypedArray()
+    }
+}
@@ -0,0 +1,53 @@
+package ch.riesennet.reforge.operations.move
+
+import java.nio.file.FileSystems
+import java.nio.file.Path
+import java.nio.file.PathMatcher
+
+/**
+ * How usages of moved classes are searched beyond code references.
+ *
+ * Comment and string occurrences are searched in all project files. Text occurrences
+ * in non-code files can be limited to [textFiles] (globs matched against the file name,
+ * or against the project-relative path if they contain a `/`) and to [textDirectories]
+ * (relative to the project directory). Empty lists do not restrict the search.
+ */
+data class UsageSearchOptions(
+    val searchInComments: Boolean = true,
+    val searchTextOccurrences: Boolean = true,
+    val textFiles: List<String> = emptyList(),
+    val textDirectories: List<String> = emptyList()
+) {
+
+    private val fileMatchers: List<Pair<Boolean, PathMatcher>> by lazy {
+        textFiles.map { glob -> ('/' in glob) to FileSystems.getDefault().getPathMatcher("glob:$glob") }
+    }
+
+    /** Whether text occurrences are searched in only part of the project. */
+    val hasTextScope: Boolean
+        get() = textFiles.isNotEmpty() || textDirectories.isNotEmpty()
+
+    /**
+     * Whether text occurrences are searched in the file at [path], given the project
+     * directory [basePath].
+     */
+    fun acceptsTextFile(path: String, basePath: String?): Boolean {
+        val relativePath = relativize(path, basePath)
+        val inDirectory = textDirectories.isEmpty() || textDirectories.any { directory ->
+            val dir = directory.trim('/').let { if (directory.startsWith('/')) "/$it" else it }
+            val candidate = if (dir.startsWith('/')) path else relativePath
+            candidate == dir || candidate.startsWith("$dir/")
+        }
+        if (!inDirectory) return false
+
+        val fileName = path.substringAfterLast('/')
+        return fileMatchers.isEmpty() || fileMatchers.any { (matchesPath, matcher) ->
+            matcher.matches(Path.of(if (matchesPath) relativePath else fileName))
+        }
+    }
+
+    private fun relativize(path: String, basePath: String?): String {
+        val base = basePath?.trimEnd('/') ?: return path
+        return if (path.startsWith("$base/")) path.removePrefix("$base/") else path
+    }
+}
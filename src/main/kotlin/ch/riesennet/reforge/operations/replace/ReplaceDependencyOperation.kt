@@ -1,18 +1,23 @@
 package ch.riesennet.reforge.operations.replace
 
 import ch.riesennet.reforge.ProgressReporter
+import ch.riesennet.reforge.infrastructure.Timing
+import ch.riesennet.reforge.infrastructure.WriteExecutor
+import ch.riesennet.reforge.operation.FileEdit
+import ch.riesennet.reforge.operation.Footprint
 import ch.riesennet.reforge.operation.Operation
 import ch.riesennet.reforge.operation.OperationResult
+import ch.riesennet.reforge.operation.OperationScope
 import ch.riesennet.reforge.operation.OperationSpec
+import ch.riesennet.reforge.operation.PlanEntry
+import ch.riesennet.reforge.operation.PreCheckResult
+import ch.riesennet.reforge.operation.Preview
+import ch.riesennet.reforge.operation.PreviewAction
 import ch.riesennet.reforge.operation.ResultStatus
-import com.intellij.openapi.application.ApplicationManager
 import com.intellij.openapi.application.ReadAction
-import com.intellij.openapi.command.WriteCommandAction
-import com.intellij.openapi.project.DumbService
 import com.intellij.openapi.project.Project
-import com.intellij.openapi.vfs.VirtualFileManager
 import com.intellij.psi.*
-import com.intellij.psi.search.GlobalSearchScope
+import com.intellij.psi.util.PsiTreeUtil
 
 /**
  * Replace dependency operation: finds fields, constructor parameters, and method parameters
@@ -33,133 +38,235 @@ class ReplaceDependencyOperation : Operation {
         return ReplaceDependencySpec(inClass = inClass, replace = replace, with = with)
     }
 
+    override fun footprint(spec: OperationSpec): Footprint {
+        val replace = spec as ReplaceDependencySpec
+        return Footprint.of(replace.inClass, replace.replace, replace.with)
+    }
+
+    /** The class whose dependency is replaced. */
+    override fun label(spec: OperationSpec): String = (spec as ReplaceDependencySpec).inClass
+
+    /**
+     * The class still exists. The rewritten declarations themselves are covered by the
+     * journal's fingerprint of the class file.
+     */
+    override fun isApplied(project: Project, result: OperationResult, scope: OperationScope): Boolean {
+        return JavaPsiFacade.getInstance(project).findClass(result.source, scope.searchScope) != null
+    }
+
+    /**
+     * Satisfied if both types exist and the class declares a field, parameter or return
+     * type of the replacement but none of the replaced type. A type that does not resolve
+     * stays pending, so the replacement reports it.
+     */
+    override fun preCheck(project: Project, spec: OperationSpec, scope: OperationScope): PreCheckResult {
+        val replace = spec as ReplaceDependencySpec
+        val facade = JavaPsiFacade.getInstance(project)
+        val psiClass = facade.findClass(replace.inClass, scope.searchScope)
+            ?: return PreCheckResult.pending(spec)
+        if (facade.findClass(replace.replace, scope.searchScopeWithLibraries) == null ||
+            facade.findClass(replace.with, scope.searchScopeWithLibraries) == null
+        ) {
+            return PreCheckResult.pending(spec)
+        }
+        val declaredTypes = psiClass.fields.map { it.type } +
+            psiClass.methods.flatMap { method -> method.parameterList.parameters.map { it.type } } +
+            psiClass.methods.mapNotNull { it.returnType }
+        val replaced = declaredTypes.none { it.canonicalText == replace.replace } &&
+            declaredTypes.any { it.canonicalText == replace.with }
+        return if (replaced) {
+            PreCheckResult.satisfied(replace.inClass, describe(replace))
+        } else {
+            PreCheckResult.pending(spec)
+        }
+    }
+
+    /**
+     * The file of the class it edits.
+     */
+    override fun plan(project: Project, spec: OperationSpec, scope: OperationScope, reporter: ProgressReporter): PlanEntry {
+        val replace = spec as ReplaceDependencySpec
+        val path = ReadAction.compute<String?, Exception> {
+            JavaPsiFacade.getInstance(project).findClass(replace.inClass, scope.searchScope)?.containingFile?.virtualFile?.path
+        }
+        return PlanEntry(files = listOfNotNull(path))
+    }
+
+    /**
+     * Rewrites a non-physical copy of the class file, the way [execute] rewrites the file.
+     */
+    override fun preview(project: Project, spec: OperationSpec, scope: OperationScope, reporter: ProgressReporter): Preview {
+        val replace = spec as ReplaceDependencySpec
+        return ReadAction.nonBlocking<Preview> { previewReplace(project, replace, scope) }
+            .inSmartMode(project)
+            .executeSynchronously()
+    }
+
+    private fun previewReplace(project: Project, spec: ReplaceDependencySpec, scope: OperationScope): Preview {
+        val description = describe(spec)
+        val facade = JavaPsiFacade.getInstance(project)
+        val psiClass = facade.findClass(spec.inClass, scope.searchScope)
+            ?: return Preview(emptyList(), listOf(PreviewAction(spec.inClass, description, error = "Class not found: ${spec.inClass}")))
+        val replacementClass = facade.findClass(spec.with, scope.searchScopeWithLibraries)
+            ?: return Preview(emptyList(), listOf(PreviewAction(spec.inClass, description, error = "Replacement type not found: ${spec.with}")))
+
+        val file = psiClass.containingFile
+        val copy = file.copy() as PsiFile
+        val count = rewrite(project, PsiTreeUtil.findSameElementInCopy(psiClass, copy), spec, replacementClass)
+        val path = file.virtualFile.path
+        return Preview(
+            listOf(FileEdit(path, file.text, copy.text)),
+            listOf(PreviewAction(spec.inClass, description, listOf(path), count))
+        )
+    }
+
     override fun execute(
         project: Project,
         specs: List<OperationSpec>,
         reporter: ProgressReporter,
-        dryRun: Boolean
+        dryRun: Boolean,
+        scope: OperationScope
     ): List<OperationResult> {
+        val replaceSpecs = specs.filterIsInstance<ReplaceDependencySpec>()
         val results = mutableListOf<OperationResult>()
 
-        for (spec in specs.filterIsInstance<ReplaceDependencySpec>()) {
-            val description = "${spec.replace} → ${spec.with} in ${spec.inClass}"
-            reporter.section("Replacing dependency: $description")
-
-            if (dryRun) {
+        if (dryRun) {
+            for (spec in replaceSpecs) {
+                reporter.section("Replacing dependency: ${describe(spec)}")
                 reporter.info("  [dry-run] would replace ${spec.replace} with ${spec.with} in ${spec.inClass}")
-                results.add(OperationResult(
-                    "replace-dependency", spec.inClass, description,
+                results.add(reporter.result(OperationResult(
+                    "replace-dependency", spec.inClass, describe(spec),
                     ResultStatus.SKIPPED
-                ))
-                continue
+                )))
             }
+            return results
+        }
 
+        WriteExecutor.getInstance(project).runChunked(replaceSpecs, "replace-dependency", reporter) { spec ->
+            val description = describe(spec)
+            reporter.section("Replacing dependency: $description")
+            val started = System.nanoTime()
             try {
-                DumbService.getInstance(project).waitForSmartMode()
-                replaceDependency(project, spec, reporter)
+                val files = reporter.span("replace dependency", "refactor", spec.inClass) {
+                    replaceDependency(project, spec, scope, reporter)
+                }
                 reporter.operationSuccess("replace-dependency", spec.inClass, description)
-                results.add(OperationResult(
+                results.add(reporter.result(OperationResult(
                     "replace-dependency", spec.inClass, description,
-                    ResultStatus.SUCCESS
-                ))
+                    ResultStatus.SUCCESS, durationMs = Timing.elapsedMillis(started), files = files
+                )))
             } catch (e: Exception) {
                 val error = e.message ?: "Unknown error"
                 reporter.operationFailure("replace-dependency", spec.inClass, error)
-                results.add(OperationResult(
+                results.add(reporter.result(OperationResult(
                     "replace-dependency", spec.inClass, description,
-                    ResultStatus.FAILED, error
-                ))
+                    ResultStatus.FAILED, error, durationMs = Timing.elapsedMillis(started)
+                )))
             }
         }
 
         return results
     }
 
-    private fun replaceDependency(project: Project, spec: ReplaceDependencySpec, reporter: ProgressReporter) {
-        ApplicationManager.getApplication().invokeAndWait {
-            val psiClass = ReadAction.compute<PsiClass?, Exception> {
-                JavaPsiFacade.getInstance(project)
-                    .findClass(spec.inClass, GlobalSearchScope.projectScope(project))
-            } ?: throw IllegalStateException("Class not found: ${spec.inClass}")
-
-            val replacementClass = ReadAction.compute<PsiClass?, Exception> {
-                JavaPsiFacade.getInstance(project)
-                    .findClass(spec.with, GlobalSearchScope.allScope(project))
-            } ?: throw IllegalStateException("Replacement type not found: ${spec.with}")
-
-            WriteCommandAction.writeCommandAction(project).run<Exception> {
-                val factory = JavaPsiFacade.getElementFactory(project)
-                val newType = factory.createType(replacementClass)
-                val oldSimpleName = spec.replace.substringAfterLast('.')
-                var replacementCount = 0
-
-                // Replace field types
-                for (field in psiClass.fields) {
-                    if (field.type.canonicalText == spec.replace ||
-                        field.type.presentableText == oldSimpleName) {
-                        field.typeElement?.replace(factory.createTypeElement(newType))
-                        replacementCount++
-                    }
-                }
+    private fun describe(spec: ReplaceDependencySpec): String = "${spec.replace} → ${spec.with} in ${spec.inClass}"
 
-                // Replace constructor parameter types
-                for (constructor in psiClass.constructors) {
-                    for (param in constructor.parameterList.parameters) {
-                        if (param.type.canonicalText == spec.replace ||
-                            param.type.presentableText == oldSimpleName) {
-                            param.typeElement?.replace(factory.createTypeElement(newType))
-                            replacementCount++
-                        }
-                    }
+    /**
+     * Runs inside the write action of a [WriteExecutor] chunk.
+     *
+     * @return path of the rewritten class file
+     */
+    private fun replaceDependency(
+        project: Project,
+        spec: ReplaceDependencySpec,
+        scope: OperationScope,
+        reporter: ProgressReporter
+    ): List<String> {
+        val psiClass = JavaPsiFacade.getInstance(project).findClass(spec.inClass, scope.searchScope)
+            ?: throw IllegalStateException("Class not found: ${spec.inClass}")
+
+        val replacementClass = JavaPsiFacade.getInstance(project).findClass(spec.with, scope.searchScopeWithLibraries)
+            ?: throw IllegalStateException("Replacement type not found: ${spec.with}")
+
+        val replacementCount = rewrite(project, psiClass, spec, replacementClass)
+        reporter.info("  Replaced $replacementCount reference(s)")
+        return listOfNotNull(psiClass.containingFile?.virtualFile?.path)
+    }
+
+    /**
+     * Replaces the declared types of [psiClass], physical or a preview copy, and updates
+     * the imports of its file.
+     *
+     * @return the number of replaced type references
+     */
+    private fun rewrite(project: Project, psiClass: PsiClass, spec: ReplaceDependencySpec, replacementClass: PsiClass): Int {
+        val factory = JavaPsiFacade.getElementFactory(project)
+        val newType = factory.createType(replacementClass)
+        val oldSimpleName = spec.replace.substringAfterLast('.')
+        var replacementCount = 0
+
+        // Replace field types
+        for (field in psiClass.fields) {
+            if (field.type.canonicalText == spec.replace ||
+                field.type.presentableText == oldSimpleName) {
+                field.typeElement?.replace(factory.createTypeElement(newType))
+                replacementCount++
+            }
+        }
+
+        // Replace constructor parameter types
+        for (constructor in psiClass.constructors) {
+            for (param in constructor.parameterList.parameters) {
+                if (param.type.canonicalText == spec.replace ||
+                    param.type.presentableText == oldSimpleName) {
+                    param.typeElement?.replace(factory.createTypeElement(newType))
+                    replacementCount++
                 }
+            }
+        }
 
-                // Replace method parameter types
-                for (method in psiClass.methods) {
-                    if (method.isConstructor) continue
-                    for (param in method.parameterList.parameters) {
-                        if (param.type.canonicalText == spec.replace ||
-                            param.type.presentableText == oldSimpleName) {
-                            param.typeElement?.replace(factory.createTypeElement(newType))
-                            replacementCount++
-                        }
-                    }
-                    // Replace return type
-                    val returnType = method.returnTypeElement
-                    if (returnType != null && (method.returnType?.canonicalText == spec.replace ||
-                                returnType.text == oldSimpleName)) {
-                        returnType.replace(factory.createTypeElement(newType))
-                        replacementCount++
-                    }
+        // Replace method parameter types
+        for (method in psiClass.methods) {
+            if (method.isConstructor) continue
+            for (param in method.parameterList.parameters) {
+                if (param.type.canonicalText == spec.replace ||
+                    param.type.presentableText == oldSimpleName) {
+                    param.typeElement?.replace(factory.createTypeElement(newType))
+                    replacementCount++
                 }
+            }
+            // Replace return type
+            val returnType = method.returnTypeElement
+            if (returnType != null && (method.returnType?.canonicalText == spec.replace ||
+                        returnType.text == oldSimpleName)) {
+                returnType.replace(factory.createTypeElement(newType))
+                replacementCount++
+            }
+        }
 
-                // Update imports: add new import, remove old if no longer used
-                val javaFile = psiClass.containingFile as? PsiJavaFile
-                if (javaFile != null) {
-                    val importList = javaFile.importList
-                    if (importList != null) {
-                        // Add import for replacement type
-                        val newImport = factory.createImportStatement(replacementClass)
-                        importList.add(newImport)
-
-                        // Remove old import if no longer referenced
-                        val oldImport = importList.importStatements.find {
-                            it.qualifiedName == spec.replace
-                        }
-                        if (oldImport != null) {
-                            // Check if old type is still referenced anywhere in the file
-                            val stillUsed = javaFile.text.contains(oldSimpleName)
-                            if (!stillUsed || replacementCount > 0) {
-                                // Be conservative: only remove if we replaced all usages
-                                oldImport.delete()
-                            }
-                        }
+        // Update imports: add new import, remove old if no longer used
+        val javaFile = psiClass.containingFile as? PsiJavaFile
+        if (javaFile != null) {
+            val importList = javaFile.importList
+            if (importList != null) {
+                // Add import for replacement type
+                val newImport = factory.createImportStatement(replacementClass)
+                importList.add(newImport)
+
+                // Remove old import if no longer referenced
+                val oldImport = importList.importStatements.find {
+                    it.qualifiedName == spec.replace
+                }
+                if (oldImport != null) {
+                    // Check if old type is still referenced anywhere in the file
+                    val stillUsed = javaFile.text.contains(oldSimpleName)
+                    if (!stillUsed || replacementCount > 0) {
+                        // Be conservative: only remove if we replaced all usages
+                        oldImport.delete()
                     }
                 }
-
-                reporter.info("  Replaced $replacementCount reference(s)")
             }
-
-            VirtualFileManager.getInstance().syncRefresh()
         }
+
+        return replacementCount
     }
 }
@@ -73,4 +73,12 @@ class ClassResolverTest {
         assertTrue(ClassResolver.matches("com.example.*Task*", "com.example.TaskService"))
         assertFalse(ClassResolver.matches("com.example.*Task*", "com.example.sub.MyTaskService"))
     }
+
+    @Test
+    fun `compiled patterns are cached`() {
+        val first = ClassResolver.compiledPattern("com.example.**.*Service")
+
+        assertSame(first, ClassResolver.compiledPattern("com.example.**.*Service"))
+        assertEquals(ClassResolver.patternToRegex("com.example.**.*Service").pattern, first.pattern)
+    }
 }
@@ -0,0 +1,95 @@
+package ch.riesennet.reforge
+
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+
+class IncrementalResolverTest {
+
+    private val stableIndex = IndexState(dumb = false, modificationCount = 1)
+
+    @Test
+    fun `stops after one pass when the index is stable`() {
+        val resolver = IncrementalResolver<String>(
+            resolve = { _, patterns -> patterns.associateWith { if (it == "a.*") listOf("a.Foo") else emptyList() } },
+            indexState = { stableIndex },
+            awaitIndex = { fail("should not wait") }
+        )
+
+        val resolution = resolver.resolveAll(listOf("a.*", "b.*"))
+
+        assertEquals(1, resolution.passes)
+        assertEquals(listOf("a.Foo"), resolution.matches["a.*"])
+        assertEquals(PatternStatus.RESOLVED, resolution.status["a.*"])
+        assertEquals(PatternStatus.NO_MATCH, resolution.status["b.*"])
+    }
+
+    @Test
+    fun `retries only unresolved patterns while the index changes`() {
+        var count = 0L
+        val requested = mutableListOf<List<String>>()
+        val resolver = IncrementalResolver<String>(
+            resolve = { pass, patterns ->
+                requested.add(patterns)
+                patterns.associateWith { if (it == "a.*" || pass == 2) listOf("$it match") else emptyList() }
+            },
+            indexState = { IndexState(dumb = false, modificationCount = count++) },
+            awaitIndex = {}
+        )
+
+        val resolution = resolver.resolveAll(listOf("a.*", "b.*"))
+
+        assertEquals(listOf(listOf("a.*", "b.*"), listOf("b.*")), requested)
+        assertEquals(2, resolution.passes)
+        assertEquals(listOf("b.* match"), resolution.matches["b.*"])
+        assertEquals(0, resolution.count(PatternStatus.NO_MATCH))
+    }
+
+    @Test
+    fun `reports index not ready when passes run out in dumb mode`() {
+        var waits = 0
+        val resolver = IncrementalResolver<String>(
+            resolve = { _, patterns -> patterns.associateWith { emptyList() } },
+            indexState = { IndexState(dumb = true, modificationCount = 1) },
+            awaitIndex = { waits++ },
+            maxPasses = 3
+        )
+
+        val resolution = resolver.resolveAll(listOf("a.*"))
+
+        assertEquals(3, resolution.passes)
+        assertEquals(2, waits)
+        assertEquals(PatternStatus.INDEX_NOT_READY, resolution.status["a.*"])
+    }
+
+    @Test
+    fun `index not ready failure counts as unstable pass`() {
+        var pass = 0
+        val resolver = IncrementalResolver<String>(
+            resolve = { _, patterns ->
+                if (++pass == 1) throw IllegalStateException("index not ready")
+                patterns.associateWith { listOf("match") }
+            },
+            indexState = { stableIndex },
+            awaitIndex = {},
+            isIndexNotReady = { it is IllegalStateException }
+        )
+
+        val resolution = resolver.resolveAll(listOf("a.*"))
+
+        assertEquals(2, resolution.passes)
+        assertEquals(PatternStatus.RESOLVED, resolution.status["a.*"])
+    }
+
+    @Test
+    fun `other failures propagate`() {
+        val resolver = IncrementalResolver<String>(
+            resolve = { _, _ -> throw IllegalArgumentException("boom") },
+            indexState = { stableIndex },
+            awaitIndex = {}
+        )
+
+        assertThrows(IllegalArgumentException::class.java) {
+            resolver.resolveAll(listOf("a.*"))
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package ch.riesennet.reforge
+
+import ch.riesennet.reforge.operation.OperationResult
+import ch.riesennet.reforge.operation.ResultStatus
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+import java.io.StringWriter
+
+class NdjsonResultWriterTest {
+
+    @Test
+    fun `writes one result record per line`() {
+        val out = StringWriter()
+        val writer = NdjsonResultWriter(out)
+
+        writer.onResult(OperationResult(
+            "move", "com.a.Foo", "com.b.Foo", ResultStatus.SUCCESS,
+            durationMs = 12, files = listOf("/src/com/b/Foo.java")
+        ))
+        writer.onResult(OperationResult("move", "com.a.Bar", "com.b.Bar", ResultStatus.FAILED, "boom"))
+
+        val lines = out.toString().lines().filter { it.isNotEmpty() }
+        assertEquals(2, lines.size)
+        assertEquals(
+            "{\"type\":\"result\",\"action\":\"move\",\"source\":\"com.a.Foo\",\"target\":\"com.b.Foo\"," +
+                "\"status\":\"SUCCESS\",\"error\":null,\"durationMs\":12,\"files\":[\"/src/com/b/Foo.java\"]}",
+            lines[0]
+        )
+        assertTrue(lines[1].contains("\"status\":\"FAILED\",\"error\":\"boom\",\"durationMs\":null"))
+    }
+
+    @Test
+    fun `writes summary record`() {
+        val out = StringWriter()
+        NdjsonResultWriter(out).onSummary(RunSummary(succeeded = 3, failed = 1, skipped = 0, durationMs = 500))
+
+        assertEquals(
+            "{\"type\":\"summary\",\"succeeded\":3,\"failed\":1,\"skipped\":0,\"rolledBack\":0,\"durationMs\":500}\n",
+            out.toString()
+        )
+    }
+}
@@ -0,0 +1,118 @@
+package ch.riesennet.reforge
+
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+
+class PatternSetTest {
+
+    @Test
+    fun `separates exact and glob patterns`() {
+        val set = PatternSet(listOf("com.a.Foo", "com.a.*", "com.b.**", "com.a.Foo"))
+
+        assertEquals(listOf("com.a.Foo"), set.exactPatterns)
+        assertEquals(listOf("com.a.*", "com.b.**"), set.globPatterns)
+        assertTrue(set.hasGlobs())
+    }
+
+    @Test
+    fun `matches all globs for a name`() {
+        val set = PatternSet(listOf("com.example.Task*", "com.example.**.*Service", "**.*Service", "org.*"))
+
+        assertEquals(
+            setOf("com.example.Task*", "com.example.**.*Service", "**.*Service"),
+            set.matchingGlobs("com.example.TaskService").toSet()
+        )
+        assertEquals(listOf("org.*"), set.matchingGlobs("org.Foo"))
+        assertTrue(set.matchingGlobs("net.Foo").isEmpty())
+    }
+
+    @Test
+    fun `agrees with single pattern matching`() {
+        val patterns = listOf(
+            "com.example.*", "com.example.**", "com.example.**.Foo", "com.example.**.*Entity",
+            "**.Foo", "com.*.Foo", "com.example.Foo*"
+        )
+        val names = listOf(
+            "com.example.Foo", "com.example.sub.Foo", "com.example.sub.deep.UserEntity",
+            "com.other.Foo", "org.Foo", "com.example.FooBar", "com.exampleX.Foo"
+        )
+        val set = PatternSet(patterns)
+
+        for (name in names) {
+            val expected = patterns.filter { ClassResolver.matches(it, name) }.toSet()
+            assertEquals(expected, set.matchingGlobs(name).toSet(), name)
+        }
+    }
+
+    @Test
+    fun `literal prefix is the text before the first wildcard`() {
+        assertEquals("com.example.Task", PatternSet.literalPrefix("com.example.Task*"))
+        assertEquals("com.acme.", PatternSet.literalPrefix("com.acme.**.*Entity"))
+        assertEquals("", PatternSet.literalPrefix("**.Foo"))
+    }
+
+    @Test
+    fun `package prefix stops at the last dot before the first wildcard`() {
+        assertEquals("com.example", PatternSet.packagePrefix("com.example.Task*"))
+        assertEquals("com.acme.billing", PatternSet.packagePrefix("com.acme.billing.**.*Entity"))
+        assertEquals("com", PatternSet.packagePrefix("com.example**"))
+        assertEquals("", PatternSet.packagePrefix("**.*Repository"))
+        assertEquals("", PatternSet.packagePrefix("Task*"))
+    }
+
+    @Test
+    fun `package depth counts levels below the prefix`() {
+        assertEquals(0, PatternSet.packageDepth("com.example.Task*"))
+        assertEquals(1, PatternSet.packageDepth("com.*.Foo"))
+        assertEquals(2, PatternSet.packageDepth("com.example.*.*.Foo"))
+        assertNull(PatternSet.packageDepth("com.acme.**.*Entity"))
+        assertNull(PatternSet.packageDepth("com.example.**"))
+    }
+
+    @Test
+    fun `strategy prefers bounded package walks, then short names`() {
+        assertEquals(ResolutionStrategy.EXACT, PatternSet.strategyFor("com.example.Foo"))
+        assertEquals(ResolutionStrategy.PACKAGE_PREFIX, PatternSet.strategyFor("com.example.Task*"))
+        assertEquals(ResolutionStrategy.PACKAGE_PREFIX, PatternSet.strategyFor("com.*.Foo"))
+        assertEquals(ResolutionStrategy.SHORT_NAME_INDEX, PatternSet.strategyFor("com.acme.**.*Entity"))
+        assertEquals(ResolutionStrategy.SHORT_NAME_INDEX, PatternSet.strategyFor("**.*Repository"))
+        assertEquals(ResolutionStrategy.SHORT_NAME_INDEX, PatternSet.strategyFor("*.Foo"))
+        assertEquals(ResolutionStrategy.PACKAGE_PREFIX, PatternSet.strategyFor("com.example.**"))
+        assertEquals(ResolutionStrategy.FULL_SCAN, PatternSet.strategyFor("**.*"))
+        assertEquals(ResolutionStrategy.FULL_SCAN, PatternSet.strategyFor("**"))
+    }
+
+    @Test
+    fun `simple name glob is the selective last segment`() {
+        assertEquals("*Entity", PatternSet.simpleNameGlob("com.acme.**.*Entity"))
+        assertEquals("Foo", PatternSet.simpleNameGlob("**.Foo"))
+        assertEquals("Task*", PatternSet.simpleNameGlob("Task*"))
+        assertNull(PatternSet.simpleNameGlob("com.example.*"))
+        assertNull(PatternSet.simpleNameGlob("com.example.**"))
+    }
+
+    @Test
+    fun `matching includes exact patterns`() {
+        val set = PatternSet(listOf("Foo", "*Entity", "Fo*"))
+
+        assertEquals(setOf("Foo", "Fo*"), set.matching("Foo").toSet())
+        assertEquals(listOf("*Entity"), set.matching("UserEntity"))
+    }
+
+    @Test
+    fun `globsUsing filters by strategy`() {
+        val set = PatternSet(listOf("com.a.*", "**.Foo", "**", "com.b.Bar"))
+
+        assertEquals(listOf("com.a.*"), set.globsUsing(ResolutionStrategy.PACKAGE_PREFIX))
+        assertEquals(listOf("**.Foo"), set.globsUsing(ResolutionStrategy.SHORT_NAME_INDEX))
+        assertEquals(listOf("**"), set.globsUsing(ResolutionStrategy.FULL_SCAN))
+    }
+
+    @Test
+    fun `empty set has no globs`() {
+        val set = PatternSet(emptyList())
+
+        assertFalse(set.hasGlobs())
+        assertTrue(set.matchingGlobs("com.Foo").isEmpty())
+    }
+}
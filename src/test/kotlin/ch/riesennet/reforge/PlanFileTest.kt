@@ -0,0 +1,110 @@
+package ch.riesennet.reforge
+
+import ch.riesennet.reforge.operation.PlanEntry
+import ch.riesennet.reforge.operation.PlannedClass
+import ch.riesennet.reforge.operation.UsageLocation
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.io.File
+
+class PlanFileTest {
+
+    @TempDir
+    lateinit var dir: File
+
+    private val planFile get() = File(dir, "plan.yaml")
+
+    private val sources get() = File(dir, "src")
+
+    private fun file(name: String, content: String) = File(dir, name).apply { writeText(content) }
+
+    private fun plan(): PlanFile {
+        val config = file("reforge.yaml", "operations: []")
+        val foo = file("Foo.java", "class Foo {}")
+        val user = file("User.java", "class User { Foo foo; }")
+        val bar = file("Bar.java", "class Bar {}")
+        val service = file("Service.java", "class Service {}")
+        File(sources, "com/a").mkdirs()
+        File(sources, "com/a/Foo.java").writeText("package com.a; class Foo {}")
+        return PlanFile.create(config, mapOf(
+            0 to PlanEntry(
+                classes = mapOf(
+                    "com.a.Foo" to PlannedClass(listOf(foo.path, user.path), listOf(UsageLocation(user.path, 13, 16))),
+                    "com.a.Bar" to PlannedClass(listOf(bar.path), null)
+                ),
+                unresolved = listOf("com.a.Missing*")
+            ),
+            2 to PlanEntry(files = listOf(service.path))
+        ), listOf(sources))
+    }
+
+    @Test
+    fun `written plan reads back`() {
+        val plan = plan()
+
+        plan.write(planFile)
+
+        assertEquals(plan, PlanFile.read(planFile))
+    }
+
+    @Test
+    fun `fingerprints every file the entries name`() {
+        val plan = plan()
+
+        assertEquals(4, plan.files.size)
+        assertEquals(RunJournal.fingerprint(File(dir, "User.java")), plan.files[File(dir, "User.java").path])
+    }
+
+    @Test
+    fun `unchanged entry is valid as planned`() {
+        val plan = plan()
+
+        assertEquals(plan.entries[0], plan.validEntry(0))
+        assertEquals(plan.entries[2], plan.validEntry(2))
+        assertNull(plan.validEntry(1))
+    }
+
+    @Test
+    fun `class whose usage file changed loses its usages`() {
+        val plan = plan()
+        File(dir, "User.java").writeText("class User { com.a.Foo foo; }")
+
+        val entry = plan.validEntry(0)!!
+
+        assertNull(entry.classes.getValue("com.a.Foo").usages)
+        assertEquals(listOf("com.a.Missing*"), entry.unresolved)
+    }
+
+    @Test
+    fun `entry whose own file changed is not valid`() {
+        val plan = plan()
+        File(dir, "Service.java").delete()
+
+        assertNull(plan.validEntry(2))
+    }
+
+    @Test
+    fun `untouched sources are unchanged`() {
+        val plan = plan()
+
+        assertFalse(plan.sourcesChanged(listOf(sources)))
+    }
+
+    @Test
+    fun `file created after the plan invalidates resolved entries`() {
+        val plan = plan()
+        File(sources, "com/a/User.java").writeText("package com.a; class User { Foo foo; }")
+
+        assertTrue(plan.sourcesChanged(listOf(sources)))
+        assertNull(plan.validEntry(0, sourcesChanged = true))
+        assertEquals(plan.entries[2], plan.validEntry(2, sourcesChanged = true))
+    }
+
+    @Test
+    fun `read throws on missing plan file`() {
+        val ex = assertThrows(IllegalArgumentException::class.java) { PlanFile.read(planFile) }
+
+        assertEquals("Plan file does not exist: ${planFile.path}", ex.message)
+    }
+}
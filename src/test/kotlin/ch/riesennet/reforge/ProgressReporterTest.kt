@@ -1,7 +1,11 @@
 package ch.riesennet.reforge
 
+import ch.riesennet.reforge.operation.OperationResult
+import ch.riesennet.reforge.operation.ResultStatus
 import org.junit.jupiter.api.Assertions.*
 import org.junit.jupiter.api.Test
+import java.io.ByteArrayOutputStream
+import java.io.PrintStream
 
 class ProgressReporterTest {
 
@@ -12,83 +16,122 @@ class ProgressReporterTest {
     }
 
     @Test
-    fun `initial stats are all zero`() {
-        val reporter = ProgressReporter()
-        val (moved, failed, skipped) = reporter.getStats()
-        assertEquals(0, moved)
-        assertEquals(0, failed)
-        assertEquals(0, skipped)
+    fun `console lines do not count as results`() {
+        val buffer = ByteArrayOutputStream()
+        val reporter = ProgressReporter(PrintStream(buffer, true, Charsets.UTF_8))
+        reporter.moveSuccess("com.A", "com.B")
+        reporter.moveFailure("com.C", "some error")
+        reporter.moveSkipped("com.D", "already exists")
+        reporter.operationFailure("replace-dependency", "com.E", "error")
+
+        assertEquals(
+            listOf(
+                "  ✓ com.A → com.B",
+                "  ✗ com.C (error: some error)",
+                "  - com.D (skipped: already exists)",
+                "  ✗ [replace-dependency] com.E (error: error)"
+            ),
+            buffer.toString(Charsets.UTF_8).lines().filter { it.isNotEmpty() }
+        )
+        assertFalse(reporter.hasFailures())
+        assertEquals(0, reporter.resultCount(ResultStatus.SUCCESS))
     }
 
     @Test
-    fun `moveSuccess increments moved count`() {
+    fun `hasFailures is false when only successes and skips`() {
         val reporter = ProgressReporter()
-        reporter.moveSuccess("com.A", "com.B")
-        reporter.moveSuccess("com.C", "com.D")
+        reporter.result(OperationResult("move", "com.A", "com.B", ResultStatus.SUCCESS))
+        reporter.result(OperationResult("move", "com.C", "com.D", ResultStatus.SKIPPED, "reason"))
 
-        val (moved, _, _) = reporter.getStats()
-        assertEquals(2, moved)
+        assertFalse(reporter.hasFailures())
     }
 
     @Test
-    fun `moveFailure increments failed count and records failure`() {
+    fun `result notifies listeners immediately and counts by status`() {
         val reporter = ProgressReporter()
-        reporter.moveFailure("com.A", "some error")
-
-        val (_, failed, _) = reporter.getStats()
-        assertEquals(1, failed)
+        val received = mutableListOf<String>()
+        reporter.addResultListener(object : ResultListener {
+            override fun onResult(result: OperationResult) {
+                received.add(result.source)
+            }
+        })
+
+        reporter.result(OperationResult("move", "com.A", "com.B", ResultStatus.SUCCESS))
+        assertEquals(listOf("com.A"), received)
+        reporter.result(OperationResult("move", "com.C", "com.D", ResultStatus.FAILED, "err"))
+
+        assertEquals(listOf("com.A", "com.C"), received)
+        assertEquals(1, reporter.resultCount(ResultStatus.SUCCESS))
+        assertEquals(1, reporter.resultCount(ResultStatus.FAILED))
+        assertEquals(listOf("com.C"), reporter.failedResults().map { it.source })
         assertTrue(reporter.hasFailures())
     }
 
     @Test
-    fun `moveSkipped increments skipped count`() {
+    fun `publishSummary passes counts to listeners`() {
         val reporter = ProgressReporter()
-        reporter.moveSkipped("com.A", "already exists")
-
-        val (_, _, skipped) = reporter.getStats()
-        assertEquals(1, skipped)
+        val summaries = mutableListOf<RunSummary>()
+        reporter.addResultListener(object : ResultListener {
+            override fun onResult(result: OperationResult) {}
+            override fun onSummary(summary: RunSummary) {
+                summaries.add(summary)
+            }
+        })
+        reporter.result(OperationResult("move", "com.A", "com.B", ResultStatus.SUCCESS))
+        reporter.result(OperationResult("move", "com.C", "com.D", ResultStatus.SKIPPED))
+
+        val summary = reporter.publishSummary(durationMs = 42)
+
+        assertEquals(RunSummary(succeeded = 1, failed = 0, skipped = 1, durationMs = 42), summary)
+        assertEquals(listOf(summary), summaries)
     }
 
     @Test
-    fun `operationSuccess increments moved count`() {
+    fun `rollBackResults republishes successes as rolled back`() {
         val reporter = ProgressReporter()
-        reporter.operationSuccess("extract-interface", "com.A", "com.B")
-
-        val (moved, _, _) = reporter.getStats()
-        assertEquals(1, moved)
+        val received = mutableListOf<OperationResult>()
+        reporter.addResultListener(object : ResultListener {
+            override fun onResult(result: OperationResult) {
+                received.add(result)
+            }
+        })
+        val moved = reporter.result(OperationResult("move", "com.A", "com.B", ResultStatus.SUCCESS))
+        reporter.result(OperationResult("move", "com.C", "com.D", ResultStatus.FAILED, "boom"))
+
+        assertEquals(1, reporter.rollBackResults())
+
+        assertEquals(moved.copy(status = ResultStatus.ROLLED_BACK, error = "rolled back"), received.last())
+        assertEquals(
+            RunSummary(succeeded = 0, failed = 1, skipped = 0, durationMs = 7, rolledBack = 1),
+            reporter.publishSummary(durationMs = 7)
+        )
     }
 
     @Test
-    fun `operationFailure increments failed count`() {
-        val reporter = ProgressReporter()
-        reporter.operationFailure("replace-dependency", "com.A", "error")
+    fun `patternResolved names the strategy`() {
+        val buffer = ByteArrayOutputStream()
+        val reporter = ProgressReporter(PrintStream(buffer, true, Charsets.UTF_8))
 
-        val (_, failed, _) = reporter.getStats()
-        assertEquals(1, failed)
-        assertTrue(reporter.hasFailures())
+        reporter.patternResolved("**.*Entity", 3, ResolutionStrategy.SHORT_NAME_INDEX)
+        reporter.patternResolved("com.a.Foo", 1)
+
+        assertEquals(
+            listOf("  **.*Entity → 3 classes (short-name index)", "  com.a.Foo → 1 class"),
+            buffer.toString(Charsets.UTF_8).lines().filter { it.isNotEmpty() }
+        )
     }
 
     @Test
-    fun `hasFailures is false when only successes and skips`() {
-        val reporter = ProgressReporter()
-        reporter.moveSuccess("com.A", "com.B")
-        reporter.moveSkipped("com.C", "reason")
+    fun `patternUnresolved tells no match from index not ready`() {
+        val buffer = ByteArrayOutputStream()
+        val reporter = ProgressReporter(PrintStream(buffer, true, Charsets.UTF_8))
 
-        assertFalse(reporter.hasFailures())
-    }
+        reporter.patternUnresolved("com.a.*", PatternStatus.NO_MATCH)
+        reporter.patternUnresolved("com.b.*", PatternStatus.INDEX_NOT_READY)
 
-    @Test
-    fun `mixed operations track correctly`() {
-        val reporter = ProgressReporter()
-        reporter.moveSuccess("a", "b")
-        reporter.moveSuccess("c", "d")
-        reporter.moveFailure("e", "err")
-        reporter.moveSkipped("f", "skip")
-
-        val (moved, failed, skipped) = reporter.getStats()
-        assertEquals(2, moved)
-        assertEquals(1, failed)
-        assertEquals(1, skipped)
-        assertTrue(reporter.hasFailures())
+        assertEquals(
+            listOf("  com.a.* → no match", "  com.b.* → not resolved, index not ready"),
+            buffer.toString(Charsets.UTF_8).lines().filter { it.isNotEmpty() }
+        )
     }
 }
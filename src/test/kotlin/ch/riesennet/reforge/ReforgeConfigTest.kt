@@ -135,4 +135,54 @@ class ReforgeConfigTest {
         @Suppress("UNCHECKED_CAST")
         assertEquals(listOf("com.example.A", "com.example.B"), fields["sources"] as List<String>)
     }
+
+    @Test
+    fun `load without scope section is unrestricted`() {
+        val file = writeConfig("""
+            operations:
+              - type: move
+                target: com.example.target
+                sources: [com.example.Foo]
+        """.trimIndent())
+
+        val config = ReforgeConfig.load(file)
+
+        assertEquals(1, config.operations.size)
+        assertFalse(config.scope.isRestricted)
+    }
+
+    @Test
+    fun `load parses scope section`() {
+        val file = writeConfig("""
+            scope:
+              modules: [billing, billing-api]
+              directories: ["services/billing/**"]
+              exclude: ["**/generated/**"]
+            operations:
+              - type: move
+                target: com.example.target
+                sources: [com.example.Foo]
+        """.trimIndent())
+
+        val scope = ReforgeConfig.load(file).scope
+
+        assertEquals(listOf("billing", "billing-api"), scope.modules)
+        assertEquals(listOf("services/billing/**"), scope.directories)
+        assertEquals(listOf("**/generated/**"), scope.exclude)
+        assertTrue(scope.isRestricted)
+    }
+
+    @Test
+    fun `load throws on unknown scope field`() {
+        val file = writeConfig("""
+            scope:
+              packages: [com.example]
+            operations: []
+        """.trimIndent())
+
+        val ex = assertThrows(IllegalArgumentException::class.java) {
+            ReforgeConfig.load(file)
+        }
+        assertEquals("Unknown 'scope' field(s): [packages]", ex.message)
+    }
 }
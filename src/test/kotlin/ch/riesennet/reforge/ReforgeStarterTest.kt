@@ -51,88 +51,219 @@ class ReforgeStarterTest {
         assertEquals("Missing required arguments", ex.message)
     }
 
-    // --- groupIntoBatches tests ---
-
     @Test
-    fun `groupIntoBatches with empty list`() {
-        val batches = starter.groupIntoBatches(emptyList())
-        assertTrue(batches.isEmpty())
+    fun `parseArgs without timeouts keeps defaults`() {
+        val args = starter.parseArgs(listOf("/project", "/config.yaml"))
+
+        assertNull(args.timeouts.index)
+        assertNull(args.timeouts.import)
     }
 
     @Test
-    fun `groupIntoBatches groups consecutive same-type ops`() {
-        val ops = listOf(
-            RawOperation("move", mapOf("target" to "a")),
-            RawOperation("move", mapOf("target" to "b")),
-            RawOperation("move", mapOf("target" to "c"))
+    fun `parseArgs with readiness timeouts`() {
+        val args = starter.parseArgs(
+            listOf("/project", "/config.yaml", "--index-timeout", "600", "--import-timeout", "30")
         )
 
-        val batches = starter.groupIntoBatches(ops)
+        assertEquals(java.time.Duration.ofSeconds(600), args.timeouts.index)
+        assertEquals(java.time.Duration.ofSeconds(30), args.timeouts.import)
+    }
 
-        assertEquals(1, batches.size)
-        assertEquals("move", batches[0].type)
-        assertEquals(3, batches[0].entries.size)
+    @Test
+    fun `parseArgs with chunk size`() {
+        val args = starter.parseArgs(listOf("/project", "/config.yaml", "--chunk-size", "20"))
+
+        assertEquals(20, args.chunkSize)
+        assertNull(starter.parseArgs(listOf("/project", "/config.yaml")).chunkSize)
     }
 
     @Test
-    fun `groupIntoBatches splits different types into separate batches`() {
-        val ops = listOf(
-            RawOperation("move", mapOf("target" to "a")),
-            RawOperation("extract-interface", mapOf("class" to "b")),
-            RawOperation("replace-dependency", mapOf("in" to "c"))
-        )
+    fun `parseArgs throws when chunk size is not a positive number`() {
+        val ex = assertThrows(IllegalArgumentException::class.java) {
+            starter.parseArgs(listOf("/project", "/config.yaml", "--chunk-size", "0"))
+        }
+        assertEquals("--chunk-size must be a positive number", ex.message)
+    }
 
-        val batches = starter.groupIntoBatches(ops)
+    @Test
+    fun `parseArgs with journal and resume`() {
+        val args = starter.parseArgs(listOf("/project", "/config.yaml", "--journal", "/tmp/run.journal", "--resume"))
 
-        assertEquals(3, batches.size)
-        assertEquals("move", batches[0].type)
-        assertEquals("extract-interface", batches[1].type)
-        assertEquals("replace-dependency", batches[2].type)
-        assertEquals(1, batches[0].entries.size)
-        assertEquals(1, batches[1].entries.size)
-        assertEquals(1, batches[2].entries.size)
+        assertEquals("/tmp/run.journal", args.journalPath)
+        assertTrue(args.resume)
     }
 
     @Test
-    fun `groupIntoBatches handles alternating types`() {
-        val ops = listOf(
-            RawOperation("move", mapOf("a" to "1")),
-            RawOperation("extract-interface", mapOf("b" to "2")),
-            RawOperation("move", mapOf("c" to "3"))
-        )
+    fun `parseArgs throws when resume has no journal`() {
+        val ex = assertThrows(IllegalArgumentException::class.java) {
+            starter.parseArgs(listOf("/project", "/config.yaml", "--resume"))
+        }
+        assertEquals("--resume requires --journal <file>", ex.message)
+    }
+
+    @Test
+    fun `parseArgs with transactional and max failures`() {
+        val args = starter.parseArgs(listOf("/project", "/config.yaml", "--transactional", "--max-failures", "3"))
+
+        assertTrue(args.transactional)
+        assertEquals(3, args.maxFailures)
+        assertEquals(0, starter.parseArgs(listOf("/project", "/config.yaml", "--transactional")).maxFailures)
+    }
+
+    @Test
+    fun `parseArgs throws when max failures is used without transactional`() {
+        val ex = assertThrows(IllegalArgumentException::class.java) {
+            starter.parseArgs(listOf("/project", "/config.yaml", "--max-failures", "3"))
+        }
+        assertEquals("--max-failures requires --transactional", ex.message)
+    }
+
+    @Test
+    fun `parseArgs throws when transactional is combined with a journal`() {
+        val ex = assertThrows(IllegalArgumentException::class.java) {
+            starter.parseArgs(listOf("/project", "/config.yaml", "--transactional", "--journal", "/tmp/run.journal"))
+        }
+        assertEquals("--transactional and --journal are mutually exclusive", ex.message)
+    }
 
-        val batches = starter.groupIntoBatches(ops)
+    @Test
+    fun `parseArgs throws when timeout is not a positive number`() {
+        val ex = assertThrows(IllegalArgumentException::class.java) {
+            starter.parseArgs(listOf("/project", "/config.yaml", "--index-timeout", "-5"))
+        }
+        assertEquals("--index-timeout must be a positive number of seconds", ex.message)
+    }
 
-        assertEquals(3, batches.size)
-        assertEquals("move", batches[0].type)
-        assertEquals("extract-interface", batches[1].type)
-        assertEquals("move", batches[2].type)
+    @Test
+    fun `parseArgs throws when timeout value is missing`() {
+        val ex = assertThrows(IllegalArgumentException::class.java) {
+            starter.parseArgs(listOf("/project", "/config.yaml", "--index-timeout", "--dry-run"))
+        }
+        assertEquals("--index-timeout requires a value", ex.message)
     }
 
     @Test
-    fun `groupIntoBatches single operation`() {
-        val ops = listOf(RawOperation("move", mapOf("target" to "a")))
+    fun `parseArgs with trace file`() {
+        val args = starter.parseArgs(listOf("/project", "/config.yaml", "--trace", "/tmp/trace.json"))
 
-        val batches = starter.groupIntoBatches(ops)
+        assertEquals("/tmp/trace.json", args.tracePath)
+    }
 
-        assertEquals(1, batches.size)
-        assertEquals("move", batches[0].type)
-        assertEquals(1, batches[0].entries.size)
+    @Test
+    fun `parseArgs without trace file`() {
+        val args = starter.parseArgs(listOf("/project", "/config.yaml", "--dry-run"))
+
+        assertNull(args.tracePath)
     }
 
     @Test
-    fun `groupIntoBatches preserves operation order within batch`() {
-        val ops = listOf(
-            RawOperation("move", mapOf("target" to "first")),
-            RawOperation("move", mapOf("target" to "second")),
-            RawOperation("move", mapOf("target" to "third"))
-        )
+    fun `parseArgs with ndjson output to stdout`() {
+        val args = starter.parseArgs(listOf("/project", "/config.yaml", "--output", "ndjson"))
+
+        assertEquals(ReforgeStarter.STDOUT, args.ndjsonOutput)
+    }
+
+    @Test
+    fun `parseArgs with ndjson output to file`() {
+        val args = starter.parseArgs(listOf("/project", "/config.yaml", "--output", "ndjson=/tmp/results.ndjson"))
+
+        assertEquals("/tmp/results.ndjson", args.ndjsonOutput)
+    }
+
+    @Test
+    fun `parseArgs throws on unsupported output format`() {
+        val ex = assertThrows(IllegalArgumentException::class.java) {
+            starter.parseArgs(listOf("/project", "/config.yaml", "--output", "xml"))
+        }
+        assertEquals("Unsupported --output format: xml (expected ndjson[=file])", ex.message)
+    }
+
+    @Test
+    fun `parseArgs checks for satisfied specs only with incremental flag`() {
+        assertFalse(starter.parseArgs(listOf("/project", "/config.yaml")).incremental)
+        assertTrue(starter.parseArgs(listOf("/project", "/config.yaml", "--incremental")).incremental)
+    }
+
+    @Test
+    fun `parseArgs with diff file implies dry run`() {
+        val args = starter.parseArgs(listOf("/project", "/config.yaml", "--diff", "/tmp/changes.diff"))
+
+        assertEquals("/tmp/changes.diff", args.diffPath)
+        assertTrue(args.dryRun)
+    }
+
+    @Test
+    fun `parseArgs throws when diff file is missing`() {
+        val ex = assertThrows(IllegalArgumentException::class.java) {
+            starter.parseArgs(listOf("/project", "/config.yaml", "--diff"))
+        }
+        assertEquals("--diff requires a value", ex.message)
+    }
+
+    @Test
+    fun `parseArgs for plan takes config and plan file`() {
+        val args = starter.parseArgs(listOf("/project", "/config.yaml", "/plan.yaml"), ReforgeStarter.Command.PLAN)
+
+        assertEquals(ReforgeStarter.Command.PLAN, args.command)
+        assertEquals("/config.yaml", args.configPath)
+        assertEquals("/plan.yaml", args.planPath)
+    }
+
+    @Test
+    fun `parseArgs for plan throws without plan file`() {
+        val ex = assertThrows(IllegalArgumentException::class.java) {
+            starter.parseArgs(listOf("/project", "/config.yaml"), ReforgeStarter.Command.PLAN)
+        }
+        assertEquals("Missing required arguments", ex.message)
+    }
 
-        val batches = starter.groupIntoBatches(ops)
-        val entries = batches[0].entries
+    @Test
+    fun `parseArgs for apply reads the config from the plan`() {
+        val args = starter.parseArgs(listOf("/project", "/plan.yaml", "--transactional"), ReforgeStarter.Command.APPLY)
+
+        assertEquals(ReforgeStarter.Command.APPLY, args.command)
+        assertNull(args.configPath)
+        assertEquals("/plan.yaml", args.planPath)
+        assertTrue(args.transactional)
+    }
+
+    // --- parseServeArgs tests ---
+
+    @Test
+    fun `parseServeArgs with project path only`() {
+        val args = starter.parseServeArgs(listOf("/project"))
+
+        assertEquals("/project", args.projectPath)
+        assertNull(args.socketPath)
+        assertFalse(args.useStdin)
+    }
+
+    @Test
+    fun `parseServeArgs with socket path`() {
+        val args = starter.parseServeArgs(listOf("/project", "--socket", "/tmp/reforge.sock"))
+
+        assertEquals("/tmp/reforge.sock", args.socketPath)
+    }
 
-        assertEquals("first", entries[0].fields["target"])
-        assertEquals("second", entries[1].fields["target"])
-        assertEquals("third", entries[2].fields["target"])
+    @Test
+    fun `parseServeArgs with stdin`() {
+        val args = starter.parseServeArgs(listOf("/project", "--stdin"))
+
+        assertTrue(args.useStdin)
+    }
+
+    @Test
+    fun `parseServeArgs throws when socket path is missing`() {
+        assertThrows(IllegalArgumentException::class.java) {
+            starter.parseServeArgs(listOf("/project", "--socket"))
+        }
+    }
+
+    @Test
+    fun `parseServeArgs throws with empty arguments`() {
+        val ex = assertThrows(IllegalArgumentException::class.java) {
+            starter.parseServeArgs(emptyList())
+        }
+        assertEquals("Missing required arguments", ex.message)
     }
 }
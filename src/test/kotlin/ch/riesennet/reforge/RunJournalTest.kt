@@ -0,0 +1,112 @@
+package ch.riesennet.reforge
+
+import ch.riesennet.reforge.operation.OperationResult
+import ch.riesennet.reforge.operation.ResultStatus
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.io.File
+
+class RunJournalTest {
+
+    @TempDir
+    lateinit var dir: File
+
+    private val journalFile get() = File(dir, "run.journal")
+
+    private fun moveResult(file: File) = OperationResult(
+        "move", "com.a.Foo", "com.b.Foo", ResultStatus.SUCCESS, durationMs = 12, files = listOf(file.path)
+    )
+
+    @Test
+    fun `records batches that load back`() {
+        val source = File(dir, "Foo.java").apply { writeText("class Foo {}") }
+        val failure = OperationResult("extract-interface", "com.a.Bar", "com.a.IBar", ResultStatus.FAILED, "Class not found: \"com.a.Bar\"")
+
+        RunJournal(journalFile).use { journal ->
+            journal.start("config-1", resume = false)
+            journal.record(RunJournal.BatchRecord.completed(listOf(0, 2), "move", listOf(moveResult(source))))
+            journal.record(RunJournal.BatchRecord.completed(listOf(1), "extract-interface", listOf(failure)))
+        }
+
+        val batches = RunJournal(journalFile).load("config-1")
+
+        assertEquals(2, batches.size)
+        assertEquals(listOf(0, 2), batches[0].operations)
+        assertEquals("move", batches[0].type)
+        assertEquals(listOf(moveResult(source)), batches[0].results)
+        assertEquals(RunJournal.fingerprint(source), batches[0].files[source.path])
+        assertEquals(listOf(failure), batches[1].results)
+    }
+
+    @Test
+    fun `detects changed and deleted files`() {
+        val kept = File(dir, "Kept.java").apply { writeText("class Kept {}") }
+        val edited = File(dir, "Edited.java").apply { writeText("class Edited {}") }
+        val moved = File(dir, "Moved.java")
+        val record = RunJournal.BatchRecord.completed(
+            listOf(0), "move", listOf(moveResult(kept), moveResult(edited), moveResult(moved))
+        )
+
+        assertTrue(record.changedFiles().isEmpty())
+        assertNull(record.files[moved.path])
+
+        edited.writeText("class Edited { int x; }")
+        moved.writeText("class Moved {}")
+
+        assertEquals(listOf(edited.path, moved.path), record.changedFiles())
+    }
+
+    @Test
+    fun `files rewritten by a later batch are compared with their latest fingerprint`() {
+        val file = File(dir, "Foo.java").apply { writeText("class Foo {}") }
+        val first = RunJournal.BatchRecord.completed(listOf(0), "move", listOf(moveResult(file)))
+        file.writeText("class Foo implements IFoo {}")
+        val second = RunJournal.BatchRecord.completed(listOf(1), "extract-interface", listOf(moveResult(file)))
+
+        val latest = RunJournal.latestFingerprints(listOf(first, second))
+
+        assertEquals(listOf(file.path), first.changedFiles())
+        assertTrue(first.changedFiles(latest).isEmpty())
+    }
+
+    @Test
+    fun `resume appends to the journal`() {
+        RunJournal(journalFile).use { journal ->
+            journal.start("config-1", resume = false)
+            journal.record(RunJournal.BatchRecord(listOf(0), "move", emptyList(), emptyMap()))
+        }
+        RunJournal(journalFile).use { journal ->
+            journal.start("config-1", resume = true)
+            journal.record(RunJournal.BatchRecord(listOf(1), "move", emptyList(), emptyMap()))
+        }
+
+        assertEquals(listOf(listOf(0), listOf(1)), RunJournal(journalFile).load("config-1").map { it.operations })
+    }
+
+    @Test
+    fun `ignores a truncated last line`() {
+        RunJournal(journalFile).use { journal ->
+            journal.start("config-1", resume = false)
+            journal.record(RunJournal.BatchRecord(listOf(0), "move", emptyList(), emptyMap()))
+        }
+        journalFile.appendText("{\"type\":\"batch\",\"operations\":[1")
+
+        assertEquals(1, RunJournal(journalFile).load("config-1").size)
+    }
+
+    @Test
+    fun `rejects a journal written for a different config`() {
+        RunJournal(journalFile).use { it.start("config-1", resume = false) }
+
+        val ex = assertThrows(IllegalArgumentException::class.java) {
+            RunJournal(journalFile).load("config-2")
+        }
+        assertEquals("Journal ${journalFile.path} was written for a different config", ex.message)
+    }
+
+    @Test
+    fun `missing journal has no batches`() {
+        assertTrue(RunJournal(journalFile).load("config-1").isEmpty())
+    }
+}
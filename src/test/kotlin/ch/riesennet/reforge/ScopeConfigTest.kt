@@ -0,0 +1,44 @@
+package ch.riesennet.reforge
+
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+
+class ScopeConfigTest {
+
+    private val base = "/work/repo"
+
+    @Test
+    fun `empty scope accepts every path`() {
+        val scope = ScopeConfig()
+
+        assertFalse(scope.isRestricted)
+        assertTrue(scope.acceptsPath("$base/anything/Foo.java", base))
+    }
+
+    @Test
+    fun `directory globs cover everything below them`() {
+        val scope = ScopeConfig(directories = listOf("services/billing", "libs/*/src"))
+
+        assertTrue(scope.acceptsPath("$base/services/billing/src/main/java/Foo.java", base))
+        assertTrue(scope.acceptsPath("$base/libs/money/src/Money.java", base))
+        assertFalse(scope.acceptsPath("$base/services/billing-legacy/Foo.java", base))
+        assertFalse(scope.acceptsPath("$base/services/shipping/Foo.java", base))
+    }
+
+    @Test
+    fun `exclude globs win over directories`() {
+        val scope = ScopeConfig(directories = listOf("services/**"), exclude = listOf("**/generated"))
+
+        assertTrue(scope.acceptsPath("$base/services/billing/Foo.java", base))
+        assertFalse(scope.acceptsPath("$base/services/billing/generated/Foo.java", base))
+    }
+
+    @Test
+    fun `modules alone do not filter paths`() {
+        val scope = ScopeConfig(modules = listOf("billing"))
+
+        assertTrue(scope.isRestricted)
+        assertTrue(scope.acceptsPath("$base/elsewhere/Foo.java", base))
+        assertEquals("modules billing", scope.describe())
+    }
+}
@@ -0,0 +1,91 @@
+package ch.riesennet.reforge
+
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+
+class TraceRecorderTest {
+
+    /** Clock advancing 1 ms per reading. */
+    private fun steppingClock(): () -> Long {
+        var now = 0L
+        return { now.also { now += 1_000_000 } }
+    }
+
+    @Test
+    fun `span returns block result and records duration`() {
+        val trace = TraceRecorder(steppingClock())
+        val result = trace.span("resolve", "resolve") { 42 }
+
+        assertEquals(42, result)
+        val span = trace.spans().single()
+        assertEquals("resolve", span.name)
+        assertEquals(1_000_000, span.startNanos)
+        assertEquals(1_000_000, span.durationNanos)
+    }
+
+    @Test
+    fun `span is recorded when block throws`() {
+        val trace = TraceRecorder(steppingClock())
+        assertThrows(IllegalStateException::class.java) {
+            trace.span("move", "refactor") { throw IllegalStateException("boom") }
+        }
+        assertEquals(listOf("move"), trace.spans().map { it.name })
+    }
+
+    @Test
+    fun `record adds a span measured elsewhere`() {
+        val trace = TraceRecorder(steppingClock())
+
+        trace.record("edt queue", "write", "chunk 1", startNanos = 3_000_000, durationNanos = 500_000)
+
+        val span = trace.spans().single()
+        assertEquals("edt queue", span.name)
+        assertEquals(3_000_000, span.startNanos)
+        assertEquals(500_000, span.durationNanos)
+    }
+
+    @Test
+    fun `summary aggregates by name sorted by total time`() {
+        val trace = TraceRecorder(steppingClock())
+        trace.span("save", "write") {}
+        trace.span("move", "refactor", "a") { trace.span("find usages", "refactor") {} }
+        trace.span("save", "write") {}
+
+        val summary = trace.summary()
+        assertEquals(listOf("move", "save", "find usages"), summary.map { it.name })
+        val save = summary.first { it.name == "save" }
+        assertEquals(2, save.count)
+        assertEquals(2_000_000, save.totalNanos)
+        assertEquals(1_000_000, save.maxNanos)
+    }
+
+    @Test
+    fun `chrome trace contains complete events in microseconds`() {
+        val trace = TraceRecorder(steppingClock())
+        trace.span("parse config", "setup", "refactor.yaml") {}
+
+        val json = StringBuilder().also { trace.writeChromeTrace(it) }.toString()
+
+        assertTrue(json.startsWith("{\"traceEvents\":["))
+        assertTrue(json.contains("\"name\":\"thread_name\",\"ph\":\"M\""))
+        assertTrue(json.contains(
+            "\"name\":\"parse config\",\"cat\":\"setup\",\"ph\":\"X\",\"ts\":1000,\"dur\":1000"
+        ))
+        assertTrue(json.contains("\"args\":{\"detail\":\"refactor.yaml\"}"))
+    }
+
+    @Test
+    fun `chrome trace includes run metadata as otherData`() {
+        val trace = TraceRecorder(steppingClock())
+        trace.span("open project", "setup") {}
+
+        val json = StringBuilder().also { trace.writeChromeTrace(it, mapOf("peakHeapMb" to 512)) }.toString()
+
+        assertTrue(json.contains("\"displayTimeUnit\":\"ms\",\"otherData\":{\"peakHeapMb\":512}}"))
+    }
+
+    @Test
+    fun `empty recorder has empty summary`() {
+        assertTrue(TraceRecorder().summary().isEmpty())
+    }
+}
@@ -0,0 +1,132 @@
+package ch.riesennet.reforge.daemon
+
+import ch.riesennet.reforge.operation.OperationResult
+import ch.riesennet.reforge.operation.ResultStatus
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.io.ByteArrayOutputStream
+import java.io.File
+
+class ReforgeDaemonTest {
+
+    @TempDir
+    lateinit var tempDir: File
+
+    private fun serve(input: String, daemon: ReforgeDaemon): List<String> {
+        val output = ByteArrayOutputStream()
+        daemon.serveStreams(input.byteInputStream(), output)
+        return output.toString(Charsets.UTF_8).lines().filter { it.isNotEmpty() }
+    }
+
+    @Test
+    fun `parseRequest recognizes run with dry-run`() {
+        val request = ReforgeDaemon.parseRequest("run /tmp/refactor.yaml --dry-run")
+
+        assertEquals(ReforgeDaemon.Request.Run("/tmp/refactor.yaml", listOf("--dry-run")), request)
+    }
+
+    @Test
+    fun `parseRequest reads tab-separated run options`() {
+        val request = ReforgeDaemon.parseRequest("run\t/tmp/my project/refactor.yaml\t--journal\t/tmp/run journal\t--output\tndjson")
+
+        assertEquals(
+            ReforgeDaemon.Request.Run("/tmp/my project/refactor.yaml", listOf("--journal", "/tmp/run journal", "--output", "ndjson")),
+            request
+        )
+        assertTrue((request as ReforgeDaemon.Request.Run).streamsNdjson)
+    }
+
+    @Test
+    fun `parseRequest keeps spaces in config path`() {
+        val request = ReforgeDaemon.parseRequest("run /tmp/my project/refactor.yaml")
+
+        assertEquals(ReforgeDaemon.Request.Run("/tmp/my project/refactor.yaml"), request)
+    }
+
+    @Test
+    fun `parseRequest rejects run without config`() {
+        assertTrue(ReforgeDaemon.parseRequest("run") is ReforgeDaemon.Request.Invalid)
+    }
+
+    @Test
+    fun `parseRequest rejects unknown commands`() {
+        assertTrue(ReforgeDaemon.parseRequest("explode") is ReforgeDaemon.Request.Invalid)
+    }
+
+    @Test
+    fun `formatResult produces tab-separated line`() {
+        val line = ReforgeDaemon.formatResult(
+            OperationResult("move", "com.a.Foo", "com.b.Foo", ResultStatus.FAILED, "boom\nagain")
+        )
+
+        assertEquals("result\tFAILED\tmove\tcom.a.Foo\tcom.b.Foo\tboom again", line)
+    }
+
+    @Test
+    fun `projectKey is stable for the same path`() {
+        val key = ReforgeDaemon.projectKey(tempDir)
+
+        assertEquals(key, ReforgeDaemon.projectKey(File(tempDir, ".")))
+        assertEquals(12, key.length)
+    }
+
+    @Test
+    fun `serveStreams runs requests and reports results`() {
+        val configs = mutableListOf<Pair<String, List<String>>>()
+        val daemon = ReforgeDaemon { configFile, options, reporter ->
+            configs.add(configFile.path to options)
+            reporter.info("working")
+            reporter.result(OperationResult("move", "com.a.Foo", "com.b.Foo", ResultStatus.SUCCESS))
+            reporter.info("done")
+        }
+
+        val lines = serve("run first.yaml\nrun second.yaml --dry-run\n", daemon)
+
+        assertEquals(listOf("first.yaml" to emptyList(), "second.yaml" to listOf("--dry-run")), configs)
+        assertEquals(
+            listOf(
+                "working", "result\tSUCCESS\tmove\tcom.a.Foo\tcom.b.Foo\t", "done", "exit 0",
+                "working", "result\tSUCCESS\tmove\tcom.a.Foo\tcom.b.Foo\t", "done", "exit 0"
+            ),
+            lines
+        )
+    }
+
+    @Test
+    fun `serveStreams replaces result lines with NDJSON records when requested`() {
+        val daemon = ReforgeDaemon { _, _, reporter ->
+            reporter.result(OperationResult("move", "com.a.Foo", "com.b.Foo", ResultStatus.SUCCESS))
+        }
+
+        val lines = serve("run\trefactor.yaml\t--output\tndjson\n", daemon)
+
+        assertEquals(2, lines.size)
+        assertTrue(lines[0].startsWith("ndjson\t{\"type\":\"result\",\"action\":\"move\""))
+        assertEquals("exit 0", lines[1])
+    }
+
+    @Test
+    fun `serveStreams reports failures with exit code 1`() {
+        val daemon = ReforgeDaemon { _, _, reporter ->
+            reporter.result(OperationResult("move", "com.a.Foo", "com.b.Foo", ResultStatus.FAILED, "boom"))
+        }
+
+        val lines = serve("run refactor.yaml\n", daemon)
+
+        assertEquals("exit 1", lines.last())
+    }
+
+    @Test
+    fun `serveStreams stops on shutdown`() {
+        var runs = 0
+        val daemon = ReforgeDaemon { _, _, _ ->
+            runs++
+        }
+
+        val lines = serve("ping\nshutdown\nrun refactor.yaml\n", daemon)
+
+        assertEquals(listOf("pong", "bye"), lines)
+        assertEquals(0, runs)
+    }
+}
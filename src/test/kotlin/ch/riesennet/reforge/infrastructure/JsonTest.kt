@@ -0,0 +1,28 @@
+package ch.riesennet.reforge.infrastructure
+
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+
+class JsonTest {
+
+    @Test
+    fun `writes nested maps and lists`() {
+        val json = Json.write(mapOf("a" to 1, "b" to listOf(true, null, "x"), "c" to mapOf("d" to 2.5)))
+        assertEquals("{\"a\":1,\"b\":[true,null,\"x\"],\"c\":{\"d\":2.5}}", json)
+    }
+
+    @Test
+    fun `escapes quotes, backslashes and control characters`() {
+        assertEquals("\"a\\\"b\\\\c\\nd\\u0001\"", Json.write("a\"b\\c\nd\u0001"))
+    }
+
+    @Test
+    fun `non-finite doubles are written as null`() {
+        assertEquals("[null,null]", Json.write(listOf(Double.NaN, Double.POSITIVE_INFINITY)))
+    }
+
+    @Test
+    fun `unicode text is kept as is`() {
+        assertEquals("\"com.A → com.B\"", Json.write("com.A → com.B"))
+    }
+}
@@ -0,0 +1,100 @@
+package ch.riesennet.reforge.infrastructure
+
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+
+class LineDiffTest {
+
+    private fun text(vararg lines: String) = lines.joinToString("\n", postfix = "\n")
+
+    @Test
+    fun `changes of equal texts are empty`() {
+        assertTrue(LineDiff.changes(listOf("a", "b"), listOf("a", "b")).isEmpty())
+    }
+
+    @Test
+    fun `changes find replaced inserted and deleted lines`() {
+        val old = listOf("a", "b", "c", "d", "e")
+        val new = listOf("a", "B", "c", "e", "f")
+
+        assertEquals(
+            listOf(LineDiff.Change(1, 2, 1, 2), LineDiff.Change(3, 4, 3, 3), LineDiff.Change(5, 5, 4, 5)),
+            LineDiff.changes(old, new)
+        )
+    }
+
+    @Test
+    fun `unified diff shows changes with context`() {
+        val old = text("package com.a;", "", "import com.a.Foo;", "", "class Bar {", "    Foo foo;", "}")
+        val new = text("package com.a;", "", "import com.b.Foo;", "", "class Bar {", "    Foo foo;", "}")
+
+        val expected = """
+            --- a/src/Bar.java
+            +++ b/src/Bar.java
+            @@ -1,6 +1,6 @@
+             package com.a;
+             
+            -import com.a.Foo;
+            +import com.b.Foo;
+             
+             class Bar {
+                 Foo foo;
+
+        """.trimIndent()
+        assertEquals(expected, LineDiff.unified("src/Bar.java", "src/Bar.java", old, new))
+    }
+
+    @Test
+    fun `unified diff splits distant changes into hunks`() {
+        val old = (1..20).map { "line $it" }
+        val new = old.toMutableList().apply { this[1] = "changed 2"; this[17] = "changed 18" }
+
+        val diff = LineDiff.unified("f", "f", old.joinToString("\n"), new.joinToString("\n"))
+
+        assertEquals(listOf("@@ -1,5 +1,5 @@", "@@ -15,6 +15,6 @@"), diff.lines().filter { it.startsWith("@@") })
+    }
+
+    @Test
+    fun `unified diff of a created file`() {
+        assertEquals(
+            "--- /dev/null\n+++ b/IFoo.java\n@@ -0,0 +1,2 @@\n+interface IFoo {\n+}\n",
+            LineDiff.unified("IFoo.java", "IFoo.java", null, text("interface IFoo {", "}"))
+        )
+    }
+
+    @Test
+    fun `unified diff of equal texts is empty`() {
+        assertEquals("", LineDiff.unified("f", "f", text("a"), text("a")))
+    }
+
+    @Test
+    fun `merge combines edits of different lines`() {
+        val base = text("import a.A;", "", "class C {", "    A a;", "    B b;", "}")
+        val ours = text("import a.A;", "", "class C {", "    X a;", "    B b;", "}")
+        val theirs = text("import a.A;", "", "class C {", "    A a;", "    Y b;", "}")
+
+        assertEquals(text("import a.A;", "", "class C {", "    X a;", "    Y b;", "}"), LineDiff.merge(base, ours, theirs))
+    }
+
+    @Test
+    fun `merge keeps both insertions at the same line`() {
+        val base = text("import a.A;", "", "class C {}")
+        val ours = text("import a.A;", "import x.X;", "", "class C {}")
+        val theirs = text("import a.A;", "import y.Y;", "", "class C {}")
+
+        assertEquals(text("import a.A;", "import x.X;", "import y.Y;", "", "class C {}"), LineDiff.merge(base, ours, theirs))
+    }
+
+    @Test
+    fun `merge of the same edit keeps it once`() {
+        val base = text("a", "b")
+        val edited = text("a", "B")
+
+        assertEquals(edited, LineDiff.merge(base, edited, edited))
+    }
+
+    @Test
+    fun `merge of different edits of the same line conflicts`() {
+        assertNull(LineDiff.merge(text("a", "b"), text("a", "x"), text("a", "y")))
+    }
+}
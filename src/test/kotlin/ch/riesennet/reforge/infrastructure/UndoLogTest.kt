@@ -0,0 +1,71 @@
+package ch.riesennet.reforge.infrastructure
+
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+
+class UndoLogTest {
+
+    private fun UndoLog<String>.describe(): List<String> = undoOrder().map { change ->
+        when (change) {
+            is UndoLog.Change.Created -> "delete ${change.file}"
+            is UndoLog.Change.Moved -> "move ${change.file} back to ${change.oldParent}"
+            is UndoLog.Change.Renamed -> "rename ${change.file} back to ${change.oldName}"
+            is UndoLog.Change.ContentChanged -> "restore ${change.file} to ${String(change.content)}"
+            is UndoLog.Change.Deleted -> "recreate ${change.entries.joinToString { it.first }}"
+        }
+    }
+
+    @Test
+    fun `changes are undone latest first`() {
+        val log = UndoLog<String>()
+        log.created("/src/com/b/IService.java")
+        log.moved("/src/com/b/Foo.java", "/src/com/a")
+        log.deleted(listOf("/src/com/a" to null, "/src/com/a/package-info.java" to "package com.a;".toByteArray()))
+        log.contentChanged("/src/com/c/User.java") { "import com.a.Foo;".toByteArray() }
+
+        assertEquals(
+            listOf(
+                "restore /src/com/c/User.java to import com.a.Foo;",
+                "recreate /src/com/a, /src/com/a/package-info.java",
+                "move /src/com/b/Foo.java back to /src/com/a",
+                "delete /src/com/b/IService.java"
+            ),
+            log.describe()
+        )
+        assertEquals(4, log.size)
+    }
+
+    @Test
+    fun `deleted directory is recreated parents first`() {
+        val log = UndoLog<String>()
+        log.deleted(listOf("/src/com/a" to null, "/src/com/a/sub" to null, "/src/com/a/sub/Foo.java" to ByteArray(0)))
+
+        val deleted = log.undoOrder().single() as UndoLog.Change.Deleted
+        assertEquals(listOf("/src/com/a", "/src/com/a/sub", "/src/com/a/sub/Foo.java"), deleted.entries.map { it.first })
+        assertNull(deleted.entries[0].second)
+    }
+
+    @Test
+    fun `writes to a created file are not recorded`() {
+        val log = UndoLog<String>()
+        var read = false
+        log.created("/src/com/b/IService.java")
+        log.contentChanged("/src/com/b/IService.java") { read = true; ByteArray(0) }
+
+        assertEquals(listOf("delete /src/com/b/IService.java"), log.describe())
+        assertFalse(read)
+    }
+
+    @Test
+    fun `every write of a file is recorded so the earliest content is restored last`() {
+        val log = UndoLog<String>()
+        log.contentChanged("/src/Foo.java") { "v1".toByteArray() }
+        log.renamed("/src/Foo.java", "Old.java")
+        log.contentChanged("/src/Foo.java") { "v2".toByteArray() }
+
+        assertEquals(
+            listOf("restore /src/Foo.java to v2", "rename /src/Foo.java back to Old.java", "restore /src/Foo.java to v1"),
+            log.describe()
+        )
+    }
+}
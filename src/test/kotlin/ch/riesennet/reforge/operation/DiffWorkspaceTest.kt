@@ -0,0 +1,69 @@
+package ch.riesennet.reforge.operation
+
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+
+class DiffWorkspaceTest {
+
+    private val base = "class C {\n    A a;\n    B b;\n}\n"
+
+    @Test
+    fun `merges independent edits of one file`() {
+        val workspace = DiffWorkspace()
+
+        assertTrue(workspace.apply(listOf(FileEdit("/p/C.java", base, base.replace("A a", "X a")))).isEmpty())
+        assertTrue(workspace.apply(listOf(FileEdit("/p/C.java", base, base.replace("B b", "Y b")))).isEmpty())
+
+        assertEquals(1, workspace.changedFiles())
+        assertTrue(workspace.unifiedDiff("/p").contains("+    X a;\n+    Y b;\n"))
+    }
+
+    @Test
+    fun `rejects conflicting edits all or nothing`() {
+        val workspace = DiffWorkspace()
+        workspace.apply(listOf(FileEdit("/p/C.java", base, base.replace("A a", "X a"))))
+
+        val conflicts = workspace.apply(listOf(
+            FileEdit("/p/D.java", "class D {}\n", "class D { int x; }\n"),
+            FileEdit("/p/C.java", base, base.replace("A a", "Z a"))
+        ))
+
+        assertEquals(listOf("/p/C.java"), conflicts)
+        assertEquals(1, workspace.changedFiles())
+    }
+
+    @Test
+    fun `diff shows moved and created files relative to the base path`() {
+        val workspace = DiffWorkspace()
+        workspace.apply(listOf(
+            FileEdit("/p/a/Foo.java", "package a;\n", "package b;\n", newPath = "/p/b/Foo.java"),
+            FileEdit("/p/a/IBar.java", null, "interface IBar {}\n")
+        ))
+
+        val diff = workspace.unifiedDiff("/p")
+
+        assertTrue(diff.contains("--- a/a/Foo.java\n+++ b/b/Foo.java\n"))
+        assertTrue(diff.contains("--- /dev/null\n+++ b/a/IBar.java\n"))
+        assertEquals(2, workspace.changedFiles())
+    }
+
+    @Test
+    fun `counts changed files with approximate edits`() {
+        val workspace = DiffWorkspace()
+        workspace.apply(listOf(FileEdit("/p/C.java", base, base.replace("A a", "X a"))))
+        workspace.apply(listOf(
+            FileEdit("/p/C.java", base, base.replace("B b", "Y b")),
+            FileEdit("/p/D.java", "class D {}\n", "class D {}\n")
+        ), approximate = true)
+
+        assertEquals(1, workspace.approximateFiles())
+        assertEquals(1, workspace.changedFiles())
+    }
+
+    @Test
+    fun `text edits apply in order and skip overlaps`() {
+        val edits = listOf(TextEdit(7, 16, "com.b.Foo"), TextEdit(0, 0, "// moved\n"), TextEdit(8, 10, "x"))
+
+        assertEquals("// moved\nimport com.b.Foo;", TextEdit.apply("import com.a.Foo;", edits))
+    }
+}
@@ -0,0 +1,165 @@
+package ch.riesennet.reforge.operation
+
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+
+class OperationPlannerTest {
+
+    private data class TestSpec(val name: String) : OperationSpec
+
+    private fun operations(vararg ops: Pair<String, Footprint>): List<PlannedOperation> {
+        return ops.mapIndexed { index, (type, footprint) -> PlannedOperation(index, type, TestSpec("op$index"), footprint) }
+    }
+
+    private fun List<Batch>.shape(): List<Pair<String, List<Int>>> = map { batch -> batch.type to batch.operations.map { it.index } }
+
+    @Test
+    fun `plan with empty list`() {
+        assertTrue(OperationPlanner.plan(emptyList()).isEmpty())
+    }
+
+    @Test
+    fun `plan groups consecutive same-type ops`() {
+        val ops = operations(
+            "move" to Footprint.of("a."),
+            "move" to Footprint.of("b."),
+            "move" to Footprint.of("c.")
+        )
+
+        assertEquals(listOf("move" to listOf(0, 1, 2)), OperationPlanner.plan(ops).shape())
+    }
+
+    @Test
+    fun `plan keeps overlapping consecutive same-type ops in one batch`() {
+        val ops = operations(
+            "move" to Footprint.of("com.a.Foo", "com.b."),
+            "move" to Footprint.of("com.b.", "com.c.")
+        )
+
+        assertEquals(listOf("move" to listOf(0, 1)), OperationPlanner.plan(ops).shape())
+    }
+
+    @Test
+    fun `plan keeps dependent same-type ops apart when another operation runs between them`() {
+        val ops = operations(
+            "move" to Footprint.of("com.a.Foo", "com.b."),
+            "extract-interface" to Footprint.of("com.x.Service", "com.x.IService"),
+            "move" to Footprint.of("com.b.", "com.c.")
+        )
+
+        assertEquals(
+            listOf(
+                "move" to listOf(0),
+                "extract-interface" to listOf(1),
+                "move" to listOf(2)
+            ),
+            OperationPlanner.plan(ops).shape()
+        )
+    }
+
+    @Test
+    fun `plan merges independent interleaved operations`() {
+        val ops = operations(
+            "move" to Footprint.of("com.a.", "com.x."),
+            "extract-interface" to Footprint.of("com.b.Service", "com.b.IService"),
+            "move" to Footprint.of("com.c.", "com.y."),
+            "replace-dependency" to Footprint.of("com.d.Client", "com.d.Old", "com.d.New"),
+            "extract-interface" to Footprint.of("com.e.Repo", "com.e.IRepo")
+        )
+
+        val batches = OperationPlanner.plan(ops)
+
+        assertEquals(
+            listOf(
+                "move" to listOf(0, 2),
+                "extract-interface" to listOf(1, 4),
+                "replace-dependency" to listOf(3)
+            ),
+            batches.shape()
+        )
+        assertEquals(5, OperationPlanner.consecutiveBatchCount(ops))
+    }
+
+    @Test
+    fun `plan runs dependent operation after its dependency`() {
+        val ops = operations(
+            "move" to Footprint.of("com.a.", "com.x."),
+            "extract-interface" to Footprint.of("com.x.Service", "com.x.IService"),
+            "move" to Footprint.of("com.x.IService", "com.y.")
+        )
+
+        assertEquals(
+            listOf(
+                "move" to listOf(0),
+                "extract-interface" to listOf(1),
+                "move" to listOf(2)
+            ),
+            OperationPlanner.plan(ops).shape()
+        )
+    }
+
+    @Test
+    fun `plan places operation into the first batch after its dependencies`() {
+        val ops = operations(
+            "move" to Footprint.of("com.a.", "com.x."),
+            "extract-interface" to Footprint.of("com.x.Service", "com.x.IService"),
+            "move" to Footprint.of("com.x.IService", "com.y."),
+            "move" to Footprint.of("com.b.", "com.z."),
+            "extract-interface" to Footprint.of("com.y.IService", "com.y.IBase")
+        )
+
+        assertEquals(
+            listOf(
+                "move" to listOf(0, 3),
+                "extract-interface" to listOf(1),
+                "move" to listOf(2),
+                "extract-interface" to listOf(4)
+            ),
+            OperationPlanner.plan(ops).shape()
+        )
+    }
+
+    @Test
+    fun `plan keeps operations without a known footprint in place`() {
+        val ops = operations(
+            "move" to Footprint.of("com.a.", "com.x."),
+            "custom" to Footprint.EVERYTHING,
+            "move" to Footprint.of("com.b.", "com.y.")
+        )
+
+        assertEquals(
+            listOf("move" to listOf(0), "custom" to listOf(1), "move" to listOf(2)),
+            OperationPlanner.plan(ops).shape()
+        )
+    }
+
+    @Test
+    fun `operations overlapping an earlier batch are dependent`() {
+        val ops = operations(
+            "move" to Footprint.of("com.a.", "com.b."),
+            "extract-interface" to Footprint.of("com.b.Foo", "com.b.IFoo"),
+            "extract-interface" to Footprint.of("com.c.Bar", "com.c.IBar"),
+            "move" to Footprint.of("com.b.", "com.d.")
+        )
+
+        assertEquals(setOf(1, 3), OperationPlanner.dependentOperations(OperationPlanner.plan(ops)))
+    }
+
+    @Test
+    fun `operations sharing a batch are not dependent`() {
+        val ops = operations(
+            "move" to Footprint.of("com.a.Foo", "com.b."),
+            "move" to Footprint.of("com.b.", "com.c.")
+        )
+
+        assertTrue(OperationPlanner.dependentOperations(OperationPlanner.plan(ops)).isEmpty())
+    }
+
+    @Test
+    fun `footprints overlap on shared prefixes`() {
+        assertTrue(Footprint.of("com.example.").overlaps(Footprint.of("com.example.Task")))
+        assertTrue(Footprint.of("com.example.Task").overlaps(Footprint.of("com.example.TaskService")))
+        assertTrue(Footprint.EVERYTHING.overlaps(Footprint.of("org.other.Foo")))
+        assertFalse(Footprint.of("com.example.").overlaps(Footprint.of("com.other.")))
+    }
+}
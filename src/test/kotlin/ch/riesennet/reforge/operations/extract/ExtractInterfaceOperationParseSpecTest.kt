@@ -1,5 +1,7 @@
 package ch.riesennet.reforge.operations.extract
 
+import ch.riesennet.reforge.operation.OperationResult
+import ch.riesennet.reforge.operation.ResultStatus
 import org.junit.jupiter.api.Assertions.*
 import org.junit.jupiter.api.Test
 
@@ -94,4 +96,26 @@ class ExtractInterfaceOperationParseSpecTest {
         assertEquals(1, spec.methods.size)
         assertEquals("findAll", spec.methods[0])
     }
+
+    @Test
+    fun `label names the source class`() {
+        val spec = operation.parseSpec(mapOf(
+            "type" to "extract-interface",
+            "class" to "com.example.TaskService",
+            "interface" to "com.example.TaskPort",
+            "methods" to listOf("findAll")
+        ))
+
+        assertEquals("com.example.TaskService", operation.label(spec))
+    }
+
+    @Test
+    fun `resume drops the spec once its result is applied`() {
+        val spec = ExtractInterfaceSpec("com.example.TaskService", "com.example.TaskPort", listOf("findAll"))
+        val done = OperationResult("extract-interface", "com.example.TaskService", "com.example.TaskPort", ResultStatus.SUCCESS)
+        val other = OperationResult("extract-interface", "com.example.UserService", "com.example.UserPort", ResultStatus.FAILED)
+
+        assertNull(operation.withoutApplied(spec, listOf(done, other), listOf(done)))
+        assertEquals(spec, operation.withoutApplied(spec, listOf(done, other), emptyList()))
+    }
 }
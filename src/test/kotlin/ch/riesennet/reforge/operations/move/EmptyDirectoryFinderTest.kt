@@ -0,0 +1,75 @@
+package ch.riesennet.reforge.operations.move
+
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+
+class EmptyDirectoryFinderTest {
+
+    /** Paths ending in `/` are directories, everything else is a file. */
+    private fun finderFor(vararg paths: String): EmptyDirectoryFinder<String> {
+        val entries = paths.flatMap { path ->
+            val segments = path.trimEnd('/').split('/')
+            segments.indices.map { i ->
+                val entry = segments.take(i + 1).joinToString("/")
+                if (i < segments.size - 1 || path.endsWith('/')) "$entry/" else entry
+            }
+        }.toSet()
+        return EmptyDirectoryFinder(
+            parent = { dir -> dir.trimEnd('/').substringBeforeLast('/', "").takeIf { it.isNotEmpty() }?.let { "$it/" } },
+            children = { dir -> entries.filter { it != dir && it.startsWith(dir) && !it.removePrefix(dir).trimEnd('/').contains('/') } },
+            isDirectory = { it.endsWith('/') }
+        )
+    }
+
+    private val isSourceRoot: (String) -> Boolean = { it == "src/" }
+
+    @Test
+    fun `finds empty package and empty parents deepest first`() {
+        val finder = finderFor("src/com/a/b/", "src/com/x/Foo.java")
+
+        val empty = finder.find(listOf("src/com/a/b/"), isSourceRoot)
+
+        assertEquals(listOf("src/com/a/b/", "src/com/a/"), empty)
+    }
+
+    @Test
+    fun `keeps directories that still contain files`() {
+        val finder = finderFor("src/com/a/b/", "src/com/a/Bar.java")
+
+        val empty = finder.find(listOf("src/com/a/b/"), isSourceRoot)
+
+        assertEquals(listOf("src/com/a/b/"), empty)
+    }
+
+    @Test
+    fun `keeps directories with subdirectories that were not checked`() {
+        val finder = finderFor("src/com/a/b/", "src/com/a/untouched/")
+
+        val empty = finder.find(listOf("src/com/a/b/"), isSourceRoot)
+
+        assertEquals(listOf("src/com/a/b/"), empty)
+    }
+
+    @Test
+    fun `never checks the boundary`() {
+        val finder = finderFor("src/a/")
+
+        val empty = finder.find(listOf("src/a/"), isSourceRoot)
+
+        assertEquals(listOf("src/a/"), empty)
+    }
+
+    @Test
+    fun `shared parents are emptied once all packages below are empty`() {
+        val finder = finderFor("src/com/a/one/", "src/com/a/two/", "src/com/a/three/Baz.java")
+
+        assertEquals(
+            listOf("src/com/a/one/", "src/com/a/two/"),
+            finder.find(listOf("src/com/a/one/", "src/com/a/two/"), isSourceRoot).sorted()
+        )
+        assertEquals(
+            listOf("src/com/a/one/", "src/com/a/two/", "src/com/a/", "src/com/"),
+            finderFor("src/com/a/one/", "src/com/a/two/").find(listOf("src/com/a/one/", "src/com/a/two/"), isSourceRoot)
+        )
+    }
+}
@@ -86,4 +86,61 @@ class MoveOperationParseSpecTest {
 
         assertEquals(listOf("com.example.model.Task*", "com.example.**.*Repository"), spec.sources)
     }
+
+    @Test
+    fun `parseSpec defaults to searching comments and text everywhere`() {
+        val raw = mapOf<String, Any>(
+            "type" to "move",
+            "target" to "com.example.target",
+            "sources" to listOf("com.example.Foo")
+        )
+
+        val spec = operation.parseSpec(raw) as MoveSpec
+
+        assertEquals(UsageSearchOptions(), spec.search)
+    }
+
+    @Test
+    fun `parseSpec with search options and text-search scope`() {
+        val raw = mapOf<String, Any>(
+            "type" to "move",
+            "target" to "com.example.target",
+            "sources" to listOf("com.example.Foo"),
+            "search-comments" to false,
+            "search-text" to true,
+            "text-search" to mapOf(
+                "files" to listOf("*.xml", "*.properties"),
+                "directories" to listOf("src/main/resources")
+            )
+        )
+
+        val spec = operation.parseSpec(raw) as MoveSpec
+
+        assertFalse(spec.search.searchInComments)
+        assertTrue(spec.search.searchTextOccurrences)
+        assertEquals(listOf("*.xml", "*.properties"), spec.search.textFiles)
+        assertEquals(listOf("src/main/resources"), spec.search.textDirectories)
+    }
+
+    @Test
+    fun `parseSpec throws when search-text is not a boolean`() {
+        val raw = mapOf<String, Any>(
+            "type" to "move",
+            "target" to "com.example.target",
+            "sources" to listOf("com.example.Foo"),
+            "search-text" to "no"
+        )
+
+        val ex = assertThrows(IllegalArgumentException::class.java) {
+            operation.parseSpec(raw)
+        }
+        assertEquals("Move operation 'search-text' must be true or false", ex.message)
+    }
+
+    @Test
+    fun `label lists the source patterns`() {
+        val spec = MoveSpec(target = "com.example.target", sources = listOf("com.example.Foo", "com.example.Bar*"))
+
+        assertEquals("com.example.Foo, com.example.Bar*", operation.label(spec))
+    }
 }
@@ -0,0 +1,65 @@
+package ch.riesennet.reforge.operations.move
+
+import ch.riesennet.reforge.operation.OperationResult
+import ch.riesennet.reforge.operation.ResultStatus
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+
+class MoveOperationPreCheckTest {
+
+    private val operation = MoveOperation()
+
+    private val existing = setOf("com.example.target.Foo")
+
+    private fun satisfied(pattern: String, matches: List<String>): Boolean {
+        return operation.isPatternSatisfied(pattern, "com.example.target", matches) { it in existing }
+    }
+
+    @Test
+    fun `pattern whose classes are all in the target is satisfied`() {
+        assertTrue(satisfied("com.example.**.*Service", listOf("com.example.target.TaskService")))
+    }
+
+    @Test
+    fun `pattern with a class outside the target is not satisfied`() {
+        assertFalse(satisfied("com.example.*", listOf("com.example.target.Foo", "com.example.Bar")))
+    }
+
+    @Test
+    fun `classes in a subpackage of the target are not satisfied`() {
+        assertFalse(satisfied("com.example.**", listOf("com.example.target.sub.Foo")))
+    }
+
+    @Test
+    fun `exact pattern without match is satisfied once its class is in the target`() {
+        assertTrue(satisfied("com.example.old.Foo", emptyList()))
+        assertFalse(satisfied("com.example.old.Missing", emptyList()))
+    }
+
+    @Test
+    fun `glob without match is left to the move to report`() {
+        assertFalse(satisfied("com.example.old.*", emptyList()))
+    }
+
+    private fun moved(source: String, status: ResultStatus = ResultStatus.SUCCESS) =
+        OperationResult("move", source, "com.example.target.${source.substringAfterLast('.')}", status)
+
+    @Test
+    fun `resume drops patterns whose classes are all applied`() {
+        val spec = MoveSpec(target = "com.example.target", sources = listOf("com.example.old.Foo", "com.example.old.B*"))
+        val recorded = listOf(moved("com.example.old.Foo"), moved("com.example.old.Bar"), moved("com.example.old.Baz", ResultStatus.FAILED))
+
+        val remaining = operation.withoutApplied(spec, recorded, recorded.take(2)) as MoveSpec
+
+        assertEquals(listOf("com.example.old.B*"), remaining.sources)
+        assertNull(operation.withoutApplied(spec, recorded.take(2), recorded.take(2)))
+    }
+
+    @Test
+    fun `resume keeps patterns that recorded nothing or are not applied`() {
+        val spec = MoveSpec(target = "com.example.target", sources = listOf("com.example.old.Foo", "com.example.old.Missing"))
+        val recorded = listOf(moved("com.example.old.Foo"), moved("com.example.old.Missing", ResultStatus.FAILED))
+
+        assertEquals(spec, operation.withoutApplied(spec, recorded, emptyList()))
+    }
+}
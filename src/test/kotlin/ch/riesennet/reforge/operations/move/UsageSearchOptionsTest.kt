@@ -0,0 +1,53 @@
+package ch.riesennet.reforge.operations.move
+
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+
+class UsageSearchOptionsTest {
+
+    private val base = "/work/project"
+
+    @Test
+    fun `default options accept every file`() {
+        val options = UsageSearchOptions()
+
+        assertFalse(options.hasTextScope)
+        assertTrue(options.acceptsTextFile("$base/src/main/resources/app.yaml", base))
+    }
+
+    @Test
+    fun `file globs match the file name`() {
+        val options = UsageSearchOptions(textFiles = listOf("*.xml", "*.properties"))
+
+        assertTrue(options.hasTextScope)
+        assertTrue(options.acceptsTextFile("$base/src/main/resources/beans.xml", base))
+        assertTrue(options.acceptsTextFile("$base/config/app.properties", base))
+        assertFalse(options.acceptsTextFile("$base/docs/readme.md", base))
+    }
+
+    @Test
+    fun `file globs with a slash match the project-relative path`() {
+        val options = UsageSearchOptions(textFiles = listOf("src/main/resources/**/*.yaml"))
+
+        assertTrue(options.acceptsTextFile("$base/src/main/resources/config/app.yaml", base))
+        assertFalse(options.acceptsTextFile("$base/src/test/resources/config/app.yaml", base))
+    }
+
+    @Test
+    fun `directories restrict to files below them`() {
+        val options = UsageSearchOptions(textDirectories = listOf("src/main/resources/"))
+
+        assertTrue(options.acceptsTextFile("$base/src/main/resources/beans.xml", base))
+        assertFalse(options.acceptsTextFile("$base/src/main/resources-old/beans.xml", base))
+        assertFalse(options.acceptsTextFile("$base/docs/beans.xml", base))
+    }
+
+    @Test
+    fun `files must match both a glob and a directory`() {
+        val options = UsageSearchOptions(textFiles = listOf("*.xml"), textDirectories = listOf("config"))
+
+        assertTrue(options.acceptsTextFile("$base/config/beans.xml", base))
+        assertFalse(options.acceptsTextFile("$base/config/app.yaml", base))
+        assertFalse(options.acceptsTextFile("$base/other/beans.xml", base))
+    }
+}
@@ -64,4 +64,16 @@ class ReplaceDependencyOperationParseSpecTest {
         }
         assertEquals("replace-dependency requires 'with' field", ex.message)
     }
+
+    @Test
+    fun `label names the class whose dependency is replaced`() {
+        val spec = operation.parseSpec(mapOf(
+            "type" to "replace-dependency",
+            "in" to "com.example.TaskController",
+            "replace" to "com.example.TaskService",
+            "with" to "com.example.TaskPort"
+        ))
+
+        assertEquals("com.example.TaskController", operation.label(spec))
+    }
 }